@@ -0,0 +1,361 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+//Similarity of every pair of records, keeping the top k neighbours of each, with the measure of
+//KMeansClustering.calculateSimilarity: summed per-term minimum counts over the smaller total count.
+//A pair is computed from its smaller record y, whose total is the denominator, so a neighbour x needs an
+//overlap of at least minSimilarity * total(y). Terms are visited rarest first, which allows two cuts:
+// - prefix filtering: once the mass of y's remaining terms is below that overlap, a neighbour must share
+//   one of the terms already visited, so only the postings of y's prefix are probed
+// - suffix-mass bound: from the first shared term on, the overlap is at most the smaller remaining mass of
+//   the two records, which drops pairs before and during the merge
+//Records are probed in blocks on a thread pool. Pairs are merged into the top-k lists in block order and
+//ties go to the lower record index, so the graph does not depend on the thread count.
+//Run as: AllPairsSimilarity [k] [minSimilarity] [threads] to write neighbours.dat for the stored corpus.
+public class AllPairsSimilarity {
+
+    public static final int DEFAULT_NEIGHBOURS = 10;
+    public static final double DEFAULT_MIN_SIMILARITY = 0.3;
+    //records probed per task
+    private static final int BLOCK = 256;
+
+    private final List<SiteRecord> records;
+    private final int threads;
+    private final long[] totals;
+    //per record, the term ranks (rarest first) in ascending order, their counts, and the mass from each position on
+    private final int[][] ranks;
+    private final int[][] counts;
+    private final long[][] suffixMass;
+    //postings by rank: postingStart[r]..postingStart[r + 1] delimit the records holding the term of rank r
+    private final int[] postingStart;
+    private final int[] postingRecord;
+    private final int[] postingPosition;
+
+    //counters of the last run
+    private long candidates;
+    private long verified;
+    private long pairs;
+
+    public AllPairsSimilarity(List<SiteRecord> records, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.records = records;
+        this.threads = threads;
+        int n = records.size();
+
+        int maxTerm = -1;
+        for (SiteRecord record : records) {
+            int[] ids = record.getTermIds();
+            if (ids.length > 0) {
+                maxTerm = Math.max(maxTerm, ids[ids.length - 1]);
+            }
+        }
+        int[] documentFrequency = new int[maxTerm + 1];
+        for (SiteRecord record : records) {
+            for (int termId : record.getTermIds()) {
+                documentFrequency[termId]++;
+            }
+        }
+        //counting sort by document frequency; ties keep term id order
+        int[] firstRank = new int[n + 2];
+        for (int df : documentFrequency) {
+            firstRank[df + 1]++;
+        }
+        for (int df = 0; df <= n; df++) {
+            firstRank[df + 1] += firstRank[df];
+        }
+        int[] rank = new int[maxTerm + 1];
+        for (int termId = 0; termId <= maxTerm; termId++) {
+            rank[termId] = firstRank[documentFrequency[termId]]++;
+        }
+
+        totals = new long[n];
+        ranks = new int[n][];
+        counts = new int[n][];
+        suffixMass = new long[n][];
+        postingStart = new int[maxTerm + 2];
+        for (int r = 0; r < n; r++) {
+            SiteRecord record = records.get(r);
+            int[] ids = record.getTermIds();
+            int[] recordCounts = record.getCounts();
+            long[] packed = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                packed[i] = ((long) rank[ids[i]] << 32) | recordCounts[i];
+            }
+            Arrays.sort(packed);
+            ranks[r] = new int[ids.length];
+            counts[r] = new int[ids.length];
+            suffixMass[r] = new long[ids.length + 1];
+            for (int i = 0; i < ids.length; i++) {
+                ranks[r][i] = (int) (packed[i] >>> 32);
+                counts[r][i] = (int) packed[i];
+                postingStart[ranks[r][i] + 1]++;
+            }
+            for (int i = ids.length - 1; i >= 0; i--) {
+                suffixMass[r][i] = suffixMass[r][i + 1] + counts[r][i];
+            }
+            totals[r] = record.getTotalCount();
+        }
+        for (int t = 0; t <= maxTerm; t++) {
+            postingStart[t + 1] += postingStart[t];
+        }
+        postingRecord = new int[postingStart[maxTerm + 1]];
+        postingPosition = new int[postingRecord.length];
+        int[] next = Arrays.copyOf(postingStart, maxTerm + 1);
+        for (int r = 0; r < n; r++) {
+            for (int i = 0; i < ranks[r].length; i++) {
+                int p = next[ranks[r][i]]++;
+                postingRecord[p] = r;
+                postingPosition[p] = i;
+            }
+        }
+    }
+
+    //The k most similar records of every record, among those with a similarity of at least minSimilarity
+    public NeighbourGraph topNeighbours(int k, double minSimilarity) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        int n = records.size();
+        int[] neighbours = new int[n * k];
+        double[] similarities = new double[n * k];
+        int[] sizes = new int[n];
+        candidates = 0;
+        verified = 0;
+        pairs = 0;
+
+        ThreadLocal<int[]> seen = ThreadLocal.withInitial(() -> new int[n]);
+        List<Callable<Pairs>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += BLOCK) {
+            int blockFrom = from;
+            int blockTo = Math.min(n, from + BLOCK);
+            tasks.add(() -> probe(blockFrom, blockTo, minSimilarity, seen.get()));
+        }
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            List<Future<Pairs>> results = new ArrayList<>();
+            for (Callable<Pairs> task : tasks) {
+                results.add(executor != null ? executor.submit(task) : CompletableFuture.completedFuture(task.call()));
+            }
+            for (Future<Pairs> result : results) {
+                Pairs block = result.get();
+                candidates += block.candidates;
+                verified += block.verified;
+                pairs += block.size;
+                for (int p = 0; p < block.size; p++) {
+                    offer(neighbours, similarities, sizes, k, block.first[p], block.second[p], block.similarity[p]);
+                    offer(neighbours, similarities, sizes, k, block.second[p], block.first[p], block.similarity[p]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing neighbours", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        String[] urls = new String[n];
+        for (int r = 0; r < n; r++) {
+            urls[r] = records.get(r).getUrl();
+            sortBestFirst(neighbours, similarities, r * k, sizes[r]);
+        }
+        return NeighbourGraph.of(urls, k, neighbours, similarities, sizes);
+    }
+
+    //record pairs found for one block, with how many candidates were seen and merged
+    private static class Pairs {
+        int size;
+        int[] first = new int[64];
+        int[] second = new int[64];
+        double[] similarity = new double[64];
+        long candidates;
+        long verified;
+
+        void add(int y, int x, double s) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+                similarity = Arrays.copyOf(similarity, size * 2);
+            }
+            first[size] = y;
+            second[size] = x;
+            similarity[size++] = s;
+        }
+    }
+
+    //Pairs of every record y of the block with the records it owns; seen[x] == y + 1 marks x as probed for y
+    private Pairs probe(int from, int to, double minSimilarity, int[] seen) {
+        Pairs found = new Pairs();
+        for (int y = from; y < to; y++) {
+            int[] rankY = ranks[y];
+            long[] massY = suffixMass[y];
+            double totalY = totals[y];
+            int stamp = y + 1;
+            for (int i = 0; i < rankY.length && massY[i] / totalY >= minSimilarity; i++) {
+                for (int p = postingStart[rankY[i]], end = postingStart[rankY[i] + 1]; p < end; p++) {
+                    int x = postingRecord[p];
+                    if (seen[x] == stamp || !owns(y, x)) {
+                        continue;
+                    }
+                    seen[x] = stamp;
+                    found.candidates++;
+                    int j = postingPosition[p];
+                    if (Math.min(massY[i], suffixMass[x][j]) / totalY < minSimilarity) {
+                        continue;
+                    }
+                    found.verified++;
+                    long overlap = overlap(y, i, x, j, minSimilarity);
+                    if (overlap >= 0) {
+                        //same expression as calculateSimilarity, so the values match it exactly
+                        double similarity = KMeansClustering.overlapRatio(overlap, totals[y], totals[x]);
+                        if (similarity >= minSimilarity) {
+                            found.add(y, x, similarity);
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    //y computes the pair if its total is the smaller one, the lower index breaking ties
+    private boolean owns(int y, int x) {
+        return totals[y] < totals[x] || (totals[y] == totals[x] && y < x);
+    }
+
+    //Overlap from the first shared term on, or -1 as soon as it cannot reach minSimilarity * total(y)
+    private long overlap(int y, int i, int x, int j, double minSimilarity) {
+        int[] rankY = ranks[y];
+        int[] rankX = ranks[x];
+        int[] countY = counts[y];
+        int[] countX = counts[x];
+        long[] massY = suffixMass[y];
+        long[] massX = suffixMass[x];
+        double totalY = totals[y];
+        long common = 0;
+        while (i < rankY.length && j < rankX.length) {
+            if ((common + Math.min(massY[i], massX[j])) / totalY < minSimilarity) {
+                return -1;
+            }
+            if (rankY[i] < rankX[j]) {
+                i++;
+            } else if (rankY[i] > rankX[j]) {
+                j++;
+            } else {
+                common += Math.min(countY[i++], countX[j++]);
+            }
+        }
+        return common;
+    }
+
+    //Keep the k best neighbours of a record in a heap whose root is the worst one kept
+    private static void offer(int[] neighbours, double[] similarities, int[] sizes, int k, int record, int neighbour, double similarity) {
+        int base = record * k;
+        if (sizes[record] < k) {
+            int i = sizes[record]++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(neighbour, similarity, neighbours[base + parent], similarities[base + parent])) {
+                    break;
+                }
+                neighbours[base + i] = neighbours[base + parent];
+                similarities[base + i] = similarities[base + parent];
+                i = parent;
+            }
+            neighbours[base + i] = neighbour;
+            similarities[base + i] = similarity;
+            return;
+        }
+        if (!worse(neighbours[base], similarities[base], neighbour, similarity)) {
+            return;
+        }
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= k) {
+                break;
+            }
+            if (child + 1 < k && worse(neighbours[base + child + 1], similarities[base + child + 1],
+                    neighbours[base + child], similarities[base + child])) {
+                child++;
+            }
+            if (!worse(neighbours[base + child], similarities[base + child], neighbour, similarity)) {
+                break;
+            }
+            neighbours[base + i] = neighbours[base + child];
+            similarities[base + i] = similarities[base + child];
+            i = child;
+        }
+        neighbours[base + i] = neighbour;
+        similarities[base + i] = similarity;
+    }
+
+    //lower similarity is worse, and on a tie the higher record index
+    private static boolean worse(int neighbour1, double similarity1, int neighbour2, double similarity2) {
+        return similarity1 < similarity2 || (similarity1 == similarity2 && neighbour1 > neighbour2);
+    }
+
+    private static void sortBestFirst(int[] neighbours, double[] similarities, int base, int size) {
+        for (int i = 1; i < size; i++) {
+            int neighbour = neighbours[base + i];
+            double similarity = similarities[base + i];
+            int j = i - 1;
+            while (j >= 0 && worse(neighbours[base + j], similarities[base + j], neighbour, similarity)) {
+                neighbours[base + j + 1] = neighbours[base + j];
+                similarities[base + j + 1] = similarities[base + j];
+                j--;
+            }
+            neighbours[base + j + 1] = neighbour;
+            similarities[base + j + 1] = similarity;
+        }
+    }
+
+    //records sharing a prefix term with a record they could pair with
+    public long getCandidates() {
+        return candidates;
+    }
+
+    //candidates that survived the suffix-mass bound and were merged
+    public long getVerified() {
+        return verified;
+    }
+
+    //pairs at or above the minimum similarity
+    public long getPairs() {
+        return pairs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int k = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NEIGHBOURS;
+        double minSimilarity = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_MIN_SIMILARITY;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        PersistentHashTable hashTable = PersistentHashTable.loadFromFile("persistent_hashtable.dat");
+        TermDictionary dictionary = hashTable.getDictionary();
+        List<SiteRecord> records = new ArrayList<>(hashTable.size());
+        try (BlockScanner scanner = hashTable.scan()) {
+            scanner.forEachRemaining(record -> {
+                record.index(dictionary);
+                records.add(record);
+            });
+        }
+        long loaded = System.nanoTime();
+        AllPairsSimilarity allPairs = new AllPairsSimilarity(records, threads);
+        NeighbourGraph graph = allPairs.topNeighbours(k, minSimilarity);
+        graph.save(NeighbourGraph.FILE);
+        long done = System.nanoTime();
+        long n = records.size();
+        System.out.printf("%d records loaded in %.1f ms, neighbours in %.1f ms%n", n, (loaded - start) / 1e6, (done - loaded) / 1e6);
+        System.out.printf("%d of %d pairs were candidates, %d merged, %d at or above %.2f%n",
+                allPairs.getCandidates(), n * (n - 1) / 2, allPairs.getVerified(), allPairs.getPairs(), minSimilarity);
+        System.out.println("Wrote " + NeighbourGraph.FILE);
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.*;
+
+//LRU cache of decoded blocks, bounded by an estimate of their heap size instead of a block count
+public class BlockCache {
+
+    //rough per-object overheads used when estimating the heap size of a block
+    private static final int RECORD_OVERHEAD = 64;
+    private static final int ENTRY_OVERHEAD = 80;
+
+    private final long maxBytes;
+    private long currentBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    //access-ordered so the first entry is always the least recently used block
+    private final LinkedHashMap<Integer, List<SiteRecord>> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Long> blockBytes = new HashMap<>();
+
+    public BlockCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized List<SiteRecord> get(int blockIndex) {
+        List<SiteRecord> block = blocks.get(blockIndex);
+        if (block == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return block;
+    }
+
+    public synchronized void put(int blockIndex, List<SiteRecord> block) {
+        long bytes = estimateBytes(block);
+        //a block bigger than the whole cache would only evict everything else
+        if (bytes > maxBytes) {
+            return;
+        }
+        remove(blockIndex);
+        blocks.put(blockIndex, block);
+        blockBytes.put(blockIndex, bytes);
+        currentBytes += bytes;
+
+        Iterator<Map.Entry<Integer, List<SiteRecord>>> it = blocks.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Integer eldest = it.next().getKey();
+            it.remove();
+            currentBytes -= blockBytes.remove(eldest);
+            evictions++;
+        }
+    }
+
+    public synchronized void remove(int blockIndex) {
+        if (blocks.remove(blockIndex) != null) {
+            currentBytes -= blockBytes.remove(blockIndex);
+        }
+    }
+
+    public synchronized void clear() {
+        blocks.clear();
+        blockBytes.clear();
+        currentBytes = 0;
+    }
+
+    public static long estimateBytes(List<SiteRecord> block) {
+        long bytes = 0;
+        for (SiteRecord record : block) {
+            bytes += RECORD_OVERHEAD + 2L * record.getUrl().length();
+            if (record.isIndexed()) {
+                //compact records hold two ints per term and no map
+                bytes += 8L * record.getTermIds().length;
+                continue;
+            }
+            for (String word : record.getWordFrequency().keySet()) {
+                bytes += ENTRY_OVERHEAD + 2L * word.length();
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getBlockCount() {
+        return blocks.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BlockCache[blocks=" + blocks.size() + ", bytes=" + currentBytes + "/" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//Compact block file format. A block starts with the magic "KMBK" and a version byte. Version 1 is
+//followed directly by the payload: a varint record count and the records as written by
+//SiteRecord.writeTo. Version 2 adds a header of codec byte, payload length, stored length and the
+//CRC32 of the stored bytes, then the (possibly compressed) payload. Blocks written with Java
+//serialization start with 0xACED instead, so readers can tell the formats apart and all can coexist.
+//Version 3 has the version 2 header, and every record in its payload is followed by its MinHash
+//signature as a varint length and that many 4-byte ints (length 0 when the record has none).
+//Version 4 stores the signature values in 2 bytes each, as MinHash keeps only their low 16 bits;
+//version 3 signatures are truncated the same way when read, so both compare equal.
+//Block files are read through a memory mapping, and an uncompressed payload is decoded in place.
+public class BlockCodec {
+
+    private static final byte[] MAGIC = {'K', 'M', 'B', 'K'};
+    public static final int VERSION = 4;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 1 + 4 + 4 + 4;
+
+    public enum Compression {
+        NONE, LZ, DEFLATE
+    }
+
+    public static void write(String fileName, List<SiteRecord> block, TermDictionary dictionary, Compression compression) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName))) {
+            out.write(encode(block, dictionary, compression));
+        }
+    }
+
+    public static byte[] encode(List<SiteRecord> block, TermDictionary dictionary) throws IOException {
+        return encode(block, dictionary, Compression.NONE);
+    }
+
+    public static byte[] encode(List<SiteRecord> block, TermDictionary dictionary, Compression compression) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        writeVarInt(payload, block.size());
+        for (SiteRecord record : block) {
+            record.writeTo(payload, dictionary);
+            int[] signature = record.getMinHash();
+            writeVarInt(payload, signature == null ? 0 : signature.length);
+            if (signature != null) {
+                for (int value : signature) {
+                    payload.writeShort(value);
+                }
+            }
+        }
+        payload.flush();
+        byte[] raw = bytes.toByteArray();
+
+        byte[] stored;
+        switch (compression) {
+            case LZ:
+                stored = LzCodec.compress(raw);
+                break;
+            case DEFLATE:
+                stored = deflate(raw);
+                break;
+            default:
+                stored = raw;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_LENGTH + stored.length);
+        out.put(MAGIC);
+        out.put((byte) VERSION);
+        out.put((byte) compression.ordinal());
+        out.putInt(raw.length);
+        out.putInt(stored.length);
+        out.putInt((int) crc.getValue());
+        out.put(stored);
+        return out.array();
+    }
+
+    public static boolean isCompact(byte[] bytes) {
+        return bytes.length > MAGIC.length && Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    //Whether the remaining bytes start a compact block
+    public static boolean isCompact(ByteBuffer bytes) {
+        if (bytes.remaining() <= MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes.get(bytes.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Version of the compact block starting at the buffer's position, or 0 when it is not a compact block
+    public static int versionOf(ByteBuffer bytes) {
+        return isCompact(bytes) ? bytes.get(bytes.position() + MAGIC.length) : 0;
+    }
+
+    public static List<SiteRecord> decode(byte[] bytes, TermDictionary dictionary) throws IOException {
+        return decode(ByteBuffer.wrap(bytes), dictionary);
+    }
+
+    //Decode the block in the remaining bytes, which may be a file mapping
+    public static List<SiteRecord> decode(ByteBuffer bytes, TermDictionary dictionary) throws IOException {
+        if (!isCompact(bytes)) {
+            throw new IOException("Not a compact block");
+        }
+        ByteBuffer in = bytes.slice();
+        in.position(MAGIC.length);
+        int version = in.get();
+        if (version >= 2 && version <= 4) {
+            in = verifiedPayload(in);
+        } else if (version != 1) {
+            throw new CorruptBlockException("Unsupported block version " + version);
+        }
+        try {
+            int count = readVarInt(in);
+            List<SiteRecord> block = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                SiteRecord record = SiteRecord.readFrom(in, dictionary);
+                if (version >= 3) {
+                    int length = readVarInt(in);
+                    if (length > 0) {
+                        int[] signature = new int[length];
+                        for (int j = 0; j < length; j++) {
+                            signature[j] = version == 3 ? MinHash.truncate(in.getInt()) : in.getShort() & 0xFFFF;
+                        }
+                        record.setMinHash(signature);
+                    }
+                }
+                block.add(record);
+            }
+            return block;
+        } catch (RuntimeException e) {
+            //version 1 blocks have no checksum, so damage only shows up here
+            throw new CorruptBlockException("Malformed block payload", e);
+        }
+    }
+
+    //Check the CRC of the stored bytes, then undo the compression; uncompressed bytes are not copied
+    private static ByteBuffer verifiedPayload(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER_LENGTH - MAGIC.length - 1) {
+            throw new CorruptBlockException("Truncated block header");
+        }
+        int codec = in.get();
+        int rawLength = in.getInt();
+        int storedLength = in.getInt();
+        int expectedCrc = in.getInt();
+        if (codec < 0 || codec >= Compression.values().length || rawLength < 0 || storedLength != in.remaining()) {
+            throw new CorruptBlockException("Bad block header (codec " + codec + ", " + storedLength + " bytes stored, " + in.remaining() + " present)");
+        }
+        ByteBuffer stored = in.slice();
+        CRC32 crc = new CRC32();
+        crc.update(stored.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new CorruptBlockException("Block checksum mismatch");
+        }
+        switch (Compression.values()[codec]) {
+            case LZ:
+                byte[] compressed = new byte[storedLength];
+                stored.get(compressed);
+                return ByteBuffer.wrap(LzCodec.decompress(compressed, rawLength));
+            case DEFLATE:
+                return ByteBuffer.wrap(inflate(stored, rawLength));
+            default:
+                return stored;
+        }
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(ByteBuffer stored, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(stored);
+        byte[] raw = new byte[rawLength];
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, n, rawLength - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != rawLength) {
+                throw new CorruptBlockException("Inflated " + n + " bytes, expected " + rawLength);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new CorruptBlockException("Corrupt deflate data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    //Read a block file in either format. Compact blocks are decoded from a mapping of the file rather
+    //than a copy of it on the heap; Java-serialized blocks are streamed.
+    public static List<SiteRecord> read(String fileName, TermDictionary dictionary) throws IOException, ClassNotFoundException {
+        ByteBuffer mapped = map(fileName);
+        if (isCompact(mapped)) {
+            return decode(mapped, dictionary);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            return (List<SiteRecord>) in.readObject();
+        }
+    }
+
+    //Version of a block file as versionOf gives it, without decoding the block
+    public static int versionOf(String fileName) throws IOException {
+        return versionOf(map(fileName));
+    }
+
+    private static ByteBuffer map(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new CorruptBlockException(fileName + " is too large for a block");
+            }
+            //a mapping stays valid after its channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    //unsigned LEB128: 7 bits per byte, high bit set on every byte but the last
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+//Scan of the live records of a PersistentHashTable, block by block in file order, instead of one lookup
+//per url in hash order. A read-ahead thread reads and decodes the next blocks while the consumer works
+//through the current one, and drops records a later put superseded. Blocks bypass the table's BlockCache,
+//so a full scan does not evict the blocks that random lookups keep hot.
+//As a Spliterator, every trySplit hands off one decoded block, so a parallel stream works on blocks in
+//the common pool while the reader decodes the next ones. Close the scanner when stopping early.
+public class BlockScanner implements Spliterator<SiteRecord>, Iterator<SiteRecord>, AutoCloseable {
+
+    //decoded blocks that may wait for the consumer
+    public static final int DEFAULT_READ_AHEAD = 2;
+
+    //queued after the last block; compared by identity
+    private static final List<SiteRecord> END = new ArrayList<>(0);
+
+    private final BlockingQueue<List<SiteRecord>> ready;
+    private final Thread reader;
+    //thrown to the consumer once it reaches the block that failed
+    private volatile RuntimeException failure;
+    private volatile boolean closed;
+
+    private List<SiteRecord> current = Collections.emptyList();
+    private int position;
+    private boolean finished;
+
+    BlockScanner(PersistentHashTable table, int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("readAhead must be at least 1");
+        }
+        List<Integer> blocks = table.liveBlocks();
+        ready = new ArrayBlockingQueue<>(readAhead);
+        reader = new Thread(() -> readBlocks(table, blocks), "block-scanner");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readBlocks(PersistentHashTable table, List<Integer> blocks) {
+        try {
+            try {
+                for (int blockIndex : blocks) {
+                    if (closed) {
+                        return;
+                    }
+                    List<SiteRecord> live = table.liveRecordsIn(blockIndex);
+                    if (!live.isEmpty()) {
+                        ready.put(live);
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            ready.put(END);
+        } catch (InterruptedException e) {
+            //closed by the consumer
+        }
+    }
+
+    //Move to the next decoded block; false at the end of the scan
+    private boolean nextBlock() {
+        if (finished) {
+            return false;
+        }
+        try {
+            List<SiteRecord> block = ready.take();
+            if (block == END) {
+                finished = true;
+                if (failure != null) {
+                    throw failure;
+                }
+                return false;
+            }
+            current = block;
+            position = 0;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning blocks", e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= current.size()) {
+            if (!nextBlock()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SiteRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.get(position++);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super SiteRecord> action) {
+        if (!hasNext()) {
+            return false;
+        }
+        action.accept(next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super SiteRecord> action) {
+        while (hasNext()) {
+            action.accept(current.get(position++));
+        }
+    }
+
+    //The rest of the current block, or else the next decoded one
+    @Override
+    public Spliterator<SiteRecord> trySplit() {
+        List<SiteRecord> block;
+        if (position < current.size()) {
+            block = current.subList(position, current.size());
+        } else if (nextBlock()) {
+            block = current;
+        } else {
+            return null;
+        }
+        current = Collections.emptyList();
+        position = 0;
+        return Spliterators.spliterator(block, ORDERED | NONNULL);
+    }
+
+    //Unknown: records may be superseded while the scan runs. It also makes parallel streams keep
+    //splitting off blocks up to the end instead of finishing the tail on one thread.
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    //Stream over the scan that stops the reader when closed
+    public Stream<SiteRecord> stream(boolean parallel) {
+        return StreamSupport.stream(this, parallel).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        finished = true;
+        reader.interrupt();
+        ready.clear();
+    }
+}
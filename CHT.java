@@ -4,7 +4,12 @@ import java.util.Set;
 import java.util.Map;
 import java.util.AbstractMap;
 class CHT<K, V> implements java.io.Serializable {
+    //pinned to the values of the original classes so existing serialized tables still load
+    private static final long serialVersionUID = 4490013009154589401L;
+
     static final class Node<K, V> implements java.io.Serializable {
+        private static final long serialVersionUID = -6838008444848003414L;
+
         K key;
         V value;
         Node next;
@@ -66,6 +71,10 @@ class CHT<K, V> implements java.io.Serializable {
         }
     }
 
+    public int size() {
+        return size;
+    }
+
     public void clear() {
         for (int i = 0; i < table.length; ++i) {
             table[i] = null;
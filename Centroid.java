@@ -0,0 +1,151 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+//Mean of a cluster as sorted term ids with float weights. Averaging in float keeps the terms that integer
+//division used to round down to zero; truncate() then bounds the size so similarity calls against a
+//centroid stay cheap however large its cluster grows.
+public class Centroid implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String url;
+    private final transient TermDictionary dictionary;
+    private final int[] termIds;
+    private final float[] weights;
+    private final double totalWeight;
+
+    public Centroid(String url, TermDictionary dictionary, int[] termIds, float[] weights) {
+        this.url = url;
+        this.dictionary = dictionary;
+        this.termIds = termIds;
+        this.weights = weights;
+        double total = 0;
+        for (float weight : weights) {
+            total += weight;
+        }
+        this.totalWeight = total;
+    }
+
+    //A record used as a starting centroid
+    public static Centroid of(SiteRecord record) {
+        int[] counts = record.getCounts();
+        float[] weights = new float[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            weights[i] = counts[i];
+        }
+        return new Centroid(record.getUrl(), record.getDictionary(), record.getTermIds(), weights);
+    }
+
+    //Keep at most maxTerms of the heaviest terms, and only as many as it takes to cover massFraction of the
+    //total weight. maxTerms <= 0 and massFraction >= 1 disable the respective limit.
+    public Centroid truncate(int maxTerms, double massFraction) {
+        int keep = termIds.length;
+        if (maxTerms > 0) {
+            keep = Math.min(keep, maxTerms);
+        }
+        if (keep == 0 || (keep == termIds.length && massFraction >= 1)) {
+            return this;
+        }
+        float[] sorted = weights.clone();
+        Arrays.sort(sorted);
+        if (massFraction < 1) {
+            //heaviest first until the requested share of the mass is covered
+            double target = massFraction * totalWeight;
+            double covered = 0;
+            int needed = 0;
+            while (needed < sorted.length && covered < target) {
+                covered += sorted[sorted.length - 1 - needed];
+                needed++;
+            }
+            keep = Math.min(keep, Math.max(needed, 1));
+        }
+        if (keep == termIds.length) {
+            return this;
+        }
+        float cutoff = sorted[sorted.length - keep];
+        //everything above the cutoff, then ties at the cutoff in term order, so the result is deterministic
+        int above = 0;
+        for (float weight : weights) {
+            if (weight > cutoff) {
+                above++;
+            }
+        }
+        int ties = keep - above;
+        int[] keptIds = new int[keep];
+        float[] keptWeights = new float[keep];
+        int n = 0;
+        for (int i = 0; i < termIds.length; i++) {
+            if (weights[i] > cutoff || (weights[i] == cutoff && ties-- > 0)) {
+                keptIds[n] = termIds[i];
+                keptWeights[n] = weights[i];
+                n++;
+            }
+        }
+        return new Centroid(url, dictionary, keptIds, keptWeights);
+    }
+
+    //Same measure as KMeansClustering.calculateSimilarity: summed per-term minimum over the smaller total
+    public double similarity(SiteRecord record) {
+        int[] ids = record.getTermIds();
+        int[] counts = record.getCounts();
+        double common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ids.length && j < termIds.length) {
+            if (ids[i] < termIds[j]) {
+                i++;
+            } else if (ids[i] > termIds[j]) {
+                j++;
+            } else {
+                common += Math.min(counts[i++], weights[j++]);
+            }
+        }
+        return KMeansClustering.overlapRatio(common, record.getTotalCount(), totalWeight);
+    }
+
+    public double similarity(Centroid other) {
+        double common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < other.termIds.length && j < termIds.length) {
+            if (other.termIds[i] < termIds[j]) {
+                i++;
+            } else if (other.termIds[i] > termIds[j]) {
+                j++;
+            } else {
+                common += Math.min(other.weights[i++], weights[j++]);
+            }
+        }
+        return KMeansClustering.overlapRatio(common, other.totalWeight, totalWeight);
+    }
+
+    //url of the first member, which names the cluster
+    public String getUrl() {
+        return url;
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int[] getTermIds() {
+        return termIds;
+    }
+
+    public float[] getWeights() {
+        return weights;
+    }
+
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    public int size() {
+        return termIds.length;
+    }
+
+    //heap held by the two arrays
+    public long bytes() {
+        return 4L * termIds.length + 4L * weights.length;
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.List;
+
+//Inverted index over the centroids of one iteration: for every term id, the centroids containing it with
+//their weights. A record is scored against all centroids in one pass over its own terms instead of one
+//merge per centroid, which is what makes k in the hundreds affordable. Postings are stored flat, with
+//termStart[t]..termStart[t + 1] delimiting the postings of term t.
+public class CentroidIndex {
+
+    private final int[] termStart;
+    private final int[] postingCentroid;
+    private final float[] postingWeight;
+    private final double[] totals;
+
+    public CentroidIndex(List<Centroid> centroids) {
+        int maxTerm = -1;
+        int postings = 0;
+        for (Centroid centroid : centroids) {
+            int[] ids = centroid.getTermIds();
+            if (ids.length > 0) {
+                maxTerm = Math.max(maxTerm, ids[ids.length - 1]);
+            }
+            postings += ids.length;
+        }
+        termStart = new int[maxTerm + 2];
+        postingCentroid = new int[postings];
+        postingWeight = new float[postings];
+        totals = new double[centroids.size()];
+
+        //count the postings of every term, turn the counts into start offsets, then fill
+        for (Centroid centroid : centroids) {
+            for (int termId : centroid.getTermIds()) {
+                termStart[termId + 1]++;
+            }
+        }
+        for (int t = 0; t < maxTerm + 1; t++) {
+            termStart[t + 1] += termStart[t];
+        }
+        int[] next = new int[maxTerm + 1];
+        System.arraycopy(termStart, 0, next, 0, maxTerm + 1);
+        for (int c = 0; c < centroids.size(); c++) {
+            Centroid centroid = centroids.get(c);
+            int[] ids = centroid.getTermIds();
+            float[] weights = centroid.getWeights();
+            for (int i = 0; i < ids.length; i++) {
+                int p = next[ids[i]]++;
+                postingCentroid[p] = c;
+                postingWeight[p] = weights[i];
+            }
+            totals[c] = centroid.getTotalWeight();
+        }
+    }
+
+    public int size() {
+        return totals.length;
+    }
+
+    //Fill similarities[c] with Centroid.similarity(record) for every centroid c. The record's terms are
+    //visited in ascending order, so each centroid sums its overlaps in the same order as the merge does
+    //and the results are bit-for-bit the same.
+    public void score(SiteRecord record, double[] similarities) {
+        int k = totals.length;
+        for (int c = 0; c < k; c++) {
+            similarities[c] = 0;
+        }
+        int[] ids = record.getTermIds();
+        int[] counts = record.getCounts();
+        int indexedTerms = termStart.length - 1;
+        for (int i = 0; i < ids.length; i++) {
+            int termId = ids[i];
+            if (termId >= indexedTerms) {
+                //ids are sorted, no later term is in any centroid either
+                break;
+            }
+            int count = counts[i];
+            for (int p = termStart[termId], end = termStart[termId + 1]; p < end; p++) {
+                similarities[postingCentroid[p]] += Math.min(count, postingWeight[p]);
+            }
+        }
+        long total = record.getTotalCount();
+        for (int c = 0; c < k; c++) {
+            similarities[c] = KMeansClustering.overlapRatio(similarities[c], total, totals[c]);
+        }
+    }
+
+    //heap held by the index arrays
+    public long bytes() {
+        return 4L * termStart.length + 8L * postingCentroid.length + 8L * totals.length;
+    }
+}
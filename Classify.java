@@ -0,0 +1,64 @@
+import org.jsoup.Jsoup;
+
+import java.io.File;
+import java.util.*;
+
+//Label pages with the cluster of a saved model without re-clustering:
+//Classify [--model kmeans_model.dat] <url or file of urls>...
+//Prints one "url<TAB>cluster<TAB>centroid url" line per page.
+public class Classify {
+
+    public static void main(String[] args) throws Exception {
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        String modelFile = ClusterModel.FILE;
+        int flag = params.indexOf("--model");
+        if (flag >= 0 && flag + 1 < params.size()) {
+            modelFile = params.get(flag + 1);
+            params.subList(flag, flag + 2).clear();
+        }
+        if (params.isEmpty()) {
+            System.err.println("Usage: Classify [--model file] <url or file of urls>...");
+            return;
+        }
+
+        long start = System.nanoTime();
+        ClusterModel model = ClusterModel.load(modelFile);
+        System.err.printf("Loaded %d centroids over %d terms in %.1f ms%n",
+                model.size(), model.getVocabulary().length, (System.nanoTime() - start) / 1e6);
+
+        List<String> urls = new ArrayList<>();
+        for (String param : params) {
+            if (new File(param).isFile()) {
+                urls.addAll(Loader.loadUrlsFromFile(param));
+            } else {
+                urls.add(param);
+            }
+        }
+
+        //the model was trained on records pruned to the store's IDF vocabulary, so pages are scored
+        //the same way; otherwise the words outside it would still count towards each page's total.
+        //These are the files PersistentHashTable.getIdfTable() reads, without loading the url index.
+        IdfTable vocabulary = new File(IdfTable.FILE).exists() ? IdfTable.load(IdfTable.FILE) : null;
+        TermDictionary dictionary = vocabulary == null ? null : TermDictionary.load(TermDictionary.FILE);
+
+        List<SiteRecord> pages = new ArrayList<>();
+        for (String url : urls) {
+            try {
+                SiteRecord page = new SiteRecord(url, Loader.countWords(Jsoup.connect(url).get()));
+                if (vocabulary != null) {
+                    //words the corpus never saw get new ids, which the table does not contain
+                    page.index(dictionary);
+                    page = vocabulary.prune(page);
+                }
+                pages.add(page);
+            } catch (Exception e) {
+                System.err.println("Failed: " + url + " (" + e + ")");
+            }
+        }
+
+        int[] clusters = model.assignBatch(pages);
+        for (int i = 0; i < pages.size(); i++) {
+            System.out.println(pages.get(i).getUrl() + "\t" + clusters[i] + "\t" + model.getCentroidUrl(clusters[i]));
+        }
+    }
+}
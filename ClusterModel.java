@@ -0,0 +1,294 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+//Trained centroids saved apart from the corpus, so new pages can be classified without re-clustering.
+//Centroid terms are renumbered into a vocabulary of their own, which makes the model file independent
+//of term_dictionary.dat and small enough to load in a few milliseconds.
+//File layout: "KMCM", version, k, vocabulary (varint-length UTF-8 terms), then per centroid its url,
+//term count, varint id gaps and float weights.
+public class ClusterModel {
+
+    public static final String FILE = "kmeans_model.dat";
+
+    private static final byte[] MAGIC = {'K', 'M', 'C', 'M'};
+    private static final int VERSION = 1;
+
+    private final String[] vocabulary;
+    private final String[] centroidUrls;
+    //per centroid, model term ids sorted ascending and their weights
+    private final int[][] termIds;
+    private final float[][] weights;
+    private final double[] totals;
+
+    //term -> model id, built on first use
+    private StringIntMap termIndex;
+
+    public ClusterModel(String[] vocabulary, String[] centroidUrls, int[][] termIds, float[][] weights) {
+        this.vocabulary = vocabulary;
+        this.centroidUrls = centroidUrls;
+        this.termIds = termIds;
+        this.weights = weights;
+        this.totals = new double[centroidUrls.length];
+        for (int c = 0; c < centroidUrls.length; c++) {
+            for (float weight : weights[c]) {
+                totals[c] += weight;
+            }
+        }
+    }
+
+    //Capture indexed centroids, keeping only the terms they use
+    public static ClusterModel fromCentroids(List<Centroid> centroids) {
+        //corpus term id -> model term id
+        Map<Integer, Integer> modelIds = new TreeMap<>();
+        for (Centroid centroid : centroids) {
+            for (int termId : centroid.getTermIds()) {
+                modelIds.put(termId, 0);
+            }
+        }
+        String[] vocabulary = new String[modelIds.size()];
+        int next = 0;
+        for (Map.Entry<Integer, Integer> entry : modelIds.entrySet()) {
+            //ascending corpus ids stay ascending, so centroid terms stay sorted
+            entry.setValue(next);
+            vocabulary[next++] = centroids.get(0).getDictionary().term(entry.getKey());
+        }
+
+        int k = centroids.size();
+        String[] urls = new String[k];
+        int[][] ids = new int[k][];
+        float[][] weights = new float[k][];
+        for (int c = 0; c < k; c++) {
+            Centroid centroid = centroids.get(c);
+            int[] corpusIds = centroid.getTermIds();
+            urls[c] = centroid.getUrl();
+            ids[c] = new int[corpusIds.length];
+            weights[c] = centroid.getWeights().clone();
+            for (int i = 0; i < corpusIds.length; i++) {
+                ids[c][i] = modelIds.get(corpusIds[i]);
+            }
+        }
+        return new ClusterModel(vocabulary, urls, ids, weights);
+    }
+
+    public int size() {
+        return centroidUrls.length;
+    }
+
+    public String getCentroidUrl(int centroid) {
+        return centroidUrls[centroid];
+    }
+
+    public String[] getVocabulary() {
+        return vocabulary;
+    }
+
+    //Centroids in the term ids of the given dictionary, e.g. to warm-start a new run
+    public List<Centroid> toCentroids(TermDictionary dictionary) {
+        List<Centroid> centroids = new ArrayList<>(size());
+        for (int c = 0; c < size(); c++) {
+            int terms = termIds[c].length;
+            //pack (dictionary id, model position) so one sort puts the terms in dictionary order
+            long[] entries = new long[terms];
+            for (int i = 0; i < terms; i++) {
+                entries[i] = ((long) dictionary.idOf(vocabulary[termIds[c][i]]) << 32) | i;
+            }
+            Arrays.sort(entries);
+            int[] ids = new int[terms];
+            float[] centroidWeights = new float[terms];
+            for (int i = 0; i < terms; i++) {
+                ids[i] = (int) (entries[i] >>> 32);
+                centroidWeights[i] = weights[c][(int) entries[i]];
+            }
+            centroids.add(new Centroid(centroidUrls[c], dictionary, ids, centroidWeights));
+        }
+        return centroids;
+    }
+
+    //Index of the centroid most similar to the record, by the same measure run() clusters with
+    public int assign(SiteRecord record) {
+        return assign(record, new float[vocabulary.length]);
+    }
+
+    public int[] assignBatch(List<SiteRecord> records) {
+        //one scratch vector for the whole batch
+        float[] scratch = new float[vocabulary.length];
+        int[] assignments = new int[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            assignments[i] = assign(records.get(i), scratch);
+        }
+        return assignments;
+    }
+
+    //Similarity of a record to every centroid
+    public double[] similarities(SiteRecord record) {
+        float[] scratch = new float[vocabulary.length];
+        double total = scatter(record, scratch);
+        double[] similarities = new double[size()];
+        for (int c = 0; c < size(); c++) {
+            similarities[c] = similarity(c, scratch, total);
+        }
+        clear(scratch, record);
+        return similarities;
+    }
+
+    private int assign(SiteRecord record, float[] scratch) {
+        double total = scatter(record, scratch);
+        double maxSimilarity = 0.0;
+        //pages sharing no words with any centroid fall into the first cluster, as in KMeansClustering
+        int best = 0;
+        for (int c = 0; c < size(); c++) {
+            double similarity = similarity(c, scratch, total);
+            if (similarity > maxSimilarity) {
+                maxSimilarity = similarity;
+                best = c;
+            }
+        }
+        clear(scratch, record);
+        return best;
+    }
+
+    //Sum of the per-term minimum weights divided by the smaller total
+    private double similarity(int c, float[] scratch, double recordTotal) {
+        int[] ids = termIds[c];
+        float[] w = weights[c];
+        double common = 0;
+        for (int i = 0; i < ids.length; i++) {
+            common += Math.min(scratch[ids[i]], w[i]);
+        }
+        return KMeansClustering.overlapRatio(common, recordTotal, totals[c]);
+    }
+
+    //Spread the record's counts over model term ids and return its total count, vocabulary or not
+    private double scatter(SiteRecord record, float[] scratch) {
+        StringIntMap index = termIndex();
+        double total = 0;
+        if (record.isIndexed()) {
+            int[] ids = record.getTermIds();
+            int[] counts = record.getCounts();
+            for (int i = 0; i < ids.length; i++) {
+                int modelId = index.getOrDefault(record.getDictionary().term(ids[i]), -1);
+                if (modelId >= 0) {
+                    scratch[modelId] = counts[i];
+                }
+            }
+            return record.getTotalCount();
+        }
+        for (Map.Entry<String, Integer> entry : record.getWordFrequency().entrySet()) {
+            int modelId = index.getOrDefault(entry.getKey(), -1);
+            if (modelId >= 0) {
+                scratch[modelId] = entry.getValue();
+            }
+            total += entry.getValue();
+        }
+        return total;
+    }
+
+    private void clear(float[] scratch, SiteRecord record) {
+        StringIntMap index = termIndex();
+        if (record.isIndexed()) {
+            for (int termId : record.getTermIds()) {
+                int modelId = index.getOrDefault(record.getDictionary().term(termId), -1);
+                if (modelId >= 0) {
+                    scratch[modelId] = 0;
+                }
+            }
+            return;
+        }
+        for (String word : record.getWordFrequency().keySet()) {
+            int modelId = index.getOrDefault(word, -1);
+            if (modelId >= 0) {
+                scratch[modelId] = 0;
+            }
+        }
+    }
+
+    private synchronized StringIntMap termIndex() {
+        if (termIndex == null) {
+            StringIntMap index = new StringIntMap(vocabulary.length);
+            for (int id = 0; id < vocabulary.length; id++) {
+                index.put(vocabulary[id], id);
+            }
+            termIndex = index;
+        }
+        return termIndex;
+    }
+
+    public void save(String fileName) throws IOException {
+        File tmp = new File(fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            BlockCodec.writeVarInt(out, size());
+            BlockCodec.writeVarInt(out, vocabulary.length);
+            for (String term : vocabulary) {
+                writeString(out, term);
+            }
+            for (int c = 0; c < size(); c++) {
+                writeString(out, centroidUrls[c]);
+                BlockCodec.writeVarInt(out, termIds[c].length);
+                int previous = 0;
+                for (int termId : termIds[c]) {
+                    BlockCodec.writeVarInt(out, termId - previous);
+                    previous = termId;
+                }
+                for (float weight : weights[c]) {
+                    out.writeFloat(weight);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static ClusterModel load(String fileName) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName)));
+        byte[] magic = new byte[MAGIC.length];
+        if (in.remaining() < MAGIC.length + 1) {
+            throw new IOException(fileName + " is not a cluster model");
+        }
+        in.get(magic);
+        int version = in.get();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+            throw new IOException(fileName + " is not a version " + VERSION + " cluster model");
+        }
+        int k = BlockCodec.readVarInt(in);
+        String[] vocabulary = new String[BlockCodec.readVarInt(in)];
+        for (int id = 0; id < vocabulary.length; id++) {
+            vocabulary[id] = readString(in);
+        }
+        String[] urls = new String[k];
+        int[][] ids = new int[k][];
+        float[][] weights = new float[k][];
+        for (int c = 0; c < k; c++) {
+            urls[c] = readString(in);
+            int terms = BlockCodec.readVarInt(in);
+            ids[c] = new int[terms];
+            int previous = 0;
+            for (int i = 0; i < terms; i++) {
+                previous += BlockCodec.readVarInt(in);
+                ids[c][i] = previous;
+            }
+            weights[c] = new float[terms];
+            for (int i = 0; i < terms; i++) {
+                weights[c][i] = in.getFloat();
+            }
+        }
+        return new ClusterModel(vocabulary, urls, ids, weights);
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        BlockCodec.writeVarInt(out, utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] utf8 = new byte[BlockCodec.readVarInt(in)];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
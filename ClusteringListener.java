@@ -0,0 +1,13 @@
+//Receives progress from KMeansClustering.run(); called on the thread that runs the clustering
+public interface ClusteringListener {
+
+    //once per run(), before the first iteration, with the time the constructor spent loading and indexing records
+    default void loaded(int records, long loadNanos) {
+    }
+
+    void iterationFinished(IterationStats stats);
+
+    //converged is false when the run stopped at the iteration cap
+    default void runFinished(int iterations, boolean converged, long runNanos) {
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+//Thread-safe counterpart of CHT for statistics shared by ingest workers. Keys are spread over a fixed
+//number of lock stripes, each a plain CHT guarded by its own lock, so writers on different stripes
+//never wait for each other and a resize only ever blocks one stripe.
+class ConcurrentCHT<K, V> {
+
+    private final CHT<K, V>[] stripes;
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public ConcurrentCHT() {
+        this(64);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentCHT(int stripeCount) {
+        int count = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = (CHT<K, V>[]) new CHT[count];
+        locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new CHT<>();
+            locks[i] = new ReentrantLock();
+        }
+        mask = count - 1;
+    }
+
+    private int stripe(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public V get(K key) {
+        int s = stripe(key);
+        locks[s].lock();
+        try {
+            return stripes[s].get(key);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    public V getOrDefault(K key, V defaultValue) {
+        int s = stripe(key);
+        locks[s].lock();
+        try {
+            return stripes[s].getOrDefault(key, defaultValue);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    public boolean contains(K key) {
+        int s = stripe(key);
+        locks[s].lock();
+        try {
+            return stripes[s].contains(key);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        int s = stripe(key);
+        locks[s].lock();
+        try {
+            stripes[s].put(key, value);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    public void remove(K key) {
+        int s = stripe(key);
+        locks[s].lock();
+        try {
+            stripes[s].remove(key);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    //Atomically store value, or remapping(old, value) if the key is present; a null result removes the key
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remapping) {
+        int s = stripe(key);
+        locks[s].lock();
+        try {
+            V old = stripes[s].get(key);
+            V merged = old == null ? value : remapping.apply(old, value);
+            if (merged == null) {
+                stripes[s].remove(key);
+            } else {
+                stripes[s].put(key, merged);
+            }
+            return merged;
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    //Atomically replace the value of a present key with remapping(key, old); a null result removes the key.
+    //Absent keys are left alone, unlike merge, which would store the value as given.
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        int s = stripe(key);
+        locks[s].lock();
+        try {
+            V old = stripes[s].get(key);
+            if (old == null) {
+                return null;
+            }
+            V computed = remapping.apply(key, old);
+            if (computed == null) {
+                stripes[s].remove(key);
+            } else {
+                stripes[s].put(key, computed);
+            }
+            return computed;
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (int s = 0; s < stripes.length; s++) {
+            locks[s].lock();
+            try {
+                size += stripes[s].size();
+            } finally {
+                locks[s].unlock();
+            }
+        }
+        return size;
+    }
+
+    //Copy of the entries as a plain CHT; each stripe is copied under its own lock
+    public CHT<K, V> toCHT() {
+        CHT<K, V> copy = new CHT<>();
+        for (int s = 0; s < stripes.length; s++) {
+            locks[s].lock();
+            try {
+                for (Map.Entry<K, V> entry : stripes[s].entrySet()) {
+                    copy.put(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                locks[s].unlock();
+            }
+        }
+        return copy;
+    }
+
+    public Set<K> keySet() {
+        return toCHT().keySet();
+    }
+
+    //Written as a plain CHT so CHT.deserialize can read it back
+    public void serialize(String fileName) {
+        toCHT().serialize(fileName);
+    }
+
+    public static ConcurrentCHT<String, Integer> deserialize(String fileName) {
+        CHT<String, Integer> cht = CHT.deserialize(fileName);
+        if (cht == null) {
+            return null;
+        }
+        ConcurrentCHT<String, Integer> concurrent = new ConcurrentCHT<>();
+        for (Map.Entry<String, Integer> entry : cht.entrySet()) {
+            concurrent.put(entry.getKey(), entry.getValue());
+        }
+        return concurrent;
+    }
+}
@@ -0,0 +1,15 @@
+import java.io.IOException;
+
+//A block file whose checksum or structure doesn't match what was written
+public class CorruptBlockException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CorruptBlockException(String message) {
+        super(message);
+    }
+
+    public CorruptBlockException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,564 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+//Spherical k-means: records as L2-normalised TF-IDF vectors, centroids as the normalised sums of their
+//members, cosine similarity in place of the overlap measure. The distance between two unit vectors,
+//sqrt(2 - 2 * cosine), is a metric, so Hamerly's bounds apply: every record keeps an upper bound on the
+//distance to its own centroid and a lower bound on the distance to every other one, and both are moved
+//by how far the centroids moved. A record is only scored again when the bounds, or half the gap between
+//its centroid and the nearest other centroid, no longer prove that its centroid is still the nearest.
+//setBounds(false) scores every record against every centroid, for comparison.
+//Centroids are sparse, sorted term ids with their weights, so they cost the terms their members use
+//rather than k floats per vocabulary term.
+public class CosineKMeans {
+
+    //same cap as KMeansClustering.run()
+    private static final int MAX_ITERATIONS = 101;
+
+    private final List<SiteRecord> records;
+    private final TermDictionary dictionary;
+    private final int k;
+    //number of worker threads used by cluster(); 1 keeps everything on the calling thread
+    private final int threads;
+    private final long seed;
+    private boolean bounds = true;
+
+    //IdfTable.idf of every term id, from the store's IDF table or else the clustered records
+    private final double[] idf;
+    //TF-IDF weight of every term of every record, aligned with its term ids, L2-normalised
+    private final float[][] vectors;
+
+    //unit centroids as the sorted term ids where each is non-zero and the weights of those terms
+    private int[][] centroidTerms;
+    private float[][] centroidWeights;
+    //the same weights inverted, as in CentroidIndex: postings of term t at termStart[t]..termStart[t + 1],
+    //in ascending centroid order
+    private int[] termStart;
+    private int[] postingCentroid;
+    private float[] postingWeight;
+
+    private int[] assignment;
+    //Hamerly's bounds: distance to the own centroid is at most upper[i], to any other at least lower[i]
+    private double[] upper;
+    private double[] lower;
+
+    private transient ExecutorService executor;
+    private int iterations;
+    private boolean converged;
+    private double objective;
+    private long evaluations;
+    private long skipped;
+
+    private final List<ClusteringListener> listeners = new ArrayList<>();
+
+    //Records pruned to the store's IDF table and weighted by it, when the store has one
+    public CosineKMeans(int k, PersistentHashTable hashTable, int threads, long seed) {
+        this(scan(hashTable), hashTable.getDictionary(), hashTable.getIdfTable(), k, threads, seed);
+    }
+
+    //Cluster records that are already in memory; they are indexed against the dictionary
+    public CosineKMeans(List<SiteRecord> records, TermDictionary dictionary, int k, int threads, long seed) {
+        this(records, dictionary, null, k, threads, seed);
+    }
+
+    //vocabulary, when given, supplies the IDF; records must already be pruned to it
+    public CosineKMeans(List<SiteRecord> records, TermDictionary dictionary, IdfTable vocabulary, int k, int threads, long seed) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        if (k < 1 || k > records.size()) {
+            throw new IllegalArgumentException("k must be between 1 and the " + records.size() + " records");
+        }
+        this.records = new ArrayList<>(records);
+        this.dictionary = dictionary;
+        this.k = k;
+        this.threads = threads;
+        this.seed = seed;
+        for (SiteRecord record : this.records) {
+            record.index(dictionary);
+        }
+
+        idf = new double[dictionary.size()];
+        if (vocabulary != null) {
+            for (int t = 0; t < idf.length; t++) {
+                idf[t] = vocabulary.idf(t);
+            }
+        } else {
+            int[] documentFrequency = new int[idf.length];
+            for (SiteRecord record : this.records) {
+                for (int termId : record.getTermIds()) {
+                    documentFrequency[termId]++;
+                }
+            }
+            for (int t = 0; t < idf.length; t++) {
+                idf[t] = IdfTable.idf(this.records.size(), documentFrequency[t]);
+            }
+        }
+        vectors = new float[this.records.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            SiteRecord record = this.records.get(i);
+            int[] termIds = record.getTermIds();
+            int[] counts = record.getCounts();
+            double[] weights = new double[termIds.length];
+            for (int j = 0; j < termIds.length; j++) {
+                weights[j] = counts[j] * idf[termIds[j]];
+            }
+            vectors[i] = normalise(weights);
+        }
+    }
+
+    private static List<SiteRecord> scan(PersistentHashTable hashTable) {
+        TermDictionary dictionary = hashTable.getDictionary();
+        IdfTable vocabulary = hashTable.getIdfTable();
+        List<SiteRecord> records = new ArrayList<>(hashTable.size());
+        try (BlockScanner scanner = hashTable.scan()) {
+            scanner.forEachRemaining(record -> {
+                record.index(dictionary);
+                records.add(vocabulary == null ? record : vocabulary.prune(record));
+            });
+        }
+        return records;
+    }
+
+    //false scores every record against every centroid in every iteration. Call before cluster().
+    public void setBounds(boolean bounds) {
+        this.bounds = bounds;
+    }
+
+    public void addListener(ClusteringListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ClusteringListener listener) {
+        listeners.remove(listener);
+    }
+
+    //Iterate until no record changes cluster, from k-means++ starting centroids
+    public void cluster() {
+        long runStart = System.nanoTime();
+        iterations = 0;
+        evaluations = 0;
+        skipped = 0;
+        if (threads > 1) {
+            executor = new ForkJoinPool(threads);
+        }
+        try {
+            seedCentroids();
+            converged = false;
+            while (!converged && iterations < MAX_ITERATIONS) {
+                converged = iterate();
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+        long runNanos = System.nanoTime() - runStart;
+        for (ClusteringListener listener : listeners) {
+            listener.runFinished(iterations, converged, runNanos);
+        }
+    }
+
+    //The k-means++ records of KMeansSeeding, as TF-IDF vectors
+    private void seedCentroids() {
+        centroidTerms = new int[k][];
+        centroidWeights = new float[k][];
+        List<Centroid> seeds = new KMeansSeeding(records, executor, threads).plusPlus(k, seed);
+        for (int c = 0; c < k; c++) {
+            int[] termIds = seeds.get(c).getTermIds();
+            float[] counts = seeds.get(c).getWeights();
+            double[] weights = new double[termIds.length];
+            for (int j = 0; j < termIds.length; j++) {
+                weights[j] = counts[j] * idf[termIds[j]];
+            }
+            centroidTerms[c] = termIds.clone();
+            centroidWeights[c] = normalise(weights);
+        }
+        indexCentroids();
+        assignment = new int[records.size()];
+        upper = new double[records.size()];
+        lower = new double[records.size()];
+    }
+
+    //One assignment and update step; true once no record changed cluster
+    private boolean iterate() {
+        iterations++;
+        long assignStart = System.nanoTime();
+        boolean everyCentroid = iterations == 1 || !bounds;
+        double[] halfGaps = everyCentroid ? null : halfGaps();
+
+        int chunks = Math.max(1, Math.min(threads, records.size()));
+        long[] chunkEvaluations = new long[chunks];
+        int[] chunkReassigned = new int[chunks];
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int chunk = c;
+            int from = (int) ((long) records.size() * c / chunks);
+            int to = (int) ((long) records.size() * (c + 1) / chunks);
+            tasks.add(() -> {
+                long evaluated = 0;
+                int reassigned = 0;
+                double[] dots = new double[k];
+                for (int i = from; i < to; i++) {
+                    int previous = assignment[i];
+                    if (everyCentroid) {
+                        nearest(i, -1, dots);
+                        evaluated += k;
+                    } else {
+                        int own = assignment[i];
+                        double bound = Math.max(halfGaps[own], lower[i]);
+                        if (upper[i] <= bound) {
+                            continue;
+                        }
+                        //the upper bound may only be loose; tighten it before scoring the other centroids
+                        upper[i] = distance(i, own);
+                        evaluated++;
+                        if (upper[i] <= bound) {
+                            continue;
+                        }
+                        nearest(i, own, dots);
+                        evaluated += k - 1;
+                    }
+                    if (assignment[i] != previous) {
+                        reassigned++;
+                    }
+                }
+                chunkEvaluations[chunk] = evaluated;
+                chunkReassigned[chunk] = reassigned;
+                return null;
+            });
+        }
+        runAll(tasks);
+        long iterationEvaluations = 0;
+        int reassigned = 0;
+        for (int c = 0; c < chunks; c++) {
+            iterationEvaluations += chunkEvaluations[c];
+            reassigned += chunkReassigned[c];
+        }
+        if (iterations == 1) {
+            reassigned = records.size();
+        }
+        long iterationSkipped = (long) records.size() * k - iterationEvaluations;
+        evaluations += iterationEvaluations;
+        skipped += iterationSkipped;
+
+        long updateStart = System.nanoTime();
+        int[] sizes = new int[k];
+        double[] shifts = update(sizes);
+        if (bounds) {
+            moveBounds(shifts);
+        }
+        long updateNanos = System.nanoTime() - updateStart;
+
+        boolean converged = iterations > 1 && reassigned == 0;
+        IterationStats stats = new IterationStats(iterations, updateStart - assignStart, updateNanos, iterationEvaluations,
+                iterationSkipped, reassigned, shifts, sizes, objective, converged);
+        for (ClusteringListener listener : listeners) {
+            listener.iterationFinished(stats);
+        }
+        return converged;
+    }
+
+    //Score record i against every centroid but skip, which is its current one with upper[i] already
+    //exact, and set its assignment and bounds. Ties go to the lowest index, as in a full scan.
+    private void nearest(int i, int skip, double[] dots) {
+        scoreAll(i, dots);
+        int best = skip;
+        double bestDistance = skip < 0 ? Double.POSITIVE_INFINITY : upper[i];
+        double secondDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            if (c == skip) {
+                continue;
+            }
+            double distance = Math.sqrt(Math.max(0, 2 - 2 * dots[c]));
+            if (distance < bestDistance || (distance == bestDistance && c < best)) {
+                secondDistance = bestDistance;
+                bestDistance = distance;
+                best = c;
+            } else if (distance < secondDistance) {
+                secondDistance = distance;
+            }
+        }
+        assignment[i] = best;
+        upper[i] = bestDistance;
+        lower[i] = secondDistance;
+    }
+
+    //Dot of record i with every centroid in one pass over its terms. Each centroid sums in the record's
+    //term order, so the dots are the same as one merge per centroid.
+    private void scoreAll(int i, double[] dots) {
+        Arrays.fill(dots, 0);
+        int[] termIds = records.get(i).getTermIds();
+        float[] weights = vectors[i];
+        int indexedTerms = termStart.length - 1;
+        for (int j = 0; j < termIds.length && termIds[j] < indexedTerms; j++) {
+            for (int p = termStart[termIds[j]], end = termStart[termIds[j] + 1]; p < end; p++) {
+                dots[postingCentroid[p]] += weights[j] * postingWeight[p];
+            }
+        }
+    }
+
+    private double distance(int i, int c) {
+        int[] termIds = records.get(i).getTermIds();
+        float[] weights = vectors[i];
+        int indexedTerms = termStart.length - 1;
+        double dot = 0;
+        for (int j = 0; j < termIds.length && termIds[j] < indexedTerms; j++) {
+            //postings are in centroid order, so stop at the first past c
+            for (int p = termStart[termIds[j]], end = termStart[termIds[j] + 1]; p < end && postingCentroid[p] <= c; p++) {
+                if (postingCentroid[p] == c) {
+                    dot += weights[j] * postingWeight[p];
+                }
+            }
+        }
+        return Math.sqrt(Math.max(0, 2 - 2 * dot));
+    }
+
+    //Rebuild the postings from the sparse centroids; one int per term up to the largest centroid term
+    private void indexCentroids() {
+        int maxTerm = -1;
+        int postings = 0;
+        for (int c = 0; c < k; c++) {
+            int[] ids = centroidTerms[c];
+            if (ids.length > 0) {
+                maxTerm = Math.max(maxTerm, ids[ids.length - 1]);
+            }
+            postings += ids.length;
+        }
+        termStart = new int[maxTerm + 2];
+        postingCentroid = new int[postings];
+        postingWeight = new float[postings];
+        for (int c = 0; c < k; c++) {
+            for (int termId : centroidTerms[c]) {
+                termStart[termId + 1]++;
+            }
+        }
+        for (int t = 0; t < maxTerm + 1; t++) {
+            termStart[t + 1] += termStart[t];
+        }
+        int[] next = Arrays.copyOf(termStart, maxTerm + 1);
+        for (int c = 0; c < k; c++) {
+            int[] ids = centroidTerms[c];
+            float[] weights = centroidWeights[c];
+            for (int j = 0; j < ids.length; j++) {
+                int p = next[ids[j]]++;
+                postingCentroid[p] = c;
+                postingWeight[p] = weights[j];
+            }
+        }
+    }
+
+    //Dot product of two sparse vectors with sorted term ids. The terms of the shorter one are looked up in
+    //the longer one by binary search from the last match.
+    private static double dot(int[] ids1, float[] weights1, int[] ids2, float[] weights2) {
+        if (ids1.length > ids2.length) {
+            return dot(ids2, weights2, ids1, weights1);
+        }
+        double dot = 0;
+        int from = 0;
+        for (int j = 0; j < ids1.length && from < ids2.length; j++) {
+            int at = Arrays.binarySearch(ids2, from, ids2.length, ids1[j]);
+            if (at >= 0) {
+                dot += weights1[j] * weights2[at];
+                from = at + 1;
+            } else {
+                from = -at - 1;
+            }
+        }
+        return dot;
+    }
+
+    //Half the distance from every centroid to the nearest other one: a record closer than that to its
+    //centroid cannot be closer to any other
+    private double[] halfGaps() {
+        double[] gaps = new double[k];
+        Arrays.fill(gaps, Double.POSITIVE_INFINITY);
+        for (int a = 0; a < k; a++) {
+            for (int b = a + 1; b < k; b++) {
+                double dot = dot(centroidTerms[a], centroidWeights[a], centroidTerms[b], centroidWeights[b]);
+                double half = Math.sqrt(Math.max(0, 2 - 2 * dot)) / 2;
+                gaps[a] = Math.min(gaps[a], half);
+                gaps[b] = Math.min(gaps[b], half);
+            }
+        }
+        return gaps;
+    }
+
+    //Replace every non-empty centroid by the normalised sum of its members and return how far each moved.
+    //The length of a cluster's sum is the summed cosine of its members to the new centroid, which gives
+    //the objective without scoring the records again.
+    private double[] update(int[] sizes) {
+        int[][] members = new int[k][];
+        for (int i = 0; i < assignment.length; i++) {
+            sizes[assignment[i]]++;
+        }
+        for (int c = 0; c < k; c++) {
+            members[c] = new int[sizes[c]];
+        }
+        int[] filled = new int[k];
+        for (int i = 0; i < assignment.length; i++) {
+            members[assignment[i]][filled[assignment[i]]++] = i;
+        }
+
+        //one dense scratch row for the sums, shared by the clusters in turn
+        double[] sum = new double[dictionary.size()];
+        int[] touched = new int[dictionary.size()];
+        double[] shifts = new double[k];
+        objective = 0;
+        for (int c = 0; c < k; c++) {
+            //an empty cluster keeps its previous centroid
+            if (sizes[c] == 0) {
+                continue;
+            }
+            int count = 0;
+            for (int i : members[c]) {
+                int[] termIds = records.get(i).getTermIds();
+                float[] weights = vectors[i];
+                for (int j = 0; j < termIds.length; j++) {
+                    if (sum[termIds[j]] == 0) {
+                        touched[count++] = termIds[j];
+                    }
+                    sum[termIds[j]] += weights[j];
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            double length = 0;
+            for (int j = 0; j < count; j++) {
+                length += sum[touched[j]] * sum[touched[j]];
+            }
+            length = Math.sqrt(length);
+            objective += length;
+
+            //the shift against the exact new centroid, before it is rounded to floats
+            double dot = 0;
+            int[] oldTerms = centroidTerms[c];
+            float[] oldWeights = centroidWeights[c];
+            for (int j = 0; j < oldTerms.length; j++) {
+                dot += oldWeights[j] * (sum[oldTerms[j]] / length);
+            }
+            int[] terms = Arrays.copyOf(touched, count);
+            float[] unit = new float[count];
+            for (int j = 0; j < count; j++) {
+                unit[j] = (float) (sum[touched[j]] / length);
+                sum[touched[j]] = 0;
+            }
+            centroidTerms[c] = terms;
+            centroidWeights[c] = unit;
+            shifts[c] = Math.sqrt(Math.max(0, 2 - 2 * dot));
+        }
+        indexCentroids();
+        return shifts;
+    }
+
+    //Every centroid moved by at most its shift, so the own centroid is at most that much further and any
+    //other at most the largest shift of the others closer
+    private void moveBounds(double[] shifts) {
+        int largest = 0;
+        for (int c = 1; c < k; c++) {
+            if (shifts[c] > shifts[largest]) {
+                largest = c;
+            }
+        }
+        double secondLargest = 0;
+        for (int c = 0; c < k; c++) {
+            if (c != largest) {
+                secondLargest = Math.max(secondLargest, shifts[c]);
+            }
+        }
+        for (int i = 0; i < assignment.length; i++) {
+            upper[i] += shifts[assignment[i]];
+            lower[i] -= assignment[i] == largest ? secondLargest : shifts[largest];
+        }
+    }
+
+    private void runAll(List<Callable<Void>> tasks) {
+        if (executor == null || tasks.size() == 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return;
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while assigning clusters", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static float[] normalise(double[] weights) {
+        double length = 0;
+        for (double weight : weights) {
+            length += weight * weight;
+        }
+        length = Math.sqrt(length);
+        float[] unit = new float[weights.length];
+        for (int j = 0; j < weights.length && length > 0; j++) {
+            unit[j] = (float) (weights[j] / length);
+        }
+        return unit;
+    }
+
+    //cluster of every record, in the order the records were given
+    public int[] getAssignment() {
+        return assignment.clone();
+    }
+
+    //members of every cluster after the last cluster(), in record order
+    public List<List<SiteRecord>> getClusters() {
+        List<List<SiteRecord>> clusters = new ArrayList<>(k);
+        for (int c = 0; c < k; c++) {
+            clusters.add(new ArrayList<>());
+        }
+        for (int i = 0; i < assignment.length; i++) {
+            clusters.get(assignment[i]).add(records.get(i));
+        }
+        return clusters;
+    }
+
+    //The heaviest terms of a centroid, heaviest first
+    public List<String> topTerms(int centroid, int count) {
+        float[] weights = centroidWeights[centroid];
+        Integer[] order = new Integer[weights.length];
+        for (int j = 0; j < order.length; j++) {
+            order[j] = j;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(weights[b], weights[a]));
+        List<String> terms = new ArrayList<>(count);
+        for (int j = 0; j < Math.min(count, order.length); j++) {
+            terms.add(dictionary.term(centroidTerms[centroid][order[j]]));
+        }
+        return terms;
+    }
+
+    //summed cosine of every record to its centroid after the last update; higher is tighter
+    public double getObjective() {
+        return objective;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    //record-centroid similarities computed, and skipped thanks to the bounds, over the last cluster()
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public long getSkippedEvaluations() {
+        return skipped;
+    }
+}
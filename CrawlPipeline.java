@@ -0,0 +1,252 @@
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+//Fetches and parses pages concurrently and hands the results to a single writer thread that owns the
+//Loader, so blocks are still written sequentially. Bounded in-flight fetches plus a bounded hand-off
+//queue keep memory flat however long the url list is.
+public class CrawlPipeline {
+
+    //Pluggable so the pipeline can be pointed at a local stub server or canned documents
+    public interface Fetcher {
+        Document fetch(String url, int timeoutMillis) throws IOException;
+    }
+
+    //Outcome of one run; failed urls are reported instead of aborting the crawl
+    public static class Report {
+        private final int succeeded;
+        private final Map<String, String> failures;
+        private final long elapsedMillis;
+
+        Report(int succeeded, Map<String, String> failures, long elapsedMillis) {
+            this.succeeded = succeeded;
+            this.failures = failures;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public Map<String, String> getFailures() {
+            return failures;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Crawled " + succeeded + " pages, " + failures.size() + " failed, in " + elapsedMillis + " ms";
+        }
+    }
+
+    //parsed page on its way to the writer; a null url marks the end of the stream
+    private static final class Page {
+        final String url;
+        final StringIntMap wordCounts;
+
+        Page(String url, StringIntMap wordCounts) {
+            this.url = url;
+            this.wordCounts = wordCounts;
+        }
+    }
+
+    private static final Page END = new Page(null, null);
+
+    //how often a worker waiting on a full queue checks that the writer is still running
+    private static final long HAND_OFF_POLL_MILLIS = 100;
+
+    //16 concurrent fetches, 64 parsed pages buffered, 3 retries and a 10s timeout
+    public static final int DEFAULT_CONCURRENCY = 16;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 10_000;
+    //at most 10 requests a second to one host; a whole second would serialise a single-site crawl to 1 page/s
+    public static final long DEFAULT_POLITENESS_MILLIS = 100;
+
+    private final int concurrency;
+    private final int queueCapacity;
+    private final int maxRetries;
+    private final int timeoutMillis;
+    private final long politenessMillis;
+    private Fetcher fetcher = (url, timeout) -> Jsoup.connect(url).timeout(timeout).get();
+
+    //earliest time the next request to each host may start
+    private final ConcurrentHashMap<String, AtomicLong> nextRequestTime = new ConcurrentHashMap<>();
+
+    public CrawlPipeline() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_POLITENESS_MILLIS);
+    }
+
+    //politenessMillis is the least time between the starts of two requests to the same host
+    public CrawlPipeline(int concurrency, long politenessMillis) {
+        this(concurrency, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_RETRIES, DEFAULT_TIMEOUT_MILLIS, politenessMillis);
+    }
+
+    public CrawlPipeline(int concurrency, int queueCapacity, int maxRetries, int timeoutMillis, long politenessMillis) {
+        if (concurrency < 1 || queueCapacity < 1 || politenessMillis < 0) {
+            throw new IllegalArgumentException("concurrency and queueCapacity must be at least 1, politenessMillis not negative");
+        }
+        this.concurrency = concurrency;
+        this.queueCapacity = queueCapacity;
+        this.maxRetries = maxRetries;
+        this.timeoutMillis = timeoutMillis;
+        this.politenessMillis = politenessMillis;
+    }
+
+    public void setFetcher(Fetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    //Throws IllegalStateException if the writer fails; the pages written until then stay in the store
+    public Report run(List<String> urls, Loader loader, PersistentHashTable hashTable) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        BlockingQueue<Page> pages = new ArrayBlockingQueue<>(queueCapacity);
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        Semaphore inFlight = new Semaphore(concurrency);
+        //one tokenizer per fetch slot; workers may be virtual threads, so a thread-local would not be reused
+        BlockingQueue<Tokenizer> tokenizers = new LinkedBlockingQueue<>();
+        int[] written = new int[1];
+        AtomicReference<RuntimeException> writerFailure = new AtomicReference<>();
+
+        //single writer: the only thread touching the loader and the hashtable
+        Thread writer = new Thread(() -> {
+            try {
+                for (Page page = pages.take(); page != END; page = pages.take()) {
+                    if (writerFailure.get() != null) {
+                        //keep draining so no worker is left blocked on a full queue
+                        failures.put(page.url, "not written: " + writerFailure.get());
+                        continue;
+                    }
+                    try {
+                        loader.addSiteRecord(new SiteRecord(page.url, page.wordCounts), hashTable);
+                        //only pages that made it into the store count towards document frequency
+                        Loader.addDocumentFrequencies(page.wordCounts);
+                        written[0]++;
+                    } catch (RuntimeException e) {
+                        writerFailure.set(e);
+                        failures.put(page.url, e.toString());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "crawl-writer");
+        writer.start();
+
+        ExecutorService workers = newWorkerExecutor(concurrency);
+        try {
+            for (String url : urls) {
+                //no point fetching pages that can no longer be written
+                if (writerFailure.get() != null) {
+                    break;
+                }
+                //blocks once `concurrency` pages are being fetched or waiting on a full queue
+                inFlight.acquire();
+                workers.execute(() -> {
+                    try {
+                        Tokenizer tokenizer = tokenizers.poll();
+                        if (tokenizer == null) {
+                            tokenizer = Loader.newTokenizer();
+                        }
+                        StringIntMap wordCounts;
+                        try {
+                            wordCounts = fetchWithRetries(url, tokenizer);
+                        } finally {
+                            tokenizers.add(tokenizer);
+                        }
+                        handOff(pages, new Page(url, wordCounts), writer);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failures.put(url, "interrupted");
+                    } catch (Exception e) {
+                        failures.put(url, e.toString());
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (writer.isAlive()) {
+                handOff(pages, END, writer);
+            }
+            writer.join();
+        }
+        if (writerFailure.get() != null) {
+            throw new IllegalStateException("Crawl writer failed after " + written[0] + " pages", writerFailure.get());
+        }
+        return new Report(written[0], new TreeMap<>(failures), System.currentTimeMillis() - start);
+    }
+
+    //Wait for room on the queue only while the writer is there to make it
+    private static void handOff(BlockingQueue<Page> pages, Page page, Thread writer) throws InterruptedException {
+        while (!pages.offer(page, HAND_OFF_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) {
+                throw new IllegalStateException("Crawl writer stopped");
+            }
+        }
+    }
+
+    private StringIntMap fetchWithRetries(String url, Tokenizer tokenizer) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                waitForHost(url);
+                return Loader.countWords(fetcher.fetch(url, timeoutMillis), tokenizer);
+            } catch (HttpStatusException e) {
+                //client errors other than rate limiting won't improve on retry
+                boolean retryable = e.getStatusCode() == 429 || e.getStatusCode() >= 500;
+                if (!retryable || attempt >= maxRetries) {
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+            }
+            //exponential backoff between attempts
+            Thread.sleep(Math.max(1, politenessMillis) << Math.min(attempt, 6));
+        }
+    }
+
+    //Reserve the next free slot for this url's host and sleep until it arrives
+    private void waitForHost(String url) throws InterruptedException {
+        if (politenessMillis <= 0) {
+            return;
+        }
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            host = null;
+        }
+        AtomicLong next = nextRequestTime.computeIfAbsent(host == null ? "" : host, h -> new AtomicLong());
+        long now = System.currentTimeMillis();
+        long slot = next.getAndUpdate(previous -> Math.max(previous, now) + politenessMillis);
+        long wait = Math.max(slot, now) - now;
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    //Virtual threads when the runtime has them (Java 21+), otherwise a fixed platform thread pool
+    private static ExecutorService newWorkerExecutor(int concurrency) {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(concurrency);
+        }
+    }
+}
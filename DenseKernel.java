@@ -0,0 +1,44 @@
+//Kernels over dense float rows, used when records are feature-hashed into fixed-width arrays.
+//best() is the Vector API kernel when the JVM runs with --add-modules jdk.incubator.vector, and the scalar
+//loop otherwise; both give the same sums up to float rounding.
+public interface DenseKernel {
+
+    //sum over i < length of min(a[aOffset + i], b[bOffset + i])
+    float minSum(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    String name();
+
+    static DenseKernel best() {
+        try {
+            //loaded by name so this class links without the incubator module
+            return (DenseKernel) Class.forName("VectorKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return scalar();
+        }
+    }
+
+    static DenseKernel scalar() {
+        return Scalar.INSTANCE;
+    }
+
+    final class Scalar implements DenseKernel {
+        private static final Scalar INSTANCE = new Scalar();
+
+        private Scalar() {
+        }
+
+        @Override
+        public float minSum(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            float sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += Math.min(a[aOffset + i], b[bOffset + i]);
+            }
+            return sum;
+        }
+
+        @Override
+        public String name() {
+            return "scalar";
+        }
+    }
+}
@@ -0,0 +1,325 @@
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+//Offline ingest from a local pages-articles.xml dump (plain, .gz or .bz2) or a directory of saved
+//HTML pages. Pages are streamed one at a time into the Loader, so memory does not grow with the dump.
+public class DumpIngest {
+
+    private static final String WIKI_URL_PREFIX = "https://en.wikipedia.org/wiki/";
+
+    //pages between throughput reports
+    private static final int REPORT_EVERY = 10_000;
+
+    private final Loader loader;
+    private final PersistentHashTable hashTable;
+    private long pages;
+    private long startNanos;
+
+    public DumpIngest(Loader loader, PersistentHashTable hashTable) {
+        this.loader = loader;
+        this.hashTable = hashTable;
+    }
+
+    public static void main(String[] args) throws Exception {
+        //"--cluster k" also clusters the pages as they are ingested and saves the centroids as the model;
+        //--min-df, --max-df and --max-vocabulary bound the vocabulary of the IDF table saved at the end
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        int minDf = IdfTable.intOption(params, "--min-df", IdfTable.DEFAULT_MIN_DF);
+        double maxDf = IdfTable.doubleOption(params, "--max-df", IdfTable.DEFAULT_MAX_DF);
+        int maxTerms = IdfTable.intOption(params, "--max-vocabulary", IdfTable.DEFAULT_MAX_TERMS);
+        int clusters = 0;
+        int flag = params.indexOf("--cluster");
+        if (flag >= 0 && flag + 1 < params.size()) {
+            clusters = Integer.parseInt(params.get(flag + 1));
+            params.subList(flag, flag + 2).clear();
+        }
+        args = params.toArray(new String[0]);
+        if (args.length < 1) {
+            System.err.println("Usage: DumpIngest <pages-articles.xml[.gz|.bz2] | html directory> [blockSize] [NONE|LZ|DEFLATE] [--cluster k]"
+                    + " [--min-df n] [--max-df fraction] [--max-vocabulary n]");
+            return;
+        }
+        int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 202;
+        BlockCodec.Compression compression = args.length > 2 ? BlockCodec.Compression.valueOf(args[2]) : BlockCodec.Compression.NONE;
+        Loader loader = new Loader(blockSize, compression);
+        PersistentHashTable hashTable = new PersistentHashTable();
+        MiniBatchKMeans streaming = null;
+        if (clusters > 0) {
+            streaming = new MiniBatchKMeans(clusters, MiniBatchKMeans.DEFAULT_BATCH_SIZE, System.nanoTime());
+            loader.addRecordListener(streaming);
+        }
+
+        DumpIngest ingest = new DumpIngest(loader, hashTable);
+        Path source = Paths.get(args[0]);
+        if (Files.isDirectory(source)) {
+            ingest.ingestHtmlDirectory(source);
+        } else {
+            ingest.ingestXmlDump(source);
+        }
+
+        // Flush any remaining records to disk
+        loader.flush();
+        hashTable.saveToFile("persistent_hashtable.dat");
+        Loader.documentFrequency.serialize("document_frequency.dat");
+        IdfTable idfTable = loader.buildIdfTable(hashTable.size(), minDf, maxDf, maxTerms);
+        idfTable.save(IdfTable.FILE);
+        System.out.println(idfTable + ", saved " + IdfTable.FILE);
+        if (streaming != null) {
+            streaming.flush();
+            streaming.toModel().save(ClusterModel.FILE);
+            System.out.println("Clustered into " + clusters + " clusters over " + streaming.getBatches() + " batches, saved " + ClusterModel.FILE);
+        }
+    }
+
+    public long ingestXmlDump(Path dump) throws IOException, XMLStreamException {
+        startNanos = System.nanoTime();
+        try (InputStream in = openDump(dump)) {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            //dumps are trusted local files but there is no reason to resolve entities
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(in, "UTF-8");
+            try {
+                String title = null;
+                String namespace = null;
+                boolean redirect = false;
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    switch (reader.getLocalName()) {
+                        case "page":
+                            title = null;
+                            namespace = null;
+                            redirect = false;
+                            break;
+                        case "title":
+                            title = reader.getElementText();
+                            break;
+                        case "ns":
+                            namespace = reader.getElementText();
+                            break;
+                        case "redirect":
+                            redirect = true;
+                            break;
+                        case "text":
+                            String wikitext = reader.getElementText();
+                            //only articles; redirects and talk/user/file pages are skipped
+                            if (title != null && !redirect && (namespace == null || "0".equals(namespace))) {
+                                addPage(WIKI_URL_PREFIX + title.replace(' ', '_'), analyzeWikitext(wikitext));
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        reportThroughput(true);
+        return pages;
+    }
+
+    public long ingestHtmlDirectory(Path directory) throws IOException {
+        startNanos = System.nanoTime();
+        try (Stream<Path> files = Files.walk(directory)) {
+            Iterator<Path> it = files.filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(".html") || p.toString().endsWith(".htm"))
+                    .sorted()
+                    .iterator();
+            while (it.hasNext()) {
+                Path file = it.next();
+                try {
+                    Document document = Jsoup.parse(file.toFile(), "UTF-8");
+                    //saved wikipedia pages carry their original address in the canonical link
+                    Element canonical = document.selectFirst("link[rel=canonical]");
+                    String url = canonical != null && !canonical.attr("href").isEmpty()
+                            ? canonical.attr("href") : file.toUri().toString();
+                    addPage(url, Loader.countWords(document));
+                } catch (IOException e) {
+                    System.err.println("Skipping " + file + ": " + e);
+                }
+            }
+        }
+        reportThroughput(true);
+        return pages;
+    }
+
+    private void addPage(String url, StringIntMap wordCounts) {
+        loader.addSiteRecord(new SiteRecord(url, wordCounts), hashTable);
+        //after the record is stored, so a failed write does not count the page
+        Loader.addDocumentFrequencies(wordCounts);
+        pages++;
+        if (pages % REPORT_EVERY == 0) {
+            reportThroughput(false);
+        }
+    }
+
+    private void reportThroughput(boolean done) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%s%d pages in %.1f s (%.0f pages/sec)%n", done ? "Done: " : "", pages, seconds, pages / Math.max(seconds, 1e-9));
+    }
+
+    //Count paragraph words of an article's wikitext, the counterpart of selecting <p> tags in HTML
+    static StringIntMap analyzeWikitext(String wikitext) {
+        Tokenizer tokenizer = Loader.threadTokenizer();
+        tokenizer.reset();
+        for (String paragraph : wikitextParagraphs(wikitext)) {
+            tokenizer.tokenize(paragraph);
+        }
+        return tokenizer.takeCounts();
+    }
+
+    //Plain prose paragraphs: blank-line separated runs of lines that are not headings, lists, tables or
+    //templates, with links, emphasis, references and inline templates reduced to their visible text
+    static List<String> wikitextParagraphs(String wikitext) {
+        String text = stripNested(wikitext, "{{", "}}");
+        text = stripNested(text, "{|", "|}");
+        text = text.replaceAll("(?s)<!--.*?-->", "")
+                .replaceAll("(?s)<ref[^>/]*/>", "")
+                .replaceAll("(?s)<ref[^>]*>.*?</ref>", "")
+                .replaceAll("<[^>]+>", "");
+
+        List<String> paragraphs = new ArrayList<>();
+        StringBuilder paragraph = new StringBuilder();
+        for (String line : text.split("\n")) {
+            String trimmed = line.trim();
+            boolean markup = trimmed.startsWith("=") || trimmed.startsWith("*") || trimmed.startsWith("#")
+                    || trimmed.startsWith(":") || trimmed.startsWith(";") || trimmed.startsWith("|")
+                    || trimmed.startsWith("!") || trimmed.startsWith("[[Category:") || trimmed.startsWith("[[File:")
+                    || trimmed.startsWith("[[Image:");
+            if (trimmed.isEmpty() || markup) {
+                if (paragraph.length() > 0) {
+                    paragraphs.add(plainText(paragraph.toString()));
+                    paragraph.setLength(0);
+                }
+                continue;
+            }
+            paragraph.append(trimmed).append(' ');
+        }
+        if (paragraph.length() > 0) {
+            paragraphs.add(plainText(paragraph.toString()));
+        }
+        return paragraphs;
+    }
+
+    private static String plainText(String wikitext) {
+        return wikitext
+                //[[target|label]] -> label, [[target]] -> target
+                .replaceAll("\\[\\[[^\\]|]*\\|([^\\]]*)]]", "$1")
+                .replaceAll("\\[\\[([^\\]]*)]]", "$1")
+                //[http://x label] -> label
+                .replaceAll("\\[\\S+ ([^\\]]*)]", "$1")
+                .replaceAll("'{2,}", "")
+                .replace("&nbsp;", " ")
+                .trim();
+    }
+
+    //Remove balanced open...close spans, which may nest and span lines (templates, tables)
+    private static String stripNested(String text, String open, String close) {
+        StringBuilder out = new StringBuilder(text.length());
+        int depth = 0;
+        int i = 0;
+        while (i < text.length()) {
+            if (text.startsWith(open, i)) {
+                depth++;
+                i += open.length();
+            } else if (depth > 0 && text.startsWith(close, i)) {
+                depth--;
+                i += close.length();
+            } else {
+                if (depth == 0) {
+                    out.append(text.charAt(i));
+                }
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    private static InputStream openDump(Path dump) throws IOException {
+        InputStream raw = new BufferedInputStream(Files.newInputStream(dump), 1 << 16);
+        String name = dump.getFileName().toString();
+        if (name.endsWith(".gz")) {
+            return new GZIPInputStream(raw, 1 << 16);
+        }
+        if (name.endsWith(".bz2")) {
+            return openBzip2(dump, raw);
+        }
+        return raw;
+    }
+
+    //Uses commons-compress when it is on the classpath, otherwise streams through the bzip2 binary
+    private static InputStream openBzip2(Path dump, InputStream raw) throws IOException {
+        try {
+            Class<?> bzip2 = Class.forName("org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream");
+            return (InputStream) bzip2.getConstructor(InputStream.class, boolean.class).newInstance(raw, true);
+        } catch (ReflectiveOperationException e) {
+            raw.close();
+            Process process = new ProcessBuilder("bzip2", "-dc", dump.toString())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            return new ProcessInputStream(process);
+        }
+    }
+
+    //Output of a decompressing process. Reaching the end waits for the process and fails if it exited
+    //with an error, since bzip2 stops writing at the first bad block; closing before the end kills it.
+    private static final class ProcessInputStream extends FilterInputStream {
+        private final Process process;
+        private boolean ended;
+
+        ProcessInputStream(Process process) {
+            super(new BufferedInputStream(process.getInputStream(), 1 << 16));
+            this.process = process;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return checkEnd(super.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return checkEnd(super.read(b, off, len));
+        }
+
+        private int checkEnd(int result) throws IOException {
+            if (result < 0 && !ended) {
+                ended = true;
+                int status;
+                try {
+                    status = process.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for bzip2");
+                }
+                if (status != 0) {
+                    throw new IOException("bzip2 exited with status " + status);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!ended) {
+                process.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.Arrays;
+import java.util.List;
+
+//Fixed-width dense form of records and centroids: every term id is hashed into one of dimension buckets,
+//so a similarity is a min-sum over two float rows instead of a merge of two sparse lists. With nonZeros > 1
+//each term is also spread over nonZeros buckets with weight 1 / nonZeros, a sparse random projection of the
+//hashed vector. Weights stay non-negative and keep their total, because the overlap measure takes the
+//minimum of two weights and divides by the smaller total; colliding terms can only raise the min-sum, so
+//the dense similarity is an upper bound of the sparse one.
+public class FeatureHasher {
+
+    private final int dimension;
+    private final int nonZeros;
+    private final long seed;
+
+    public FeatureHasher(int dimension, int nonZeros, long seed) {
+        if (dimension < 1 || nonZeros < 1 || nonZeros > dimension) {
+            throw new IllegalArgumentException("dimension must be at least 1 and nonZeros between 1 and the dimension");
+        }
+        this.dimension = dimension;
+        this.nonZeros = nonZeros;
+        this.seed = seed;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    //One row of dimension floats per record, in one array so rows stay next to each other in memory
+    public float[] hashAll(List<SiteRecord> records) {
+        if ((long) records.size() * dimension > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(records.size() + " rows of " + dimension + " floats do not fit in one array");
+        }
+        float[] rows = new float[records.size() * dimension];
+        for (int r = 0; r < records.size(); r++) {
+            SiteRecord record = records.get(r);
+            int[] termIds = record.getTermIds();
+            int[] counts = record.getCounts();
+            for (int i = 0; i < termIds.length; i++) {
+                add(rows, r * dimension, termIds[i], counts[i]);
+            }
+        }
+        return rows;
+    }
+
+    //Row c of the result is centroid c
+    public float[] hashAll(List<Centroid> centroids, float[] reuse) {
+        int length = centroids.size() * dimension;
+        float[] rows = reuse != null && reuse.length == length ? reuse : new float[length];
+        Arrays.fill(rows, 0);
+        for (int c = 0; c < centroids.size(); c++) {
+            int[] termIds = centroids.get(c).getTermIds();
+            float[] weights = centroids.get(c).getWeights();
+            for (int i = 0; i < termIds.length; i++) {
+                add(rows, c * dimension, termIds[i], weights[i]);
+            }
+        }
+        return rows;
+    }
+
+    private void add(float[] rows, int offset, int termId, float weight) {
+        if (nonZeros == 1) {
+            rows[offset + bucket(termId, 0)] += weight;
+            return;
+        }
+        float share = weight / nonZeros;
+        for (int j = 0; j < nonZeros; j++) {
+            rows[offset + bucket(termId, j)] += share;
+        }
+    }
+
+    //The j-th bucket of a term, from a 64-bit mix of the seed, the term id and j
+    private int bucket(int termId, int j) {
+        long h = seed + termId * 0x9E3779B97F4A7C15L + j * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) ((h >>> 1) % dimension);
+    }
+}
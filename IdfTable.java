@@ -0,0 +1,269 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+//Vocabulary kept for clustering and the IDF of every kept term, by term id of term_dictionary.dat.
+//Terms in fewer than minDf pages are one-off words and typos, terms in more than maxDf of the pages are
+//near stop words; both only make records longer. maxTerms then keeps the most frequent of the rest.
+//Built at the end of an ingest from the loader's document frequencies, or from a scan of the store, and
+//saved next to persistent_hashtable.dat; clustering loads records pruned to this vocabulary.
+//File layout: "KIDF", version, pages, minDf, maxDf, maxTerms, kept term count, then per term the
+//varint id gap, varint document frequency and float IDF.
+public class IdfTable {
+
+    public static final String FILE = "idf_table.dat";
+
+    public static final int DEFAULT_MIN_DF = 2;
+    public static final double DEFAULT_MAX_DF = 0.5;
+    //0 keeps every term within the document frequency bounds
+    public static final int DEFAULT_MAX_TERMS = 0;
+
+    private static final byte[] MAGIC = {'K', 'I', 'D', 'F'};
+    private static final int VERSION = 1;
+
+    private final int documents;
+    private final int minDf;
+    private final double maxDf;
+    private final int maxTerms;
+    //kept term ids ascending, with their document frequencies
+    private final int[] termIds;
+    private final int[] documentFrequencies;
+    //IDF by term id, 0 for pruned terms
+    private final float[] idf;
+
+    private IdfTable(int documents, int minDf, double maxDf, int maxTerms, int[] termIds, int[] documentFrequencies, float[] idf) {
+        this.documents = documents;
+        this.minDf = minDf;
+        this.maxDf = maxDf;
+        this.maxTerms = maxTerms;
+        this.termIds = termIds;
+        this.documentFrequencies = documentFrequencies;
+        this.idf = idf;
+    }
+
+    //Smoothed IDF, never 0, so a term in every page still counts a little
+    public static double idf(int documents, int documentFrequency) {
+        return Math.log((1.0 + documents) / (1.0 + documentFrequency)) + 1;
+    }
+
+    //documentFrequency[t] is the number of the documents containing term id t
+    public static IdfTable build(int documents, int[] documentFrequency, int minDf, double maxDf, int maxTerms) {
+        if (minDf < 1 || maxDf <= 0 || maxDf > 1 || maxTerms < 0) {
+            throw new IllegalArgumentException("minDf must be at least 1, maxDf in (0, 1] and maxTerms at least 0");
+        }
+        double maxCount = maxDf * documents;
+        List<Integer> kept = new ArrayList<>();
+        for (int t = 0; t < documentFrequency.length; t++) {
+            if (documentFrequency[t] >= minDf && documentFrequency[t] <= maxCount) {
+                kept.add(t);
+            }
+        }
+        if (maxTerms > 0 && kept.size() > maxTerms) {
+            //most frequent first, lower ids on ties, then back into id order
+            kept.sort((a, b) -> documentFrequency[a] != documentFrequency[b]
+                    ? Integer.compare(documentFrequency[b], documentFrequency[a]) : Integer.compare(a, b));
+            kept = new ArrayList<>(kept.subList(0, maxTerms));
+            Collections.sort(kept);
+        }
+        int[] termIds = new int[kept.size()];
+        int[] frequencies = new int[kept.size()];
+        float[] idf = new float[kept.isEmpty() ? 0 : kept.get(kept.size() - 1) + 1];
+        for (int i = 0; i < termIds.length; i++) {
+            termIds[i] = kept.get(i);
+            frequencies[i] = documentFrequency[termIds[i]];
+            idf[termIds[i]] = (float) idf(documents, frequencies[i]);
+        }
+        return new IdfTable(documents, minDf, maxDf, maxTerms, termIds, frequencies, idf);
+    }
+
+    //From the word -> page count table an ingest keeps, Loader.documentFrequency
+    public static IdfTable fromDocumentFrequencies(ConcurrentCHT<String, Integer> documentFrequency, TermDictionary dictionary,
+                                                   int documents, int minDf, double maxDf, int maxTerms) {
+        int[] frequencies = new int[dictionary.size()];
+        for (Map.Entry<String, Integer> entry : documentFrequency.toCHT().entrySet()) {
+            //words of pages that never reached a block have no id
+            int termId = dictionary.lookup(entry.getKey());
+            if (termId >= 0) {
+                frequencies[termId] = entry.getValue();
+            }
+        }
+        return build(documents, frequencies, minDf, maxDf, maxTerms);
+    }
+
+    //Count document frequencies in one scan of the store, for corpora ingested without them
+    public static IdfTable fromStore(PersistentHashTable hashTable, int minDf, double maxDf, int maxTerms) {
+        TermDictionary dictionary = hashTable.getDictionary();
+        int[][] frequencies = {new int[dictionary.size()]};
+        int[] documents = new int[1];
+        try (BlockScanner scanner = hashTable.scan()) {
+            scanner.forEachRemaining(record -> {
+                record.index(dictionary);
+                for (int termId : record.getTermIds()) {
+                    //records of legacy blocks add their terms to the dictionary as they are indexed
+                    if (termId >= frequencies[0].length) {
+                        frequencies[0] = Arrays.copyOf(frequencies[0], Math.max(termId + 1, dictionary.size()));
+                    }
+                    frequencies[0][termId]++;
+                }
+                documents[0]++;
+            });
+        }
+        return build(documents[0], frequencies[0], minDf, maxDf, maxTerms);
+    }
+
+    public boolean contains(int termId) {
+        return termId < idf.length && idf[termId] > 0;
+    }
+
+    //IDF of a kept term, 0 for a pruned one
+    public double idf(int termId) {
+        return termId < idf.length ? idf[termId] : 0;
+    }
+
+    //The record with only the kept terms; it must be indexed against the dictionary the table was built from.
+    //The MinHash signature stays that of the full page.
+    public SiteRecord prune(SiteRecord record) {
+        int[] ids = record.getTermIds();
+        int[] counts = record.getCounts();
+        int kept = 0;
+        for (int termId : ids) {
+            if (contains(termId)) {
+                kept++;
+            }
+        }
+        if (kept == ids.length) {
+            return record;
+        }
+        int[] keptIds = new int[kept];
+        int[] keptCounts = new int[kept];
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (contains(ids[i])) {
+                keptIds[n] = ids[i];
+                keptCounts[n++] = counts[i];
+            }
+        }
+        SiteRecord pruned = new SiteRecord(record.getUrl(), record.getDictionary(), keptIds, keptCounts);
+        pruned.setMinHash(record.getMinHash());
+        return pruned;
+    }
+
+    //number of kept terms
+    public int size() {
+        return termIds.length;
+    }
+
+    //pages the document frequencies were counted over
+    public int getDocuments() {
+        return documents;
+    }
+
+    public int[] getTermIds() {
+        return termIds;
+    }
+
+    public int[] getDocumentFrequencies() {
+        return documentFrequencies;
+    }
+
+    public void save(String fileName) throws IOException {
+        File tmp = new File(fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            BlockCodec.writeVarInt(out, documents);
+            BlockCodec.writeVarInt(out, minDf);
+            out.writeDouble(maxDf);
+            BlockCodec.writeVarInt(out, maxTerms);
+            BlockCodec.writeVarInt(out, termIds.length);
+            int previous = 0;
+            for (int i = 0; i < termIds.length; i++) {
+                BlockCodec.writeVarInt(out, termIds[i] - previous);
+                previous = termIds[i];
+                BlockCodec.writeVarInt(out, documentFrequencies[i]);
+                out.writeFloat(idf[termIds[i]]);
+            }
+        }
+        Files.move(tmp.toPath(), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static IdfTable load(String fileName) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName)));
+        byte[] magic = new byte[MAGIC.length];
+        if (in.remaining() < MAGIC.length + 1) {
+            throw new IOException(fileName + " is not an IDF table");
+        }
+        in.get(magic);
+        int version = in.get();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+            throw new IOException(fileName + " is not a version " + VERSION + " IDF table");
+        }
+        int documents = BlockCodec.readVarInt(in);
+        int minDf = BlockCodec.readVarInt(in);
+        double maxDf = in.getDouble();
+        int maxTerms = BlockCodec.readVarInt(in);
+        int[] termIds = new int[BlockCodec.readVarInt(in)];
+        int[] frequencies = new int[termIds.length];
+        float[] weights = new float[termIds.length];
+        int previous = 0;
+        for (int i = 0; i < termIds.length; i++) {
+            previous += BlockCodec.readVarInt(in);
+            termIds[i] = previous;
+            frequencies[i] = BlockCodec.readVarInt(in);
+            weights[i] = in.getFloat();
+        }
+        float[] idf = new float[termIds.length == 0 ? 0 : termIds[termIds.length - 1] + 1];
+        for (int i = 0; i < termIds.length; i++) {
+            idf[termIds[i]] = weights[i];
+        }
+        return new IdfTable(documents, minDf, maxDf, maxTerms, termIds, frequencies, idf);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of the terms of %d pages kept (min df %d, max df %.2f%s)", termIds.length, documents,
+                minDf, maxDf, maxTerms > 0 ? ", at most " + maxTerms + " terms" : "");
+    }
+
+    //Rebuild the table of the store in this directory:
+    //IdfTable [--min-df n] [--max-df fraction] [--max-vocabulary n]
+    public static void main(String[] args) throws IOException {
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        int minDf = intOption(params, "--min-df", DEFAULT_MIN_DF);
+        double maxDf = doubleOption(params, "--max-df", DEFAULT_MAX_DF);
+        int maxTerms = intOption(params, "--max-vocabulary", DEFAULT_MAX_TERMS);
+        PersistentHashTable hashTable = PersistentHashTable.loadFromFile("persistent_hashtable.dat");
+        if (hashTable == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        IdfTable table = fromStore(hashTable, minDf, maxDf, maxTerms);
+        table.save(FILE);
+        System.out.printf("%s, dictionary of %d terms, saved %s in %.1f ms%n", table, hashTable.getDictionary().size(), FILE,
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    //Remove "--name value" from the arguments and return the value, or the default when absent
+    static int intOption(List<String> params, String name, int defaultValue) {
+        int flag = params.indexOf(name);
+        if (flag < 0 || flag + 1 >= params.size()) {
+            return defaultValue;
+        }
+        int value = Integer.parseInt(params.get(flag + 1));
+        params.subList(flag, flag + 2).clear();
+        return value;
+    }
+
+    static double doubleOption(List<String> params, String name, double defaultValue) {
+        int flag = params.indexOf(name);
+        if (flag < 0 || flag + 1 >= params.size()) {
+            return defaultValue;
+        }
+        double value = Double.parseDouble(params.get(flag + 1));
+        params.subList(flag, flag + 2).clear();
+        return value;
+    }
+}
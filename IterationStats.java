@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+//What one KMeansClustering iteration did and how long each phase took
+public class IterationStats {
+
+    private final int iteration;
+    private final long assignNanos;
+    private final long updateNanos;
+    private final long similarityEvaluations;
+    private final long skippedEvaluations;
+    private final int reassigned;
+    private final double[] centroidShifts;
+    private final int[] clusterSizes;
+    private final double objective;
+    private final boolean converged;
+
+    public IterationStats(int iteration, long assignNanos, long updateNanos, long similarityEvaluations, int reassigned,
+                          double[] centroidShifts, int[] clusterSizes, double objective, boolean converged) {
+        this(iteration, assignNanos, updateNanos, similarityEvaluations, 0, reassigned, centroidShifts, clusterSizes,
+                objective, converged);
+    }
+
+    //skippedEvaluations: record-centroid similarities a bounded assignment proved unnecessary
+    public IterationStats(int iteration, long assignNanos, long updateNanos, long similarityEvaluations, long skippedEvaluations,
+                          int reassigned, double[] centroidShifts, int[] clusterSizes, double objective, boolean converged) {
+        this.iteration = iteration;
+        this.assignNanos = assignNanos;
+        this.updateNanos = updateNanos;
+        this.similarityEvaluations = similarityEvaluations;
+        this.skippedEvaluations = skippedEvaluations;
+        this.reassigned = reassigned;
+        this.centroidShifts = centroidShifts;
+        this.clusterSizes = clusterSizes;
+        this.objective = objective;
+        this.converged = converged;
+    }
+
+    //1-based, like the iteration cap in run()
+    public int getIteration() {
+        return iteration;
+    }
+
+    //time spent assigning every record to its nearest centroid
+    public long getAssignNanos() {
+        return assignNanos;
+    }
+
+    //time spent recomputing the centroids
+    public long getUpdateNanos() {
+        return updateNanos;
+    }
+
+    public long getSimilarityEvaluations() {
+        return similarityEvaluations;
+    }
+
+    public long getSkippedEvaluations() {
+        return skippedEvaluations;
+    }
+
+    //share of the record-centroid similarities a brute-force assignment would have computed that were skipped
+    public double getSkippedFraction() {
+        long total = similarityEvaluations + skippedEvaluations;
+        return total == 0 ? 0 : (double) skippedEvaluations / total;
+    }
+
+    //records whose cluster changed; every record on the first iteration
+    public int getReassigned() {
+        return reassigned;
+    }
+
+    //1 - similarity between each centroid and its replacement, 0 for centroids that were kept
+    public double[] getCentroidShifts() {
+        return centroidShifts;
+    }
+
+    public double getMaxCentroidShift() {
+        double max = 0;
+        for (double shift : centroidShifts) {
+            max = Math.max(max, shift);
+        }
+        return max;
+    }
+
+    public int[] getClusterSizes() {
+        return clusterSizes;
+    }
+
+    //sum over all records of the similarity to their centroid; grows as the clusters get tighter
+    public double getObjective() {
+        return objective;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    @Override
+    public String toString() {
+        String skipped = skippedEvaluations > 0 ? String.format(" (%.1f%% skipped)", 100 * getSkippedFraction()) : "";
+        return String.format("Iteration %d: assign %.1f ms, update %.1f ms, %d similarities%s, %d reassigned, max shift %.5f, objective %.3f, sizes %s%s",
+                iteration, assignNanos / 1e6, updateNanos / 1e6, similarityEvaluations, skipped, reassigned, getMaxCentroidShift(),
+                objective, Arrays.toString(clusterSizes), converged ? ", converged" : "");
+    }
+}
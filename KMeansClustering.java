@@ -6,86 +6,443 @@ import org.jfree.chart.plot.CategoryPlot;
 import org.jfree.data.category.DefaultCategoryDataset;
 
 import javax.swing.*;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class KMeansClustering implements Serializable {
 
+    //how run() picks the starting centroids; see KMeansSeeding
+    public enum Seeding {
+        RANDOM, PLUS_PLUS, PARALLEL
+    }
+
     private PersistentHashTable hashTable;
     private final int k;
+    //number of worker threads used by run(); 1 keeps everything on the calling thread
+    private final int threads;
+    private final long seed;
     private final List<SiteRecord> records;
-    private final List<SiteRecord> centroids;
+    private final List<Centroid> centroids;
+
+    //term ids for every word seen in the loaded records
+    private final TermDictionary dictionary;
+
+    //one set of partial centroid sums per chunk of records, reused between iterations
+    private transient ChunkSums[] chunkSums = new ChunkSums[0];
+
+    //term -> centroid postings of the current centroids, rebuilt at the start of every assignment
+    private transient CentroidIndex centroidIndex;
+
+    //records left out of the clustering as near-duplicates of a kept record, listed in its cluster
+    private final Map<SiteRecord, List<SiteRecord>> duplicates = new IdentityHashMap<>();
+
+    //optional LSH filter: only centroids colliding with a record are scored exactly
+    private int candidateBands;
+    private int candidateRows;
+    private transient LshIndex centroidLsh;
+    private transient ExecutorService executor;
+
+    //optional dense assignment: records and centroids feature-hashed into rows of hasher.dimension() floats,
+    //scored by min-sums on the kernel; centroids are still recomputed from the exact sparse counts
+    private transient FeatureHasher hasher;
+    private transient DenseKernel kernel;
+    private transient float[] hashedRecords;
+    private transient float[] hashedCentroids;
 
     //map to associate centroid with its clusters.
-    private Map<SiteRecord, List<SiteRecord>> clusters;
+    private Map<Centroid, List<SiteRecord>> clusters;
+
+    //bounds on the centroid size: at most maxCentroidTerms terms (0 = no limit) covering centroidMass of the weight
+    private int maxCentroidTerms;
+    private double centroidMass = 1.0;
+
+    //iterations the last run() took
+    private int iterations;
+
+    //starting centroids are picked on first use, so seeding can use run()'s worker threads
+    private Seeding seeding = Seeding.PLUS_PLUS;
+    private long seedNanos;
+    //set when the centroids come from a saved model, which seeding must not replace
+    private boolean warmStart;
+
+    //sum of the similarities of every record to its centroid in the last assignment
+    private double objective;
+
+    //outcome of the last run()
+    private boolean converged;
+    private long runNanos;
+
+    //cluster of every record in the current and the previous iteration, to count reassignments
+    private int[] assignment;
+    private int[] previousAssignment;
+
+    //time the constructor spent loading and indexing records
+    private final long loadNanos;
+
+    private final List<ClusteringListener> listeners = new ArrayList<>();
 
     public KMeansClustering(int k, PersistentHashTable hashTable) {
+        this(k, hashTable, 1, System.nanoTime());
+    }
+
+    //Results only depend on the seed; the thread count changes the speed, not the clusters
+    public KMeansClustering(int k, PersistentHashTable hashTable, int threads, long seed) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
         this.k = k;
+        this.threads = threads;
+        this.seed = seed;
         this.hashTable = hashTable;
+        long loadStart = System.nanoTime();
+        //records from compact blocks already carry ids from the store's dictionary
+        this.dictionary = hashTable.getDictionary();
         this.records = loadRecordsFromHashTable();
-        this.centroids = initializeCentroids();
+        this.loadNanos = System.nanoTime() - loadStart;
+        this.centroids = new ArrayList<>(k);
+    }
+
+    //Cluster records that are already in memory, e.g. for benchmarks; they are indexed against the dictionary
+    KMeansClustering(List<SiteRecord> records, TermDictionary dictionary, int k, int threads, long seed) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.k = k;
+        this.threads = threads;
+        this.seed = seed;
+        long loadStart = System.nanoTime();
+        this.records = new ArrayList<>(records);
+        this.dictionary = dictionary;
+        for (SiteRecord record : this.records) {
+            record.index(dictionary);
+        }
+        this.loadNanos = System.nanoTime() - loadStart;
+        this.centroids = new ArrayList<>(k);
+    }
+
+    //Warm start: begin from the centroids of a saved model instead of random records, so a retrain on a
+    //slightly changed corpus only needs a few iterations
+    public KMeansClustering(ClusterModel model, PersistentHashTable hashTable, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.k = model.size();
+        this.threads = threads;
+        this.seed = 0;
+        this.hashTable = hashTable;
+        long loadStart = System.nanoTime();
+        this.dictionary = hashTable.getDictionary();
+        this.records = loadRecordsFromHashTable();
+        this.loadNanos = System.nanoTime() - loadStart;
+        this.centroids = model.toCentroids(dictionary);
+        this.warmStart = true;
     }
     private List<SiteRecord> loadRecordsFromHashTable() {
-        List<SiteRecord> records = new ArrayList<>();
-        for (String url : hashTable.getUrls()) {
-            SiteRecord record = hashTable.getRecord(url);
-            if (record != null) {
-                records.add(record);
+        //blocks are read in file order and decoded ahead while this thread indexes the records
+        List<SiteRecord> loaded = new ArrayList<>(hashTable.size());
+        //terms outside the IDF table's vocabulary only make every similarity call longer
+        IdfTable vocabulary = hashTable.getIdfTable();
+        try (BlockScanner scanner = hashTable.scan()) {
+            scanner.forEachRemaining(record -> {
+                record.index(dictionary);
+                loaded.add(vocabulary == null ? record : vocabulary.prune(record));
+            });
+        }
+        return loaded;
+    }
+
+    //Pick the starting centroids unless there are centroids already
+    private void seedCentroids() {
+        if (!centroids.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        KMeansSeeding seeds = new KMeansSeeding(records, executor, threads);
+        switch (seeding) {
+            case RANDOM:
+                centroids.addAll(seeds.random(k, seed));
+                break;
+            case PLUS_PLUS:
+                centroids.addAll(seeds.plusPlus(k, seed));
+                break;
+            default:
+                centroids.addAll(seeds.parallel(k, seed));
+        }
+        seedNanos = System.nanoTime() - start;
+    }
+
+    //Choose how the starting centroids are picked; k-means++ by default. Call before run().
+    public void setSeeding(Seeding seeding) {
+        if (warmStart) {
+            throw new IllegalStateException("A warm start begins from the model's centroids");
+        }
+        this.seeding = seeding;
+        if (iterations == 0) {
+            centroids.clear();
+        }
+    }
+
+    //Keep only the heaviest maxTerms terms of every recomputed centroid (0 keeps all)
+    public void setMaxCentroidTerms(int maxTerms) {
+        this.maxCentroidTerms = maxTerms;
+    }
+
+    //Keep only the heaviest terms that together hold this fraction of a centroid's weight (1 keeps all)
+    public void setCentroidMass(double massFraction) {
+        if (massFraction <= 0 || massFraction > 1) {
+            throw new IllegalArgumentException("massFraction must be in (0, 1]");
+        }
+        this.centroidMass = massFraction;
+    }
+
+    //Cluster only the first of every group of near-duplicate records; the others join its cluster at the
+    //end. Call before run(). Returns the number of records left out.
+    public int collapseNearDuplicates(int bands, int rows, double minJaccard) {
+        int[] representative = NearDuplicates.find(records, bands, rows, minJaccard);
+        List<SiteRecord> kept = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            if (representative[i] == i) {
+                kept.add(records.get(i));
+            } else {
+                duplicates.computeIfAbsent(records.get(representative[i]), r -> new ArrayList<>()).add(records.get(i));
             }
         }
-        return records;
+        int collapsed = records.size() - kept.size();
+        records.clear();
+        records.addAll(kept);
+        return collapsed;
+    }
+
+    //Approximate assignment: score a record exactly only against the centroids sharing an LSH band with
+    //it, falling back to all centroids when none does. More bands find the true nearest centroid more
+    //often, more rows leave fewer candidates. Works best with truncated centroids, whose word sets are
+    //closer in size to a record's. bands = 0 turns the filter off.
+    public void setCandidateFilter(int bands, int rows) {
+        if (bands > 0 && bands * rows > MinHash.DEFAULT.length()) {
+            throw new IllegalArgumentException("bands * rows must not exceed " + MinHash.DEFAULT.length());
+        }
+        this.candidateBands = bands;
+        this.candidateRows = rows;
+    }
+
+    //Approximate assignment: score records against centroids as min-sums over feature-hashed rows of
+    //dimension floats, on SIMD registers when the Vector API is available. nonZeros > 1 spreads every term over
+    //that many buckets. Hash collisions only raise similarities, and fewer buckets collide more, which the
+    //objective then includes; memory is records * dimension floats. dimension = 0 turns it off. Call before run().
+    public void setFeatureHashing(int dimension, int nonZeros) {
+        hasher = dimension > 0 ? new FeatureHasher(dimension, nonZeros, seed) : null;
+        hashedRecords = null;
+    }
+
+    public void addListener(ClusteringListener listener) {
+        listeners.add(listener);
     }
-    private List<SiteRecord> initializeCentroids() {
-        // Random k records as initial centroids
-        Collections.shuffle(records);
-        return records.subList(0, k);
+
+    public void removeListener(ClusteringListener listener) {
+        listeners.remove(listener);
     }
 
     public void run() {
+        cluster();
+        printClusters();
+    }
+
+    //run() without printing the members of every cluster
+    public void cluster() {
+        iterations = 0;
+        previousAssignment = null;
         boolean converged = false;
-        int iterations = 0;
-        //if centroids aren't moving anymore
-        final double threshold = 0.0001;
+        long runStart = System.nanoTime();
+        KMeansRunEvent event = new KMeansRunEvent();
+        event.begin();
+        for (ClusteringListener listener : listeners) {
+            listener.loaded(records.size(), loadNanos);
+        }
 
-        while (!converged) {
-            iterations++;
-            //assign records to nearest centroid
-            Map<SiteRecord, List<SiteRecord>> newClusters = assignToClusters();
-
-            //assume conv.
-            converged = true;
-            //update centroids and check for convergence
-            for (SiteRecord centroid : new ArrayList<>(clusters.keySet())) {
-                SiteRecord newCentroid = computeNewCentroid(clusters.get(centroid));
-                if (!newCentroid.equals(centroid)) {
-                    double similarity = calculateSimilarity(newCentroid.getWordFrequency(), centroid.getWordFrequency());
-                    if (similarity < 1 - threshold) {
-                        converged = false;
-                        centroids.remove(centroid);
-                        centroids.add(newCentroid);
-                    }
-                }
+        startWorkers();
+        try {
+            seedCentroids();
+            // loop check
+            while (!converged && iterations < 101) {
+                converged = iterate();
             }
+        } finally {
+            stopWorkers();
+        }
+
+        this.converged = converged;
+        this.runNanos = System.nanoTime() - runStart;
+        for (ClusteringListener listener : listeners) {
+            listener.runFinished(iterations, converged, runNanos);
+        }
+        if (event.shouldCommit()) {
+            event.records = records.size();
+            event.k = k;
+            event.threads = threads;
+            event.loadTime = loadNanos;
+            event.iterations = iterations;
+            event.converged = converged;
+            event.commit();
+        }
+    }
 
-            // Update the clusters only if centroids have changed
-            if (!converged) {
-                clusters = newClusters;
+    //Worker threads for iterate() and seeding when threads > 1; run() holds them for the whole loop
+    void startWorkers() {
+        if (threads > 1 && executor == null) {
+            executor = new ForkJoinPool(threads);
+        }
+    }
+
+    void stopWorkers() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    //One assignment and update step, returning true once no centroid moved. Runs on the calling
+    //thread unless called from run(), or between startWorkers() and stopWorkers(), with several threads.
+    boolean iterate() {
+        //if centroids aren't moving anymore
+        final double threshold = 0.0001;
+        seedCentroids();
+        iterations++;
+        KMeansIterationEvent event = new KMeansIterationEvent();
+        event.begin();
+        long assignStart = System.nanoTime();
+        //assign records to nearest centroid
+        Map<Centroid, List<SiteRecord>> newClusters = assignToClusters();
+        long updateStart = System.nanoTime();
+
+        //assume conv.
+        boolean converged = true;
+        double[] shifts = new double[centroids.size()];
+        int[] sizes = new int[centroids.size()];
+        //update centroids and check for convergence
+        for (int c = 0; c < centroids.size(); c++) {
+            Centroid centroid = centroids.get(c);
+            sizes[c] = clusters.get(centroid).size();
+            //an empty cluster keeps its previous centroid
+            if (sizes[c] == 0) {
+                continue;
+            }
+            Centroid newCentroid = computeNewCentroid(c);
+            double similarity = newCentroid.similarity(centroid);
+            shifts[c] = 1 - similarity;
+            if (similarity < 1 - threshold) {
+                converged = false;
+                centroids.set(c, newCentroid);
             }
+        }
 
-            // loop check
-            if (iterations >= 101) {
-                break;
+        // Update the clusters only if centroids have changed
+        if (!converged) {
+            clusters = newClusters;
+        }
+        objective = 0;
+        for (ChunkSums chunk : chunkSums) {
+            objective += chunk.objective;
+        }
+        long updateNanos = System.nanoTime() - updateStart;
+
+        if (!listeners.isEmpty() || event.isEnabled()) {
+            reportIteration(event, updateStart - assignStart, updateNanos, shifts, sizes, converged);
+        }
+        int[] swap = previousAssignment;
+        previousAssignment = assignment;
+        assignment = swap;
+        return converged;
+    }
+
+    private void reportIteration(KMeansIterationEvent event, long assignNanos, long updateNanos, double[] shifts, int[] sizes, boolean converged) {
+        //the update phase compares every recomputed centroid with the one it replaces
+        long evaluations = 0;
+        for (ChunkSums chunk : chunkSums) {
+            evaluations += chunk.similarityEvaluations;
+        }
+        for (int size : sizes) {
+            if (size > 0) {
+                evaluations++;
             }
         }
+        int reassigned = records.size();
+        if (previousAssignment != null) {
+            reassigned = 0;
+            for (int i = 0; i < records.size(); i++) {
+                if (assignment[i] != previousAssignment[i]) {
+                    reassigned++;
+                }
+            }
+        }
+        IterationStats stats = new IterationStats(iterations, assignNanos, updateNanos, evaluations, reassigned,
+                shifts, sizes, objective, converged);
+        for (ClusteringListener listener : listeners) {
+            listener.iterationFinished(stats);
+        }
+        if (event.shouldCommit()) {
+            event.iteration = iterations;
+            event.assignTime = assignNanos;
+            event.updateTime = updateNanos;
+            event.similarityEvaluations = evaluations;
+            event.reassigned = reassigned;
+            event.maxCentroidShift = stats.getMaxCentroidShift();
+            event.smallestCluster = Arrays.stream(sizes).min().orElse(0);
+            event.largestCluster = Arrays.stream(sizes).max().orElse(0);
+            event.objective = objective;
+            event.commit();
+        }
+    }
 
-        // Print the result after convergence
-        printClusters();
+    public List<Centroid> getCentroids() {
+        seedCentroids();
+        return Collections.unmodifiableList(centroids);
     }
 
-    private void printClusters() {
+    //members of every cluster after the last run()
+    public Map<Centroid, List<SiteRecord>> getClusters() {
+        return Collections.unmodifiableMap(clusters);
+    }
+
+    //similarity of every record to its centroid in the last assignment, summed; higher is tighter
+    public double getObjective() {
+        return objective;
+    }
+
+    //time spent picking the starting centroids
+    public long getSeedNanos() {
+        return seedNanos;
+    }
+
+    //false when the last run stopped at the iteration cap
+    public boolean isConverged() {
+        return converged;
+    }
+
+    //wall time of the last run, seeding included
+    public long getRunNanos() {
+        return runNanos;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    //The current centroids with their vocabulary, for classifying new pages later
+    public ClusterModel toModel() {
+        seedCentroids();
+        return ClusterModel.fromCentroids(centroids);
+    }
+
+    public void saveModel(String fileName) throws IOException {
+        toModel().save(fileName);
+    }
+
+    public void printClusters() {
         // Print URLs of SiteRecords in each cluster
         int clusterIndex = 0;
-        for (SiteRecord centroid : clusters.keySet()) {
+        for (Centroid centroid : clusters.keySet()) {
             System.out.println("Cluster " + (++clusterIndex) + " with Centroid: " + centroid.getUrl());
             List<SiteRecord> clusterSites = clusters.get(centroid);
             for (SiteRecord site : clusterSites) {
@@ -95,90 +452,214 @@ public class KMeansClustering implements Serializable {
     }
 
 
-    private SiteRecord computeNewCentroid(List<SiteRecord> cluster) {
+    //Merge the partial sums every chunk collected for one centroid and average them
+    private Centroid computeNewCentroid(int centroidIndex) {
+        // Combine the chunks' sorted runs in chunk order
+        int clusterSize = 0;
+        int firstMember = -1;
+        TermSums.Run merged = TermSums.Run.EMPTY;
+        for (ChunkSums chunk : chunkSums) {
+            if (chunk.sizes[centroidIndex] == 0) {
+                continue;
+            }
+            clusterSize += chunk.sizes[centroidIndex];
+            if (firstMember < 0) {
+                firstMember = chunk.firstMember[centroidIndex];
+            }
+            merged = TermSums.merge(merged, chunk.sums[centroidIndex].collapse());
+        }
 
-        if (cluster.isEmpty()) {
+        if (clusterSize == 0) {
             throw new IllegalArgumentException("Cluster cannot be empty when computing a new centroid.");
         }
 
-        // Retrieve URL of first SiteRecord in the cluster
-        String firstRecordUrl = cluster.get(0).getUrl();
+        // Average the word frequencies in float, so rare terms keep a fractional weight
+        int[] termIds = merged.ids;
+        float[] weights = new float[termIds.length];
+        for (int i = 0; i < termIds.length; i++) {
+            weights[i] = (float) ((double) merged.sums[i] / clusterSize);
+        }
 
-        // Hold combined word frequencies of all SiteRecord objects in the cluster
-        HashMap<String, Integer> newWordFrequencies = new HashMap<>();
+        // Return new centroid with URL of first record, cut down to the configured size
+        String firstRecordUrl = records.get(firstMember).getUrl();
+        return new Centroid(firstRecordUrl, dictionary, termIds, weights).truncate(maxCentroidTerms, centroidMass);
+    }
 
-        // Loop through SiteRecords in the cluster and combine word frequencies into newWordFrequencies
-        for (SiteRecord record : cluster) {
-            Map<String, Integer> freqs = record.getWordFrequency();
-            for (Map.Entry<String, Integer> entry : freqs.entrySet()) {
-                newWordFrequencies.put(entry.getKey(), newWordFrequencies.getOrDefault(entry.getKey(), 0) + entry.getValue());
+    //Sum of the per-word minimum counts divided by the smaller record total.
+    //Both records are sorted by term id, so this is a single merge with no allocation.
+    static double calculateSimilarity(SiteRecord record1, SiteRecord record2) {
+        int[] ids1 = record1.getTermIds();
+        int[] ids2 = record2.getTermIds();
+        int[] counts1 = record1.getCounts();
+        int[] counts2 = record2.getCounts();
+        long totalCommonWords = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ids1.length && j < ids2.length) {
+            if (ids1[i] < ids2[j]) {
+                i++;
+            } else if (ids1[i] > ids2[j]) {
+                j++;
+            } else {
+                totalCommonWords += Math.min(counts1[i++], counts2[j++]);
             }
         }
+        return overlapRatio(totalCommonWords, record1.getTotalCount(), record2.getTotalCount());
+    }
 
-        // Average the word frequencies
-        for (Map.Entry<String, Integer> entry : newWordFrequencies.entrySet()) {
-            newWordFrequencies.put(entry.getKey(), entry.getValue() / cluster.size());
-        }
-
-        // Return new SiteRecord with "centroid" & URL of first record
-        return new SiteRecord(firstRecordUrl, newWordFrequencies);
+    //The common words over the smaller total. A page pruned to no words at all is similar to nothing,
+    //where 0 / 0 = NaN would lose every comparison and leave it in whatever cluster came first.
+    static double overlapRatio(double common, double total1, double total2) {
+        double smaller = Math.min(total1, total2);
+        return smaller == 0 ? 0 : common / smaller;
     }
 
-    private double calculateSimilarity(Map<String, Integer> frequency1, Map<String, Integer> frequency2) {
-        Set<String> word_Set1 = frequency1.keySet();
-        Set<String> word_Set2 = frequency2.keySet();
-        Set<Object> commonWords = new HashSet<>(word_Set1);
-        //retain all words also found in set 2
-        commonWords.retainAll(word_Set2);
+    //Assign every record to its nearest centroid. Records are split into one contiguous chunk per
+    //thread and each chunk accumulates its own centroid sums, so workers never share mutable state.
+    private Map<Centroid, List<SiteRecord>> assignToClusters() {
+        if (assignment == null || assignment.length != records.size()) {
+            assignment = new int[records.size()];
+        }
+        int[] assignment = this.assignment;
+        int chunks = Math.max(1, Math.min(threads, records.size()));
+        if (chunkSums == null || chunkSums.length != chunks) {
+            chunkSums = new ChunkSums[chunks];
+            for (int c = 0; c < chunks; c++) {
+                chunkSums[c] = new ChunkSums(k);
+            }
+        }
 
-        int totalWords1 = word_Set1.stream().mapToInt(frequency1::get).sum();
-        int totalWords2 = word_Set2.stream().mapToInt(frequency2::get).sum();
-        //For each word in commonWords set, calculates min frequency of that word between frequency1 and frequency2
-        //Then calculates sum of all these minimum frequencies
-        int totalCommonWords = commonWords.stream().mapToInt(word -> Math.min(frequency1.get((String) word), frequency2.get((String) word))).sum();
-        return (double) totalCommonWords / Math.min(totalWords1, totalWords2);
-    }
+        if (hasher != null) {
+            if (hashedRecords == null || hashedRecords.length != records.size() * hasher.dimension()) {
+                hashedRecords = hasher.hashAll(records);
+                kernel = DenseKernel.best();
+            }
+            hashedCentroids = hasher.hashAll(centroids, hashedCentroids);
+        } else {
+            centroidIndex = new CentroidIndex(centroids);
+        }
+        if (candidateBands > 0) {
+            centroidLsh = new LshIndex(candidateBands, candidateRows);
+            for (int c = 0; c < centroids.size(); c++) {
+                centroidLsh.add(c, MinHash.DEFAULT.signature(centroids.get(c)));
+            }
+        }
 
-    private Map<SiteRecord, List<SiteRecord>> assignToClusters() {
-        Map<SiteRecord, List<SiteRecord>> clusters = new HashMap<>();
-        for (SiteRecord centroid : centroids) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            ChunkSums sums = chunkSums[c];
+            int from = (int) ((long) records.size() * c / chunks);
+            int to = (int) ((long) records.size() * (c + 1) / chunks);
+            tasks.add(() -> {
+                sums.reset();
+                for (int i = from; i < to; i++) {
+                    SiteRecord record = records.get(i);
+                    int centroid = findMostSimilarCentroid(record, i, sums);
+                    assignment[i] = centroid;
+                    sums.add(centroid, record, i);
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        //members are listed in record order whatever the thread count
+        Map<Centroid, List<SiteRecord>> clusters = new LinkedHashMap<>();
+        for (Centroid centroid : centroids) {
             clusters.put(centroid, new ArrayList<>());
         }
-        for (SiteRecord record : records) {
-            SiteRecord mostSimilarCentroid = findMostSimilarCentroid(record);
-            clusters.get(mostSimilarCentroid).add(record);
+        for (int i = 0; i < assignment.length; i++) {
+            List<SiteRecord> members = clusters.get(centroids.get(assignment[i]));
+            members.add(records.get(i));
+            members.addAll(duplicates.getOrDefault(records.get(i), Collections.emptyList()));
         }
         this.clusters = clusters;
         return clusters;
     }
 
-    private SiteRecord findMostSimilarCentroid(SiteRecord record) {
+    private void runAll(List<Callable<Void>> tasks) {
+        if (executor == null || tasks.size() == 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return;
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while assigning clusters", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    //Index of the most similar centroid, counting the evaluations and best similarity into the chunk's stats.
+    //The record is scored against every centroid at once through the centroid index, or row by row when
+    //records are feature-hashed.
+    private int findMostSimilarCentroid(SiteRecord record, int recordIndex, ChunkSums stats) {
         double maxSimilarity = 0.0;
-        SiteRecord mostSimilarCentroid = null;
+        //records sharing no words with any centroid fall into the first cluster
+        int mostSimilarCentroid = 0;
+
+        if (centroidLsh != null) {
+            int[] candidates = centroidLsh.candidates(MinHash.DEFAULT.signatureOf(record));
+            if (candidates.length > 0) {
+                //ascending candidates keep the lowest index on ties, as the full scan does
+                mostSimilarCentroid = candidates[0];
+                for (int c : candidates) {
+                    double similarity = centroids.get(c).similarity(record);
+                    if (similarity > maxSimilarity) {
+                        maxSimilarity = similarity;
+                        mostSimilarCentroid = c;
+                    }
+                }
+                stats.similarityEvaluations += candidates.length;
+                stats.objective += maxSimilarity;
+                return mostSimilarCentroid;
+            }
+        }
 
-        for (SiteRecord centroid : centroids) {
-            double similarity = calculateSimilarity(record.getWordFrequency(), centroid.getWordFrequency());
+        double[] similarities = stats.similarities;
+        if (hasher != null) {
+            int dimension = hasher.dimension();
+            long total = record.getTotalCount();
+            for (int c = 0; c < centroids.size(); c++) {
+                float common = kernel.minSum(hashedRecords, recordIndex * dimension, hashedCentroids, c * dimension, dimension);
+                similarities[c] = overlapRatio(common, total, centroids.get(c).getTotalWeight());
+            }
+        } else {
+            centroidIndex.score(record, similarities);
+        }
+        for (int c = 0; c < centroids.size(); c++) {
+            double similarity = similarities[c];
             if (similarity > maxSimilarity) {
                 maxSimilarity = similarity;
-                mostSimilarCentroid = centroid;
+                mostSimilarCentroid = c;
             }
         }
+        stats.similarityEvaluations += centroids.size();
+        stats.objective += maxSimilarity;
 
         return mostSimilarCentroid;
     }
 
-    public Map<SiteRecord, SiteRecord> getMostSimilarSitesInClusters() {
-        Map<SiteRecord, SiteRecord> mostSimilarSites = new HashMap<>();
-        for (SiteRecord centroid : clusters.keySet()) {
-            List<SiteRecord> clusterSites = new ArrayList<>(clusters.get(centroid));
-
-            // Remove the centroid itself from the list in similarity calc
-            clusterSites.remove(centroid);
+    public Map<Centroid, SiteRecord> getMostSimilarSitesInClusters() {
+        Map<Centroid, SiteRecord> mostSimilarSites = new HashMap<>();
+        for (Centroid centroid : clusters.keySet()) {
+            //centroids are means, never members, so every site in the cluster is a candidate
+            List<SiteRecord> clusterSites = clusters.get(centroid);
 
             double maxSimilarity = 0.0;
             SiteRecord mostSimilarSite = null;
             for (SiteRecord site : clusterSites) {
-                double similarity = calculateSimilarity(site.getWordFrequency(), centroid.getWordFrequency());
+                double similarity = centroid.similarity(site);
                 if (similarity > maxSimilarity) {
                     maxSimilarity = similarity;
                     mostSimilarSite = site;
@@ -192,8 +673,8 @@ public class KMeansClustering implements Serializable {
     public void plotClusters() {
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
 
-        Map<SiteRecord, SiteRecord> mostSimilarSites = getMostSimilarSitesInClusters();
-        for (SiteRecord centroid : mostSimilarSites.keySet()) {
+        Map<Centroid, SiteRecord> mostSimilarSites = getMostSimilarSitesInClusters();
+        for (Centroid centroid : mostSimilarSites.keySet()) {
             SiteRecord mostSimilarSite = mostSimilarSites.get(centroid);
             dataset.addValue(clusters.get(centroid).size(), "Cluster Size", centroid.getUrl() + "\nMost Similar Site: " + mostSimilarSite.getUrl());
         }
@@ -220,4 +701,44 @@ public class KMeansClustering implements Serializable {
         frame.setVisible(true);
     }
 
+    //Partial centroid sums for one chunk of records, kept sparse as sorted runs of (term id, count) so a
+    //chunk costs memory in the terms its members use rather than k dense rows of the vocabulary
+    private static final class ChunkSums {
+        final TermSums[] sums;
+        final int[] sizes;
+        final int[] firstMember;
+        //per-iteration metrics of this chunk
+        long similarityEvaluations;
+        double objective;
+        //similarity of the current record to every centroid, reused between records
+        final double[] similarities;
+
+        ChunkSums(int k) {
+            similarities = new double[k];
+            sums = new TermSums[k];
+            for (int c = 0; c < k; c++) {
+                sums[c] = new TermSums();
+            }
+            sizes = new int[k];
+            firstMember = new int[k];
+        }
+
+        void reset() {
+            for (TermSums sum : sums) {
+                sum.reset();
+            }
+            Arrays.fill(sizes, 0);
+            Arrays.fill(firstMember, -1);
+            similarityEvaluations = 0;
+            objective = 0;
+        }
+
+        void add(int centroid, SiteRecord record, int recordIndex) {
+            sums[centroid].add(record.getTermIds(), record.getCounts());
+            if (sizes[centroid]++ == 0) {
+                firstMember[centroid] = recordIndex;
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+import jdk.jfr.*;
+
+//Flight recorder event for one k-means iteration. Only filled in and committed while a recording has it
+//enabled, e.g. java -XX:StartFlightRecording:filename=kmeans.jfr Main
+@Name("kmeans.Iteration")
+@Label("K-Means Iteration")
+@Category("K-Means")
+@Description("One assignment and centroid update step of KMeansClustering")
+public class KMeansIterationEvent extends Event {
+
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Assign Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long assignTime;
+
+    @Label("Update Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long updateTime;
+
+    @Label("Similarity Evaluations")
+    long similarityEvaluations;
+
+    @Label("Reassigned Records")
+    int reassigned;
+
+    @Label("Max Centroid Shift")
+    double maxCentroidShift;
+
+    @Label("Smallest Cluster")
+    int smallestCluster;
+
+    @Label("Largest Cluster")
+    int largestCluster;
+
+    @Label("Objective")
+    double objective;
+}
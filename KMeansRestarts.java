@@ -0,0 +1,151 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+//Several k-means runs from different seeds, run side by side, keeping the tightest result. The restarts
+//share the indexed records read-only; each one owns its centroids, assignment and scratch sums, and runs
+//single-threaded so that the restarts are what runs in parallel.
+//"Best" is the highest objective (summed similarity to the centroids), i.e. the lowest sum of distances.
+public class KMeansRestarts {
+
+    private final List<SiteRecord> records;
+    private final TermDictionary dictionary;
+    private final int k;
+    private KMeansClustering.Seeding seeding = KMeansClustering.Seeding.PLUS_PLUS;
+    private int maxCentroidTerms;
+    private int hashedDimension;
+
+    private final List<Restart> restarts = new ArrayList<>();
+
+    public KMeansRestarts(List<SiteRecord> records, TermDictionary dictionary, int k) {
+        this.records = records;
+        this.dictionary = dictionary;
+        this.k = k;
+        //indexed once here, so the restarts only ever read the records
+        for (SiteRecord record : records) {
+            record.index(dictionary);
+        }
+    }
+
+    //Load every live record of the store once for all restarts, pruned to the IDF table's vocabulary if any
+    public static KMeansRestarts fromStore(PersistentHashTable hashTable, int k) {
+        TermDictionary dictionary = hashTable.getDictionary();
+        IdfTable vocabulary = hashTable.getIdfTable();
+        List<SiteRecord> records = new ArrayList<>(hashTable.size());
+        try (BlockScanner scanner = hashTable.scan()) {
+            scanner.forEachRemaining(record -> {
+                record.index(dictionary);
+                records.add(vocabulary == null ? record : vocabulary.prune(record));
+            });
+        }
+        return new KMeansRestarts(records, dictionary, k);
+    }
+
+    public void setSeeding(KMeansClustering.Seeding seeding) {
+        this.seeding = seeding;
+    }
+
+    public void setMaxCentroidTerms(int maxTerms) {
+        this.maxCentroidTerms = maxTerms;
+    }
+
+    //See KMeansClustering.setFeatureHashing; every restart hashes the records into rows of its own
+    public void setFeatureHashing(int dimension) {
+        this.hashedDimension = dimension;
+    }
+
+    //Run count restarts with seeds seed, seed + 1, ..., at most threads at a time, and return the best
+    //clustering. Ties go to the lower seed, so the result does not depend on the thread count.
+    public KMeansClustering run(int count, long seed, int threads) {
+        if (count < 1 || threads < 1) {
+            throw new IllegalArgumentException("count and threads must be at least 1");
+        }
+        restarts.clear();
+        List<Callable<KMeansClustering>> tasks = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            long restartSeed = seed + r;
+            tasks.add(() -> {
+                KMeansClustering kMeans = new KMeansClustering(records, dictionary, k, 1, restartSeed);
+                kMeans.setSeeding(seeding);
+                kMeans.setMaxCentroidTerms(maxCentroidTerms);
+                kMeans.setFeatureHashing(hashedDimension, 1);
+                kMeans.cluster();
+                return kMeans;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, count));
+        try {
+            List<Future<KMeansClustering>> results = executor.invokeAll(tasks);
+            KMeansClustering best = null;
+            for (int r = 0; r < count; r++) {
+                KMeansClustering kMeans = results.get(r).get();
+                restarts.add(new Restart(seed + r, kMeans.getIterations(), kMeans.isConverged(),
+                        kMeans.getObjective(), kMeans.getSeedNanos(), kMeans.getRunNanos()));
+                if (best == null || kMeans.getObjective() > best.getObjective()) {
+                    best = kMeans;
+                }
+            }
+            return best;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running restarts", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    //one line per restart of the last run(), in seed order
+    public List<Restart> getRestarts() {
+        return Collections.unmodifiableList(restarts);
+    }
+
+    public static class Restart {
+        private final long seed;
+        private final int iterations;
+        private final boolean converged;
+        private final double objective;
+        private final long seedNanos;
+        private final long runNanos;
+
+        Restart(long seed, int iterations, boolean converged, double objective, long seedNanos, long runNanos) {
+            this.seed = seed;
+            this.iterations = iterations;
+            this.converged = converged;
+            this.objective = objective;
+            this.seedNanos = seedNanos;
+            this.runNanos = runNanos;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public boolean isConverged() {
+            return converged;
+        }
+
+        public double getObjective() {
+            return objective;
+        }
+
+        //time spent picking the starting centroids, part of the run time
+        public long getSeedNanos() {
+            return seedNanos;
+        }
+
+        public long getRunNanos() {
+            return runNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Restart seed %d: %d iterations%s, objective %.3f, seeding %.1f ms, run %.1f ms",
+                    seed, iterations, converged ? "" : " (not converged)", objective, seedNanos / 1e6, runNanos / 1e6);
+        }
+    }
+}
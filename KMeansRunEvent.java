@@ -0,0 +1,29 @@
+import jdk.jfr.*;
+
+//Flight recorder event spanning a whole KMeansClustering.run()
+@Name("kmeans.Run")
+@Label("K-Means Run")
+@Category("K-Means")
+@Description("A complete clustering run, from the first iteration to convergence or the iteration cap")
+public class KMeansRunEvent extends Event {
+
+    @Label("Records")
+    int records;
+
+    @Label("Clusters")
+    int k;
+
+    @Label("Threads")
+    int threads;
+
+    @Label("Load Time")
+    @Description("Time the constructor spent loading and indexing the records")
+    @Timespan(Timespan.NANOSECONDS)
+    long loadTime;
+
+    @Label("Iterations")
+    int iterations;
+
+    @Label("Converged")
+    boolean converged;
+}
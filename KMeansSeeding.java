@@ -0,0 +1,292 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+//Starting centroids for KMeansClustering. The distance of a record to a set of centroids is
+//1 - its highest similarity to any of them.
+// - random: k distinct records
+// - k-means++: each further centroid is a record drawn with probability proportional to its squared
+//   distance from the centroids so far, which spreads the seeds over the clusters
+// - k-means||: a few rounds that each draw about 2k records at once with the same weighting, in
+//   parallel; the candidates, weighted by the records nearest to them, are reduced to k by k-means++.
+//   It needs ROUNDS passes over the records instead of k.
+//Draws only depend on the seed, never on the number of threads.
+public class KMeansSeeding {
+
+    //sampling rounds of k-means|| and candidates drawn per round, as a multiple of k
+    private static final int ROUNDS = 5;
+    private static final int OVERSAMPLING = 2;
+
+    private final List<SiteRecord> records;
+    private final ExecutorService executor;
+    private final int chunks;
+
+    //executor may be null to run everything on the calling thread
+    public KMeansSeeding(List<SiteRecord> records, ExecutorService executor, int threads) {
+        this.records = records;
+        this.executor = executor;
+        this.chunks = Math.max(1, Math.min(threads, records.size()));
+    }
+
+    public List<Centroid> random(int k, long seed) {
+        checkK(k);
+        Random random = new Random(seed);
+        //partial Fisher-Yates over indexes, so the records themselves keep their order
+        int[] order = new int[records.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        List<Centroid> centroids = new ArrayList<>(k);
+        for (int c = 0; c < k; c++) {
+            int pick = c + random.nextInt(order.length - c);
+            int swap = order[c];
+            order[c] = order[pick];
+            order[pick] = swap;
+            centroids.add(Centroid.of(records.get(order[c])));
+        }
+        return centroids;
+    }
+
+    public List<Centroid> plusPlus(int k, long seed) {
+        checkK(k);
+        Random random = new Random(seed);
+        int n = records.size();
+        List<Centroid> centroids = new ArrayList<>(k);
+        double[] distances = new double[n];
+        Arrays.fill(distances, 1);
+        boolean[] chosen = new boolean[n];
+        int pick = random.nextInt(n);
+        while (true) {
+            chosen[pick] = true;
+            Centroid centroid = Centroid.of(records.get(pick));
+            centroids.add(centroid);
+            if (centroids.size() == k) {
+                return centroids;
+            }
+            closer(distances, Collections.singletonList(centroid));
+            pick = drawWeighted(distances, chosen, random);
+        }
+    }
+
+    public List<Centroid> parallel(int k, long seed) {
+        checkK(k);
+        Random random = new Random(seed);
+        int n = records.size();
+        List<Centroid> candidates = new ArrayList<>();
+        boolean[] chosen = new boolean[n];
+        double[] distances = new double[n];
+        Arrays.fill(distances, 1);
+        int first = random.nextInt(n);
+        chosen[first] = true;
+        candidates.add(Centroid.of(records.get(first)));
+        closer(distances, candidates);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double cost = 0;
+            for (double distance : distances) {
+                cost += distance * distance;
+            }
+            if (cost == 0) {
+                break;
+            }
+            double scale = OVERSAMPLING * k / cost;
+            int currentRound = round;
+            //every chunk draws its own records; the lists are joined in chunk order
+            List<List<Integer>> drawn = forChunks((from, to) -> {
+                List<Integer> picks = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    double d = distances[i];
+                    if (!chosen[i] && uniform(seed, currentRound, i) < scale * d * d) {
+                        picks.add(i);
+                    }
+                }
+                return picks;
+            });
+            List<Centroid> added = new ArrayList<>();
+            for (List<Integer> picks : drawn) {
+                for (int i : picks) {
+                    chosen[i] = true;
+                    added.add(Centroid.of(records.get(i)));
+                }
+            }
+            if (!added.isEmpty()) {
+                candidates.addAll(added);
+                closer(distances, added);
+            }
+        }
+        //a corpus of near-identical records may leave too few candidates
+        while (candidates.size() < Math.min(k, n)) {
+            int pick = drawWeighted(new double[n], chosen, random);
+            chosen[pick] = true;
+            candidates.add(Centroid.of(records.get(pick)));
+        }
+        if (candidates.size() == k) {
+            return candidates;
+        }
+
+        //weight every candidate by the records closest to it
+        CentroidIndex index = new CentroidIndex(candidates);
+        List<long[]> partialWeights = forChunks((from, to) -> {
+            long[] weights = new long[candidates.size()];
+            double[] similarities = new double[candidates.size()];
+            for (int i = from; i < to; i++) {
+                index.score(records.get(i), similarities);
+                weights[argMax(similarities)]++;
+            }
+            return weights;
+        });
+        long[] weights = new long[candidates.size()];
+        for (long[] partial : partialWeights) {
+            for (int c = 0; c < weights.length; c++) {
+                weights[c] += partial[c];
+            }
+        }
+        return reduce(candidates, weights, k, random);
+    }
+
+    //Weighted k-means++ over the candidates
+    private static List<Centroid> reduce(List<Centroid> candidates, long[] weights, int k, Random random) {
+        int m = candidates.size();
+        double[] distances = new double[m];
+        Arrays.fill(distances, 1);
+        boolean[] chosen = new boolean[m];
+        List<Centroid> centroids = new ArrayList<>(k);
+        double[] scores = new double[m];
+        for (int c = 0; c < m; c++) {
+            scores[c] = weights[c];
+        }
+        int pick = drawProportional(scores, chosen, random);
+        while (true) {
+            chosen[pick] = true;
+            Centroid centroid = candidates.get(pick);
+            centroids.add(centroid);
+            if (centroids.size() == k) {
+                return centroids;
+            }
+            for (int c = 0; c < m; c++) {
+                distances[c] = Math.min(distances[c], 1 - candidates.get(c).similarity(centroid));
+                scores[c] = weights[c] * distances[c] * distances[c];
+            }
+            pick = drawProportional(scores, chosen, random);
+        }
+    }
+
+    //Lower every record's distance to its closest centroid among the added ones
+    private void closer(double[] distances, List<Centroid> added) {
+        CentroidIndex index = new CentroidIndex(added);
+        forChunks((from, to) -> {
+            double[] similarities = new double[added.size()];
+            for (int i = from; i < to; i++) {
+                index.score(records.get(i), similarities);
+                double distance = 1 - similarities[argMax(similarities)];
+                if (distance < distances[i]) {
+                    distances[i] = distance;
+                }
+            }
+            return null;
+        });
+    }
+
+    //A record not chosen yet, with probability proportional to its squared distance
+    private static int drawWeighted(double[] distances, boolean[] chosen, Random random) {
+        double[] scores = new double[distances.length];
+        for (int i = 0; i < distances.length; i++) {
+            scores[i] = distances[i] * distances[i];
+        }
+        return drawProportional(scores, chosen, random);
+    }
+
+    //An index not chosen yet, with probability proportional to its score; uniform when all scores are 0
+    private static int drawProportional(double[] scores, boolean[] chosen, Random random) {
+        double total = 0;
+        int left = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (!chosen[i]) {
+                total += scores[i];
+                left++;
+            }
+        }
+        if (total > 0) {
+            double target = random.nextDouble() * total;
+            int last = -1;
+            for (int i = 0; i < scores.length; i++) {
+                if (chosen[i] || scores[i] == 0) {
+                    continue;
+                }
+                last = i;
+                target -= scores[i];
+                if (target < 0) {
+                    return i;
+                }
+            }
+            //rounding left the target just above the sum
+            return last;
+        }
+        int skip = random.nextInt(left);
+        for (int i = 0; i < scores.length; i++) {
+            if (!chosen[i] && skip-- == 0) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No record left to draw");
+    }
+
+    private static int argMax(double[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    //Uniform in [0, 1) for one record in one round, whichever chunk and thread draws it
+    private static double uniform(long seed, int round, int record) {
+        long h = seed + round * 0x9E3779B97F4A7C15L + record * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    private interface ChunkTask<T> {
+        T run(int from, int to);
+    }
+
+    //Run the task over contiguous chunks of the records and return the results in chunk order
+    private <T> List<T> forChunks(ChunkTask<T> task) {
+        int n = records.size();
+        List<Callable<T>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) n * c / chunks);
+            int to = (int) ((long) n * (c + 1) / chunks);
+            tasks.add(() -> task.run(from, to));
+        }
+        List<T> results = new ArrayList<>(chunks);
+        try {
+            if (executor == null || chunks == 1) {
+                for (Callable<T> chunk : tasks) {
+                    results.add(chunk.call());
+                }
+            } else {
+                for (Future<T> future : executor.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while seeding", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return results;
+    }
+
+    private void checkK(int k) {
+        if (k < 1 || k > records.size()) {
+            throw new IllegalArgumentException("k must be between 1 and the " + records.size() + " records");
+        }
+    }
+}
@@ -10,6 +10,12 @@ import java.util.stream.Collectors;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public class Loader implements Serializable{
@@ -23,42 +29,149 @@ public class Loader implements Serializable{
     //to keep track of the blocks written to disk
     private int blockIndex;
 
+    //term ids used by the compact blocks, shared with every other block in this directory
+    private final TermDictionary dictionary;
+
+    //codec applied to each block as it is written
+    private final BlockCodec.Compression compression;
+
+    //table being appended to, or null when the loader rebuilds the corpus from block 0
+    private final transient PersistentHashTable store;
+
+    //runs compaction next to an ingest, created on first use
+    private transient ExecutorService compactor;
+    //the last compaction started, which close() waits for
+    private transient Future<Integer> compaction;
+    //share of replaced records at which a written block starts a compaction, 0 when off
+    private transient double autoCompactRatio;
+    private transient boolean closing;
+
+    //blocks whose live records compaction appended, dropped once those records are on disk
+    private final transient Set<Integer> compactedBlocks = new LinkedHashSet<>();
+    private transient int droppedBlocks;
+
+    //receive every record once it is indexed, e.g. a MiniBatchKMeans clustering the crawl as it runs
+    private final transient List<Consumer<SiteRecord>> recordListeners = new CopyOnWriteArrayList<>();
+
     static Map<String, Map<String, Integer>> wordFrequencyTable = new HashMap<>();
 
+    //number of ingested pages containing each word; safe to update from concurrent workers
+    static ConcurrentCHT<String, Integer> documentFrequency = new ConcurrentCHT<>();
+
     private static final Set<String> stopWords = createStopWordsSet();
 
+    private static final ThreadLocal<Tokenizer> tokenizers = ThreadLocal.withInitial(Loader::newTokenizer);
+
+    //share of replaced records at which an appending ingest rewrites a block
+    public static final double DEFAULT_DEAD_RATIO = 0.5;
+
     public Loader(int blockSize) {
+        this(blockSize, BlockCodec.Compression.NONE);
+    }
+
+    public Loader(int blockSize, BlockCodec.Compression compression) {
         this.blockSize = blockSize;
+        this.compression = compression;
         this.blockBuffer = new ArrayList<>();
         this.blockIndex = 0;
+        this.dictionary = loadDictionary();
+        this.store = null;
+    }
+
+    //Append to an existing corpus: blocks are numbered after the ones already on disk and every index
+    //update goes through the table's write-ahead log once its block has been written
+    public Loader(int blockSize, BlockCodec.Compression compression, PersistentHashTable store) {
+        this.blockSize = blockSize;
+        this.compression = compression;
+        this.blockBuffer = new ArrayList<>();
+        this.blockIndex = -1;
+        //share the table's dictionary so the records it decodes need no re-indexing
+        this.dictionary = store.getDictionary();
+        this.store = store;
+    }
+
+    private static TermDictionary loadDictionary() {
+        try {
+            return TermDictionary.load(TermDictionary.FILE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new TermDictionary();
+        }
+    }
+
+    //Called with each record on the thread adding it, while this loader is locked
+    public void addRecordListener(Consumer<SiteRecord> listener) {
+        recordListeners.add(listener);
+    }
+
+    public void removeRecordListener(Consumer<SiteRecord> listener) {
+        recordListeners.remove(listener);
+    }
+
+    public synchronized void addSiteRecord(SiteRecord record, PersistentHashTable hashTable) {
+        if (store != null) {
+            //a re-crawled page replaces its old record, which no longer counts towards document frequency
+            SiteRecord previous = store.getRecord(record.getUrl());
+            if (previous != null) {
+                removeDocumentFrequencies(previous);
+            }
+        }
+        append(record, hashTable);
     }
 
-    public void addSiteRecord(SiteRecord record, PersistentHashTable hashTable) {
+    private void append(SiteRecord record, PersistentHashTable hashTable) {
+        //signed once here so near-duplicate detection never has to re-read the words; indexing first
+        //saves building a word map, and the block writer needs the index anyway
+        record.index(dictionary);
+        MinHash.DEFAULT.signatureOf(record);
+        for (Consumer<SiteRecord> listener : recordListeners) {
+            listener.accept(record);
+        }
+        storeRecord(record, hashTable);
+    }
+
+    //Buffer an indexed record and point the table at it. Compaction moves records through here rather than
+    //append, so listeners see every page once and moved records keep the signature read with them.
+    private void storeRecord(SiteRecord record, PersistentHashTable hashTable) {
+        if (store != null && blockBuffer.isEmpty()) {
+            blockIndex = store.allocateBlockIndex();
+        }
         blockBuffer.add(record);
+        //Index the record before a flush clears the buffer and advances blockIndex
+        hashTable.put(record.getUrl(), blockIndex, blockBuffer.size() - 1);
         //When buffer is full, writes the block to file
         if (blockBuffer.size() >= blockSize) {
             writeBlockToFile();
         }
-        hashTable.put(record.getUrl(), blockIndex, blockBuffer.size() - 1);
     }
 
     public static void main(String[] args) throws Exception {
+        //"--concurrency n" and "--politeness ms" set the concurrent fetches and the least time between
+        //two requests to one host
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        int concurrency = IdfTable.intOption(params, "--concurrency", CrawlPipeline.DEFAULT_CONCURRENCY);
+        long politenessMillis = IdfTable.intOption(params, "--politeness", (int) CrawlPipeline.DEFAULT_POLITENESS_MILLIS);
+        args = params.toArray(new String[0]);
+        CrawlPipeline pipeline = new CrawlPipeline(concurrency, politenessMillis);
 
-        //Save data
-        Loader loader = new Loader( 202);
+        //Save data, optionally compressing blocks with NONE, LZ or DEFLATE
+        BlockCodec.Compression compression = args.length > 0 ? BlockCodec.Compression.valueOf(args[0]) : BlockCodec.Compression.NONE;
+        //"Loader <compression> <url file>" adds or refreshes just the listed pages in the existing corpus
+        if (args.length > 1) {
+            appendUrls(args[1], compression, pipeline);
+            return;
+        }
+        Loader loader = new Loader( 202, compression);
         PersistentHashTable hashTable = new PersistentHashTable();
         if (hashTable == null) {
             hashTable = new PersistentHashTable();
         }
-        List<SiteRecord> allSiteRecords = new ArrayList<>();
-
         List<String> urls = loadUrlsFromFile("/Users/Danmas/Desktop/Wiki.txt");
 
-        for (String url : urls) {
-            HashMap<String, Integer> wordFrequency = analyzeWebsite(url);
-            SiteRecord siteRecord = new SiteRecord(url, wordFrequency);
-            allSiteRecords.add(siteRecord);
-            loader.addSiteRecord(siteRecord, hashTable);
+        CrawlPipeline.Report report = pipeline.run(urls, loader, hashTable);
+        System.out.println(report);
+        for (Map.Entry<String, String> failure : report.getFailures().entrySet()) {
+            System.err.println("Failed: " + failure.getKey() + " (" + failure.getValue() + ")");
         }
 
         // Flush any remaining records to disk
@@ -66,7 +179,192 @@ public class Loader implements Serializable{
 
         // Save PersistentHashTable to disk
         hashTable.saveToFile("persistent_hashtable.dat");
+        documentFrequency.serialize("document_frequency.dat");
+        loader.buildIdfTable(hashTable.size(), IdfTable.DEFAULT_MIN_DF, IdfTable.DEFAULT_MAX_DF, IdfTable.DEFAULT_MAX_TERMS).save(IdfTable.FILE);
+
+    }
+
+    //Crawl the given urls into new blocks after the existing ones; costs O(new pages) apart from compaction
+    public static void appendUrls(String urlFile, BlockCodec.Compression compression) throws Exception {
+        appendUrls(urlFile, compression, new CrawlPipeline());
+    }
+
+    //with the given pipeline's concurrency and politeness instead of the defaults
+    public static void appendUrls(String urlFile, BlockCodec.Compression compression, CrawlPipeline pipeline) throws Exception {
+        String tableFile = "persistent_hashtable.dat";
+        PersistentHashTable hashTable = new File(tableFile).exists() ? PersistentHashTable.loadFromFile(tableFile) : new PersistentHashTable();
+        if (hashTable == null) {
+            return;
+        }
+        if (new File("document_frequency.dat").exists()) {
+            documentFrequency = ConcurrentCHT.deserialize("document_frequency.dat");
+        }
+        hashTable.openLog(tableFile);
+        Loader loader = new Loader(202, compression, hashTable);
+        //re-crawled pages leave dead records behind in older blocks, which are compacted next to the crawl
+        loader.setAutoCompaction(DEFAULT_DEAD_RATIO);
+
+        CrawlPipeline.Report report = pipeline.run(loadUrlsFromFile(urlFile), loader, hashTable);
+        System.out.println(report);
+        for (Map.Entry<String, String> failure : report.getFailures().entrySet()) {
+            System.err.println("Failed: " + failure.getKey() + " (" + failure.getValue() + ")");
+        }
+        loader.close();
+        System.out.println("Compacted " + loader.getCompactedBlocks() + " blocks");
+
+        //the snapshot covers everything logged so far, so the log starts over
+        hashTable.saveToFile(tableFile);
+        hashTable.closeLog();
+        documentFrequency.serialize("document_frequency.dat");
+        //the vocabulary shifts with the corpus, so the table is rebuilt with it
+        loader.buildIdfTable(hashTable.size(), IdfTable.DEFAULT_MIN_DF, IdfTable.DEFAULT_MAX_DF, IdfTable.DEFAULT_MAX_TERMS).save(IdfTable.FILE);
+    }
+
+    //Move the live records of every block in which at least deadRatio of the records were replaced, then
+    //delete it. Only for appending loaders. The records go through the block buffer after new pages, so the
+    //survivors of several blocks fill whole blocks. Each block is moved while holding this loader, so ingest
+    //can go on between blocks, and it is only deleted once the write that puts its last records on disk
+    //has been logged. Returns the number of blocks moved.
+    public int compact(double deadRatio) throws IOException {
+        if (store == null) {
+            throw new IllegalStateException("Compaction needs a loader that appends to a table");
+        }
+        int compacted = 0;
+        //one pass over the index finds the live records of every victim
+        Map<Integer, List<String>> victims = store.urlsInBlocks(store.blocksToCompact(deadRatio));
+        for (Map.Entry<Integer, List<String>> victim : victims.entrySet()) {
+            synchronized (this) {
+                //already moved by an earlier pass, waiting for its records to be written
+                if (compactedBlocks.contains(victim.getKey())) {
+                    continue;
+                }
+                //checked again under the lock, so a page re-crawled meanwhile is not moved back
+                List<String> urls = new ArrayList<>();
+                for (String url : victim.getValue()) {
+                    if (store.blockOf(url) == victim.getKey()) {
+                        urls.add(url);
+                    }
+                }
+                for (SiteRecord record : store.getRecords(urls).values()) {
+                    record.index(dictionary);
+                    storeRecord(record, store);
+                }
+                //only now, since a write halfway through the records must not drop the block
+                compactedBlocks.add(victim.getKey());
+                if (blockBuffer.isEmpty()) {
+                    //everything appended so far is on disk
+                    dropCompactedBlocks();
+                }
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    public synchronized Future<Integer> compactInBackground(double deadRatio) {
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "block-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compaction = compactor.submit(() -> {
+            try {
+                return compact(deadRatio);
+            } catch (IOException | RuntimeException e) {
+                //a run started by a written block has nobody waiting on its future
+                e.printStackTrace();
+                throw e;
+            }
+        });
+        return compaction;
+    }
+
+    //Compact in the background whenever a written block leaves other blocks with at least deadRatio of
+    //their records replaced, so an appending ingest never stops for compaction; 0 turns it off
+    public synchronized void setAutoCompaction(double deadRatio) {
+        this.autoCompactRatio = deadRatio;
+    }
+
+    //Blocks deleted by compaction so far
+    public synchronized int getCompactedBlocks() {
+        return droppedBlocks;
+    }
+
+    private void dropCompactedBlocks() throws IOException {
+        for (Iterator<Integer> blocks = compactedBlocks.iterator(); blocks.hasNext(); ) {
+            int block = blocks.next();
+            store.dropBlock(block);
+            Files.deleteIfExists(Paths.get("block_" + block + ".dat"));
+            blocks.remove();
+            droppedBlocks++;
+        }
+    }
+
+    //Start a compaction unless one is running or every block past the ratio was already moved
+    private boolean startAutoCompaction() {
+        if (autoCompactRatio <= 0 || closing || (compaction != null && !compaction.isDone())) {
+            return false;
+        }
+        List<Integer> blocks = store.blocksToCompact(autoCompactRatio);
+        blocks.removeAll(compactedBlocks);
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        compactInBackground(autoCompactRatio);
+        return true;
+    }
+
+    //Wait for compaction to catch up, write out what it moved and the log of an appending loader
+    public void close() throws IOException {
+        flushChecked();
+        Future<Integer> running;
+        synchronized (this) {
+            //also when no block was written since the store was opened
+            startAutoCompaction();
+            running = compaction;
+        }
+        while (running != null) {
+            try {
+                running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for compaction", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            synchronized (this) {
+                //blocks that passed the ratio after the finished run took its list of victims
+                running = startAutoCompaction() ? compaction : null;
+            }
+        }
+        synchronized (this) {
+            closing = true;
+            if (compactor != null) {
+                compactor.shutdown();
+                compactor = null;
+            }
+        }
+        //the records compaction moved last, after which their old blocks go
+        flushChecked();
+        if (store != null) {
+            store.commitLog();
+        }
+    }
 
+    private void flushChecked() throws IOException {
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     //Read URLs from text file and returns them in list
@@ -76,28 +374,65 @@ public class Loader implements Serializable{
         }}
 
     public static HashMap<String, Integer> analyzeWebsite(String url) throws Exception {
-        Document document = Jsoup.connect(url).get();
+        HashMap<String, Integer> wordFrequency = analyzeDocument(Jsoup.connect(url).get());
 
-        Elements pTags = document.select("p");
+        // Store word frequency in a persistent data structure
+        wordFrequencyTable.put(url, wordFrequency);
+        return wordFrequency;
+    }
+
+    //Count the words in the <p> tags of an already fetched page; touches no shared state
+    public static HashMap<String, Integer> analyzeDocument(Document document) {
+        return countWords(document).toHashMap();
+    }
+
+    //Same as analyzeDocument but leaves the counts in the primitive map the tokenizer filled
+    public static StringIntMap countWords(Document document) {
+        return countWords(document, threadTokenizer());
+    }
 
-        // Update the frequency table for the selected website
-        Map<String, Integer> wordFrequency = new HashMap<>();
+    //With a tokenizer the caller keeps for many pages, e.g. one per crawl worker
+    public static StringIntMap countWords(Document document, Tokenizer tokenizer) {
+        Elements pTags = document.select("p");
 
+        // Count the words of every paragraph in one pass over its text
+        tokenizer.reset();
         for (Element pTag : pTags) {
-            String text = pTag.text().toLowerCase();
-            // Add spaces between words
-            String[] words = text.split("\\s+");
+            tokenizer.tokenize(pTag.text());
+        }
+        return tokenizer.takeCounts();
+    }
 
-            for (String word : words) {
-                if (!stopWords.contains(word) && word.matches("^[a-zA-Z]*$")) {
-                    wordFrequency.put(word, wordFrequency.getOrDefault(word, 0) + 1);
-                }
-            }
+    //Vocabulary and IDF of the ingested pages, from the document frequencies counted while ingesting them
+    public IdfTable buildIdfTable(int documents, int minDf, double maxDf, int maxTerms) {
+        return IdfTable.fromDocumentFrequencies(documentFrequency, dictionary, documents, minDf, maxDf, maxTerms);
+    }
+
+    //Count one page towards the document frequency of each distinct word it contains
+    public static void addDocumentFrequencies(StringIntMap wordCounts) {
+        StringIntMap.Cursor cursor = wordCounts.cursor();
+        while (cursor.next()) {
+            documentFrequency.merge(cursor.key(), 1, Integer::sum);
         }
+    }
 
-        // Store word frequency in a persistent data structure
-        wordFrequencyTable.put(url, wordFrequency);
-        return (HashMap<String, Integer>) wordFrequency;
+    //Undo addDocumentFrequencies for a page that is being replaced
+    public static void removeDocumentFrequencies(SiteRecord record) {
+        for (String word : record.getWordFrequency().keySet()) {
+            //a word missing from the counts, e.g. from a store ingested before they were kept, stays missing
+            documentFrequency.computeIfPresent(word, (w, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    //Tokenizer that skips this loader's stop words
+    public static Tokenizer newTokenizer() {
+        return new Tokenizer(stopWords);
+    }
+
+    //The calling thread's tokenizer, so the stop word table and buffer are built once per thread
+    //instead of once per page; every use starts with a reset
+    static Tokenizer threadTokenizer() {
+        return tokenizers.get();
     }
     private static Set<String> createStopWordsSet() {
         Set<String> stopWords = new HashSet<>();
@@ -131,19 +466,36 @@ public class Loader implements Serializable{
         return stopWords;
     }
 
+    //Throws UncheckedIOException when the block cannot be written: the table already points at its records,
+    //so the ingest must stop rather than go on indexing pages into a block that is not on disk
     private void writeBlockToFile() {
-        try (ObjectOutputStream out = new ObjectOutputStream(
-                new FileOutputStream("block_" + blockIndex + ".dat"))) {
-            out.writeObject(blockBuffer);
+        try {
+            byte[] block = BlockCodec.encode(blockBuffer, dictionary, compression);
+            //new terms reach the dictionary file before any block refers to them
+            dictionary.appendTo(TermDictionary.FILE);
+            try (FileOutputStream out = new FileOutputStream("block_" + blockIndex + ".dat")) {
+                out.write(block);
+                if (store != null) {
+                    //the log must never point at a block that could still be lost
+                    out.getFD().sync();
+                }
+            }
+            if (store != null) {
+                store.commitLog();
+            }
             blockIndex++;
             blockBuffer.clear();
+            if (store != null) {
+                dropCompactedBlocks();
+                startAutoCompaction();
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Could not write block " + blockIndex, e);
         }
     }
 
-    //Flush any remaining SiteRecords to disk
-    public void flush() {
+    //Flush any remaining SiteRecords to disk; throws UncheckedIOException if the block cannot be written
+    public synchronized void flush() {
         if (!blockBuffer.isEmpty()) {
             writeBlockToFile();
             blockBuffer.clear();  // Clear the blockBuffer after writing it to file
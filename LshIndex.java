@@ -0,0 +1,97 @@
+import java.util.*;
+
+//Locality-sensitive hashing over MinHash signatures. The first bands * rows positions are split into
+//bands of rows values, and items sharing all rows of any band become candidates. Two sets of Jaccard
+//similarity s collide with probability 1 - (1 - s^rows)^bands: more bands raise recall, more rows
+//raise precision and cut the candidates, which is the trade-off the two parameters tune.
+public class LshIndex {
+
+    private final int bands;
+    private final int rows;
+    //bucket key (band mixed with its rows) -> item count followed by the ids of the items in the bucket
+    private final Map<Long, int[]> buckets = new HashMap<>();
+
+    public LshIndex(int bands, int rows) {
+        if (bands < 1 || rows < 1) {
+            throw new IllegalArgumentException("bands and rows must be at least 1");
+        }
+        this.bands = bands;
+        this.rows = rows;
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    //Chance that two sets of the given Jaccard similarity become candidates
+    public double collisionProbability(double jaccard) {
+        return 1 - Math.pow(1 - Math.pow(jaccard, rows), bands);
+    }
+
+    public void add(int id, int[] signature) {
+        checkLength(signature);
+        for (int band = 0; band < bands; band++) {
+            long key = bucketKey(signature, band);
+            int[] bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new int[4];
+                buckets.put(key, bucket);
+            } else if (bucket[0] + 1 == bucket.length) {
+                bucket = Arrays.copyOf(bucket, bucket.length * 2);
+                buckets.put(key, bucket);
+            }
+            bucket[++bucket[0]] = id;
+        }
+    }
+
+    //Ids of the items sharing at least one band with the signature, in ascending order
+    public int[] candidates(int[] signature) {
+        checkLength(signature);
+        BitSet found = new BitSet();
+        for (int band = 0; band < bands; band++) {
+            int[] bucket = buckets.get(bucketKey(signature, band));
+            if (bucket == null) {
+                continue;
+            }
+            for (int i = 1; i <= bucket[0]; i++) {
+                found.set(bucket[i]);
+            }
+        }
+        return found.stream().toArray();
+    }
+
+    //Call visitor once for every pair of items sharing a bucket; a pair in several buckets is visited for each
+    public void forEachCollision(PairVisitor visitor) {
+        for (int[] bucket : buckets.values()) {
+            for (int i = 1; i <= bucket[0]; i++) {
+                for (int j = i + 1; j <= bucket[0]; j++) {
+                    visitor.visit(bucket[i], bucket[j]);
+                }
+            }
+        }
+    }
+
+    public interface PairVisitor {
+        void visit(int id1, int id2);
+    }
+
+    private void checkLength(int[] signature) {
+        if (signature.length < bands * rows) {
+            throw new IllegalArgumentException("Signature of " + signature.length + " values is too short for "
+                    + bands + " bands of " + rows + " rows");
+        }
+    }
+
+    private long bucketKey(int[] signature, int band) {
+        long h = band * 0x9E3779B97F4A7C15L;
+        for (int r = band * rows; r < (band + 1) * rows; r++) {
+            h = (h ^ signature[r]) * 0xff51afd7ed558ccdL;
+            h ^= h >>> 32;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+//Small LZ77 block compressor in the style of LZ4: a single hash probe per position, no entropy coding,
+//so it trades ratio for speed. A sequence is a token (literal length in the high nibble, match
+//length - 4 in the low nibble, 15 meaning "more length bytes follow"), the literals, a 2-byte
+//little-endian offset and any extra match length bytes. The last sequence carries only literals.
+public class LzCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 14;
+    private static final int MAX_OFFSET = 65535;
+    //the tail is always emitted as literals so the match finder never reads past the end
+    private static final int LAST_LITERALS = 5;
+
+    public static byte[] compress(byte[] input) {
+        //worst case is all literals plus one length byte per 255 of them
+        byte[] out = new byte[input.length + input.length / 255 + 16];
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int op = 0;
+        int anchor = 0;
+        int ip = 0;
+        int limit = input.length - LAST_LITERALS - MIN_MATCH;
+        while (ip < limit) {
+            int sequence = readInt(input, ip);
+            int h = hash(sequence);
+            int candidate = table[h];
+            table[h] = ip;
+            if (candidate < 0 || ip - candidate > MAX_OFFSET || readInt(input, candidate) != sequence) {
+                ip++;
+                continue;
+            }
+            //extend the match as far as it goes, stopping before the literal tail
+            int matchLength = MIN_MATCH;
+            int maxLength = input.length - LAST_LITERALS - ip;
+            while (matchLength < maxLength && input[candidate + matchLength] == input[ip + matchLength]) {
+                matchLength++;
+            }
+            op = writeSequence(out, op, input, anchor, ip - anchor, ip - candidate, matchLength);
+            ip += matchLength;
+            anchor = ip;
+        }
+        op = writeLiterals(out, op, input, anchor, input.length - anchor);
+        return Arrays.copyOf(out, op);
+    }
+
+    public static byte[] decompress(byte[] input, int originalLength) throws IOException {
+        byte[] out = new byte[originalLength];
+        int ip = 0;
+        int op = 0;
+        try {
+            while (ip < input.length) {
+                int token = input[ip++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = input[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(input, ip, out, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip >= input.length) {
+                    break;
+                }
+                int offset = (input[ip] & 0xFF) | (input[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = input[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int from = op - offset;
+                if (offset == 0 || from < 0) {
+                    throw new IOException("Invalid match offset " + offset);
+                }
+                //byte by byte, since a match may overlap the bytes it is producing
+                for (int i = 0; i < matchLength; i++) {
+                    out[op++] = out[from + i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated or corrupt LZ data", e);
+        }
+        if (op != originalLength) {
+            throw new IOException("LZ data decoded to " + op + " bytes, expected " + originalLength);
+        }
+        return out;
+    }
+
+    private static int writeSequence(byte[] out, int op, byte[] input, int literalStart, int literalLength, int offset, int matchLength) {
+        int extraMatch = matchLength - MIN_MATCH;
+        int tokenPos = op++;
+        out[tokenPos] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(extraMatch, 15));
+        op = writeLength(out, op, literalLength);
+        System.arraycopy(input, literalStart, out, op, literalLength);
+        op += literalLength;
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        return writeLength(out, op, extraMatch);
+    }
+
+    private static int writeLiterals(byte[] out, int op, byte[] input, int literalStart, int literalLength) {
+        out[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        op = writeLength(out, op, literalLength);
+        System.arraycopy(input, literalStart, out, op, literalLength);
+        return op + literalLength;
+    }
+
+    //lengths of 15 and above continue in bytes of 255 until a smaller byte ends them
+    private static int writeLength(byte[] out, int op, int length) {
+        if (length >= 15) {
+            int remaining = length - 15;
+            while (remaining >= 255) {
+                out[op++] = (byte) 255;
+                remaining -= 255;
+            }
+            out[op++] = (byte) remaining;
+        }
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
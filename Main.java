@@ -1,3 +1,7 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 public class Main {
@@ -6,16 +10,103 @@ public static void main(String[] args) throws Exception {
 
         //KMeansClustering
         PersistentHashTable hashTable = PersistentHashTable.loadFromFile("persistent_hashtable.dat");
-                KMeansClustering kMeans = new KMeansClustering(5, hashTable);
-                kMeans.run();
+                //optional args: worker threads, random seed; --warm starts from the saved model instead,
+                //--minibatch clusters batches sampled from the blocks without loading the corpus,
+                //--cosine clusters L2-normalised TF-IDF vectors by cosine, skipping the similarities Hamerly's bounds rule out,
+                //--restarts R runs R clusterings from seeds seed..seed+R-1 side by side and keeps the tightest,
+                //--hashing D assigns records by min-sums over D feature-hashed buckets (SIMD with --add-modules jdk.incubator.vector)
+                List<String> params = new ArrayList<>(Arrays.asList(args));
+                boolean warm = params.remove("--warm") && new File(ClusterModel.FILE).exists();
+                boolean miniBatch = params.remove("--minibatch");
+                boolean cosine = params.remove("--cosine");
+                int restarts = 1;
+                int restartsAt = params.indexOf("--restarts");
+                if (restartsAt >= 0) {
+                        restarts = Integer.parseInt(params.remove(restartsAt + 1));
+                        params.remove(restartsAt);
+                }
+                int hashing = 0;
+                int hashingAt = params.indexOf("--hashing");
+                if (hashingAt >= 0) {
+                        hashing = Integer.parseInt(params.remove(hashingAt + 1));
+                        params.remove(hashingAt);
+                }
+                int threads = params.size() > 0 ? Integer.parseInt(params.get(0)) : Runtime.getRuntime().availableProcessors();
+                long seed = params.size() > 1 ? Long.parseLong(params.get(1)) : System.nanoTime();
+                if (miniBatch) {
+                        clusterMiniBatch(hashTable, seed);
+                        return;
+                }
+                if (cosine) {
+                        clusterCosine(hashTable, threads, seed);
+                        return;
+                }
+                KMeansClustering kMeans;
+                if (restarts > 1 && !warm) {
+                        KMeansRestarts runs = KMeansRestarts.fromStore(hashTable, 5);
+                        runs.setFeatureHashing(hashing);
+                        kMeans = runs.run(restarts, seed, threads);
+                        runs.getRestarts().forEach(System.out::println);
+                        kMeans.printClusters();
+                } else {
+                        kMeans = warm
+                                ? new KMeansClustering(ClusterModel.load(ClusterModel.FILE), hashTable, threads)
+                                : new KMeansClustering(5, hashTable, threads, seed);
+                        kMeans.setFeatureHashing(hashing, 1);
+                        //one line of timings and convergence metrics per iteration
+                        kMeans.addListener(System.out::println);
+                        kMeans.run();
+                }
+                System.out.println((kMeans.isConverged() ? "Converged after " : "Stopped after ") + kMeans.getIterations() + " iterations");
+
+                //keep the centroids so Classify can label new pages without clustering again
+                kMeans.saveModel(ClusterModel.FILE);
 
                 // Print most similar websites in each cluster
-                Map<SiteRecord, SiteRecord> mostSimilarSites = kMeans.getMostSimilarSitesInClusters();
-        for (SiteRecord centroid : mostSimilarSites.keySet()) {
+                Map<Centroid, SiteRecord> mostSimilarSites = kMeans.getMostSimilarSitesInClusters();
+        for (Centroid centroid : mostSimilarSites.keySet()) {
         System.out.println("Initial Centroid: " + centroid.getUrl());
         System.out.println("Most Similar Site: " + mostSimilarSites.get(centroid).getUrl());
         }
 
         kMeans.plotClusters();
         }
+
+    //Cosine run: print the size and heaviest terms of every cluster
+    private static void clusterCosine(PersistentHashTable hashTable, int threads, long seed) {
+        CosineKMeans kMeans = new CosineKMeans(5, hashTable, threads, seed);
+        kMeans.addListener(System.out::println);
+        kMeans.cluster();
+        long evaluations = kMeans.getEvaluations();
+        long skipped = kMeans.getSkippedEvaluations();
+        System.out.printf("%s %d iterations, %.1f%% of the similarities skipped%n", kMeans.isConverged() ? "Converged after" : "Stopped after",
+                kMeans.getIterations(), 100.0 * skipped / (evaluations + skipped));
+        List<List<SiteRecord>> clusters = kMeans.getClusters();
+        for (int c = 0; c < clusters.size(); c++) {
+            System.out.println("Cluster " + c + ": " + clusters.get(c).size() + " pages, " + kMeans.topTerms(c, 10));
+        }
+    }
+
+    //Out-of-core run: fit on sampled batches, save the model, then count the cluster sizes in one scan
+    private static void clusterMiniBatch(PersistentHashTable hashTable, long seed) throws Exception {
+        MiniBatchKMeans kMeans = new MiniBatchKMeans(5, MiniBatchKMeans.DEFAULT_BATCH_SIZE, seed);
+        kMeans.addListener(System.out::println);
+        int batches = kMeans.fit(hashTable, MiniBatchKMeans.DEFAULT_MAX_BATCHES);
+        System.out.println((kMeans.isConverged() ? "Converged after " : "Stopped after ") + batches + " batches");
+        kMeans.toModel().save(ClusterModel.FILE);
+
+        List<Centroid> centroids = kMeans.getCentroids();
+        int[] sizes = new int[centroids.size()];
+        TermDictionary dictionary = hashTable.getDictionary();
+        IdfTable vocabulary = hashTable.getIdfTable();
+        try (BlockScanner scanner = hashTable.scan()) {
+            scanner.forEachRemaining(record -> {
+                record.index(dictionary);
+                sizes[kMeans.assign(vocabulary == null ? record : vocabulary.prune(record))]++;
+            });
+        }
+        for (int c = 0; c < centroids.size(); c++) {
+            System.out.println("Cluster " + c + " (" + centroids.get(c).getUrl() + "): " + sizes[c] + " pages");
+        }
+    }
 }
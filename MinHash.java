@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.Random;
+
+//MinHash signatures of a record's set of words. The share of equal positions in two signatures estimates
+//the Jaccard similarity of the word sets. Terms are hashed by their text, not their id, so signatures
+//stay comparable across dictionaries and ingests.
+//Only the low BITS bits of every minimum are kept (b-bit MinHash), so a stored signature costs 2 bytes
+//per value. Two different minima then agree by chance once in 2^BITS, which raises the estimate by less
+//than that.
+public class MinHash {
+
+    //signature length used at ingest and stored in the blocks; enough for e.g. 32 bands of 4 rows
+    public static final int DEFAULT_LENGTH = 128;
+    public static final int BITS = 16;
+    private static final int VALUE_MASK = (1 << BITS) - 1;
+    public static final MinHash DEFAULT = new MinHash(DEFAULT_LENGTH, 0x5DEECE66DL);
+
+    //one universal hash function (a * h + b) per position, with odd 64-bit multipliers
+    private final long[] a;
+    private final long[] b;
+
+    public MinHash(int length, long seed) {
+        Random random = new Random(seed);
+        a = new long[length];
+        b = new long[length];
+        for (int i = 0; i < length; i++) {
+            a[i] = random.nextLong() | 1;
+            b[i] = random.nextLong();
+        }
+    }
+
+    public int length() {
+        return a.length;
+    }
+
+    //The record's stored signature, computed and kept on the record if it has none yet
+    public int[] signatureOf(SiteRecord record) {
+        int[] signature = record.getMinHash();
+        if (signature == null || signature.length != a.length) {
+            signature = signature(record);
+            record.setMinHash(signature);
+        }
+        return signature;
+    }
+
+    public int[] signature(SiteRecord record) {
+        int[] signature = emptySignature();
+        if (record.isIndexed()) {
+            TermDictionary dictionary = record.getDictionary();
+            for (int termId : record.getTermIds()) {
+                update(signature, dictionary.term(termId));
+            }
+        } else {
+            for (String word : record.getWordFrequency().keySet()) {
+                update(signature, word);
+            }
+        }
+        return truncate(signature);
+    }
+
+    public int[] signature(Centroid centroid) {
+        int[] signature = emptySignature();
+        TermDictionary dictionary = centroid.getDictionary();
+        for (int termId : centroid.getTermIds()) {
+            update(signature, dictionary.term(termId));
+        }
+        return truncate(signature);
+    }
+
+    //The low bits of a full minimum; the high bits of small minima are mostly zero and would match
+    //between any two sets
+    public static int truncate(int value) {
+        return value & VALUE_MASK;
+    }
+
+    private static int[] truncate(int[] signature) {
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = truncate(signature[i]);
+        }
+        return signature;
+    }
+
+    private int[] emptySignature() {
+        int[] signature = new int[a.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        return signature;
+    }
+
+    private void update(int[] signature, String term) {
+        long h = hash(term);
+        for (int i = 0; i < signature.length; i++) {
+            //the high bits of a multiply-add are the well mixed ones
+            int value = (int) ((a[i] * h + b[i]) >>> 33);
+            if (value < signature[i]) {
+                signature[i] = value;
+            }
+        }
+    }
+
+    //Share of equal positions, an estimate of the Jaccard similarity of the two word sets
+    public static double estimateJaccard(int[] signature1, int[] signature2) {
+        int equal = 0;
+        int length = Math.min(signature1.length, signature2.length);
+        for (int i = 0; i < length; i++) {
+            if (signature1[i] == signature2[i]) {
+                equal++;
+            }
+        }
+        return length == 0 ? 0 : (double) equal / length;
+    }
+
+    //Exact Jaccard similarity of the word sets of two records indexed against the same dictionary; a record
+    //with no words is similar to nothing, not even another empty one
+    public static double jaccard(SiteRecord record1, SiteRecord record2) {
+        int[] ids1 = record1.getTermIds();
+        int[] ids2 = record2.getTermIds();
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ids1.length && j < ids2.length) {
+            if (ids1[i] < ids2[j]) {
+                i++;
+            } else if (ids1[i] > ids2[j]) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+        int union = ids1.length + ids2.length - common;
+        return union == 0 ? 0 : (double) common / union;
+    }
+
+    //64-bit FNV-1a over the chars, finished with a murmur-style mix
+    private static long hash(String term) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            h ^= term.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,288 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+//K-means over small batches instead of the whole corpus, for corpora that do not fit in the heap.
+//Every batch is assigned to the nearest centroids, then each centroid moves towards the mean of its
+//batch members by its own learning rate, members in the batch / members seen so far, so centroids
+//settle as they absorb more records. Memory is one batch plus the centroids, which are kept to their
+//heaviest maxCentroidTerms terms.
+//fit() samples batches from the block store; as a Consumer it clusters records as they arrive, e.g.
+//from a Loader, taking its first k records as the starting centroids.
+public class MiniBatchKMeans implements Consumer<SiteRecord> {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_MAX_CENTROID_TERMS = 1000;
+    public static final int DEFAULT_MAX_BATCHES = 100;
+    //a batch draws from at least this many blocks, so one crawl neighbourhood cannot fill it
+    private static final int BLOCKS_PER_BATCH = 8;
+    //batches without a better smoothed similarity before fit() stops
+    private static final int PATIENCE = 10;
+
+    private final int k;
+    private final int batchSize;
+    private final Random random;
+    private int maxCentroidTerms = DEFAULT_MAX_CENTROID_TERMS;
+    private double centroidMass = 1;
+
+    private List<Centroid> centroids = new ArrayList<>();
+    //records absorbed by every centroid, the denominator of its learning rate
+    private long[] counts;
+    private int batches;
+
+    //records received by accept() that do not make up a batch yet
+    private final List<SiteRecord> pending = new ArrayList<>();
+
+    //mean similarity of a batch to its centroids, smoothed over batches, and when it last improved
+    private double smoothedSimilarity = Double.NaN;
+    private double bestSimilarity = Double.NEGATIVE_INFINITY;
+    private int sinceImprovement;
+
+    private final List<ClusteringListener> listeners = new ArrayList<>();
+
+    public MiniBatchKMeans(int k, int batchSize, long seed) {
+        if (k < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("k and batchSize must be at least 1");
+        }
+        this.k = k;
+        this.batchSize = batchSize;
+        this.random = new Random(seed);
+    }
+
+    //Keep only the heaviest maxTerms terms of every updated centroid (0 keeps all, which lets centroids grow with the corpus)
+    public void setMaxCentroidTerms(int maxTerms) {
+        this.maxCentroidTerms = maxTerms;
+    }
+
+    public void setCentroidMass(double massFraction) {
+        if (massFraction <= 0 || massFraction > 1) {
+            throw new IllegalArgumentException("massFraction must be in (0, 1]");
+        }
+        this.centroidMass = massFraction;
+    }
+
+    //Receives one IterationStats per batch
+    public void addListener(ClusteringListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ClusteringListener listener) {
+        listeners.remove(listener);
+    }
+
+    //Sample batches from the store until the smoothed similarity stops improving or maxBatches ran;
+    //returns the number of batches
+    public int fit(PersistentHashTable table, int maxBatches) {
+        long start = System.nanoTime();
+        List<Integer> blocks = table.liveBlocks();
+        if (blocks.isEmpty()) {
+            throw new IllegalArgumentException("The store holds no records");
+        }
+        int run = 0;
+        while (run < maxBatches && !isConverged()) {
+            update(sample(table, blocks));
+            run++;
+        }
+        for (ClusteringListener listener : listeners) {
+            listener.runFinished(run, isConverged(), System.nanoTime() - start);
+        }
+        return run;
+    }
+
+    //Records from random blocks, at most batchSize / BLOCKS_PER_BATCH from each
+    private List<SiteRecord> sample(PersistentHashTable table, List<Integer> blocks) {
+        TermDictionary dictionary = table.getDictionary();
+        IdfTable vocabulary = table.getIdfTable();
+        int perBlock = Math.max(1, batchSize / BLOCKS_PER_BATCH);
+        List<SiteRecord> batch = new ArrayList<>(batchSize);
+        //blocks whose records were all superseded since the list was taken yield nothing
+        for (int draw = 0; batch.size() < batchSize && draw < 4 * batchSize; draw++) {
+            List<SiteRecord> live = table.liveRecordsIn(blocks.get(random.nextInt(blocks.size())));
+            Collections.shuffle(live, random);
+            for (SiteRecord record : live.subList(0, Math.min(live.size(), Math.min(perBlock, batchSize - batch.size())))) {
+                record.index(dictionary);
+                batch.add(vocabulary == null ? record : vocabulary.prune(record));
+            }
+        }
+        return batch;
+    }
+
+    //Streaming input: records are clustered batchSize at a time; they must be indexed
+    @Override
+    public synchronized void accept(SiteRecord record) {
+        if (!record.isIndexed()) {
+            throw new IllegalArgumentException(record.getUrl() + " is not indexed");
+        }
+        pending.add(record);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    //Cluster the records accept() has not used yet
+    public synchronized void flush() {
+        if (!pending.isEmpty()) {
+            update(new ArrayList<>(pending));
+            pending.clear();
+        }
+    }
+
+    //One mini-batch step; the first records seen become the starting centroids
+    public synchronized void update(List<SiteRecord> batch) {
+        int used = 0;
+        while (centroids.size() < k && used < batch.size()) {
+            centroids.add(Centroid.of(batch.get(used++)));
+        }
+        if (counts == null && centroids.size() == k) {
+            counts = new long[k];
+            Arrays.fill(counts, 1);
+        }
+        if (counts == null || used == batch.size()) {
+            //still collecting starting centroids
+            return;
+        }
+        List<SiteRecord> members = batch.subList(used, batch.size());
+
+        long assignStart = System.nanoTime();
+        CentroidIndex index = new CentroidIndex(centroids);
+        double[] similarities = new double[k];
+        List<List<SiteRecord>> clusters = new ArrayList<>(k);
+        for (int c = 0; c < k; c++) {
+            clusters.add(new ArrayList<>());
+        }
+        double objective = 0;
+        for (SiteRecord record : members) {
+            index.score(record, similarities);
+            int best = 0;
+            for (int c = 1; c < k; c++) {
+                if (similarities[c] > similarities[best]) {
+                    best = c;
+                }
+            }
+            clusters.get(best).add(record);
+            objective += similarities[best];
+        }
+
+        long updateStart = System.nanoTime();
+        double[] shifts = new double[k];
+        for (int c = 0; c < k; c++) {
+            List<SiteRecord> cluster = clusters.get(c);
+            if (cluster.isEmpty()) {
+                continue;
+            }
+            counts[c] += cluster.size();
+            double rate = (double) cluster.size() / counts[c];
+            Centroid previous = centroids.get(c);
+            Centroid moved = move(previous, cluster, rate).truncate(maxCentroidTerms, centroidMass);
+            centroids.set(c, moved);
+            shifts[c] = 1 - moved.similarity(previous);
+        }
+        long updateEnd = System.nanoTime();
+
+        batches++;
+        double meanSimilarity = objective / members.size();
+        smoothedSimilarity = Double.isNaN(smoothedSimilarity) ? meanSimilarity : 0.9 * smoothedSimilarity + 0.1 * meanSimilarity;
+        if (smoothedSimilarity > bestSimilarity) {
+            bestSimilarity = smoothedSimilarity;
+            sinceImprovement = 0;
+        } else {
+            sinceImprovement++;
+        }
+        int[] sizes = new int[k];
+        for (int c = 0; c < k; c++) {
+            sizes[c] = (int) Math.min(Integer.MAX_VALUE, counts[c]);
+        }
+        //every record of a batch is assigned afresh, and sizes are the records each centroid absorbed so far
+        IterationStats stats = new IterationStats(batches, updateStart - assignStart, updateEnd - updateStart,
+                (long) members.size() * k, members.size(), shifts, sizes, objective, isConverged());
+        for (ClusteringListener listener : listeners) {
+            listener.iterationFinished(stats);
+        }
+    }
+
+    //(1 - rate) * centroid + rate * mean of the members, merged over sorted term ids
+    private static Centroid move(Centroid centroid, List<SiteRecord> members, double rate) {
+        int terms = 0;
+        for (SiteRecord member : members) {
+            terms += member.getTermIds().length;
+        }
+        long[] packed = new long[terms];
+        int n = 0;
+        for (SiteRecord member : members) {
+            int[] ids = member.getTermIds();
+            int[] memberCounts = member.getCounts();
+            for (int i = 0; i < ids.length; i++) {
+                packed[n++] = ((long) ids[i] << 32) | memberCounts[i];
+            }
+        }
+        Arrays.sort(packed);
+
+        int[] ids = centroid.getTermIds();
+        float[] weights = centroid.getWeights();
+        int[] mergedIds = new int[ids.length + terms];
+        float[] mergedWeights = new float[ids.length + terms];
+        double memberRate = rate / members.size();
+        int size = 0;
+        int i = 0;
+        int p = 0;
+        while (i < ids.length || p < packed.length) {
+            int next = p < packed.length ? (int) (packed[p] >>> 32) : Integer.MAX_VALUE;
+            int termId = i < ids.length ? Math.min(ids[i], next) : next;
+            double weight = 0;
+            if (i < ids.length && ids[i] == termId) {
+                weight = (1 - rate) * weights[i++];
+            }
+            long sum = 0;
+            while (p < packed.length && (int) (packed[p] >>> 32) == termId) {
+                sum += (int) packed[p++];
+            }
+            weight += memberRate * sum;
+            mergedIds[size] = termId;
+            mergedWeights[size++] = (float) weight;
+        }
+        return new Centroid(centroid.getUrl(), centroid.getDictionary(),
+                Arrays.copyOf(mergedIds, size), Arrays.copyOf(mergedWeights, size));
+    }
+
+    //Index of the most similar centroid, the lowest on ties
+    public synchronized int assign(SiteRecord record) {
+        int best = 0;
+        double bestSimilarity = -1;
+        for (int c = 0; c < centroids.size(); c++) {
+            double similarity = centroids.get(c).similarity(record);
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    //No batch improved the smoothed similarity for a while
+    public synchronized boolean isConverged() {
+        return sinceImprovement >= PATIENCE;
+    }
+
+    public synchronized int getBatches() {
+        return batches;
+    }
+
+    public synchronized List<Centroid> getCentroids() {
+        return new ArrayList<>(centroids);
+    }
+
+    //heap held by the centroids
+    public synchronized long centroidBytes() {
+        long bytes = 0;
+        for (Centroid centroid : centroids) {
+            bytes += centroid.bytes();
+        }
+        return bytes;
+    }
+
+    public synchronized ClusterModel toModel() {
+        if (centroids.size() < k) {
+            throw new IllegalStateException("Only " + centroids.size() + " of " + k + " centroids have records yet");
+        }
+        return ClusterModel.fromCentroids(centroids);
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.*;
+
+//Groups records whose word sets are nearly the same, e.g. redirect-like stubs and mirrored pages.
+//LSH over the MinHash signatures proposes pairs, and the exact Jaccard similarity confirms them, so
+//bands and rows only trade recall for speed and never produce false groups.
+public class NearDuplicates {
+
+    //Index of the representative of every record: the first record of its group, itself if it has no duplicate.
+    //Records without words are never duplicates; they all share one signature and would form one group.
+    public static int[] find(List<SiteRecord> records, int bands, int rows, double minJaccard) {
+        LshIndex index = new LshIndex(bands, rows);
+        for (int i = 0; i < records.size(); i++) {
+            if (records.get(i).getTermIds().length > 0) {
+                index.add(i, MinHash.DEFAULT.signatureOf(records.get(i)));
+            }
+        }
+
+        int[] parent = new int[records.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        //a pair sharing several bands is only checked once
+        Set<Long> checked = new HashSet<>();
+        index.forEachCollision((i, j) -> {
+            int a = Math.min(i, j);
+            int b = Math.max(i, j);
+            if (find(parent, a) == find(parent, b) || !checked.add(((long) a << 32) | b)) {
+                return;
+            }
+            if (MinHash.jaccard(records.get(a), records.get(b)) >= minJaccard) {
+                union(parent, a, b);
+            }
+        });
+
+        int[] representative = new int[records.size()];
+        for (int i = 0; i < representative.length; i++) {
+            representative[i] = find(parent, i);
+        }
+        return representative;
+    }
+
+    //roots are always the smallest index of their group, so the representative is the first record
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            //path halving
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
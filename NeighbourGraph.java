@@ -0,0 +1,160 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+//Top-k neighbour lists of every url, as written by AllPairsSimilarity. Every url owns a fixed slot of k
+//(record index, similarity) entries, best first and padded with index -1, so a lookup is one hash probe
+//and one read at a computed offset. The file is memory-mapped, which keeps only the url table on the heap.
+//File layout: "KMNN", version, record count, k, the slots, then the urls (varint-length UTF-8) in record order.
+//Query as: NeighbourGraph [--graph neighbours.dat] <url>...
+public class NeighbourGraph {
+
+    public static final String FILE = "neighbours.dat";
+
+    private static final byte[] MAGIC = {'K', 'M', 'N', 'N'};
+    private static final int VERSION = 1;
+    private static final int HEADER = MAGIC.length + 1 + 4 + 4;
+    private static final int ENTRY = 8;
+
+    private final String[] urls;
+    private final int k;
+    //slots of the file layout, from HEADER on
+    private final ByteBuffer slots;
+    private final Map<String, Integer> recordOf;
+
+    private NeighbourGraph(String[] urls, int k, ByteBuffer slots) {
+        this.urls = urls;
+        this.k = k;
+        this.slots = slots;
+        this.recordOf = new HashMap<>(urls.length * 2);
+        for (int r = 0; r < urls.length; r++) {
+            recordOf.put(urls[r], r);
+        }
+    }
+
+    //Graph of freshly computed lists; neighbours and similarities hold k entries per record, sizes[r] of them used
+    static NeighbourGraph of(String[] urls, int k, int[] neighbours, double[] similarities, int[] sizes) {
+        ByteBuffer slots = ByteBuffer.allocate(slotBytes(urls.length, k));
+        for (int r = 0; r < urls.length; r++) {
+            for (int i = 0; i < k; i++) {
+                boolean used = i < sizes[r];
+                slots.putInt(used ? neighbours[r * k + i] : -1);
+                slots.putFloat(used ? (float) similarities[r * k + i] : 0);
+            }
+        }
+        slots.flip();
+        return new NeighbourGraph(urls, k, slots);
+    }
+
+    public int size() {
+        return urls.length;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    //Neighbour urls of a url with their similarity, most similar first; empty for an unknown url
+    public Map<String, Double> neighbours(String url) {
+        Integer record = recordOf.get(url);
+        Map<String, Double> neighbours = new LinkedHashMap<>();
+        if (record == null) {
+            return neighbours;
+        }
+        int offset = record * k * ENTRY;
+        for (int i = 0; i < k; i++) {
+            int neighbour = slots.getInt(offset + i * ENTRY);
+            if (neighbour < 0) {
+                break;
+            }
+            neighbours.put(urls[neighbour], (double) slots.getFloat(offset + i * ENTRY + 4));
+        }
+        return neighbours;
+    }
+
+    public void save(String fileName) throws IOException {
+        File tmp = new File(fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(urls.length);
+            out.writeInt(k);
+            ByteBuffer data = slots.duplicate();
+            byte[] chunk = new byte[64 * 1024];
+            while (data.hasRemaining()) {
+                int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+            for (String url : urls) {
+                byte[] utf8 = url.getBytes(StandardCharsets.UTF_8);
+                BlockCodec.writeVarInt(out, utf8.length);
+                out.write(utf8);
+            }
+        }
+        Files.move(tmp.toPath(), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static NeighbourGraph load(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            //a mapping stays valid after its channel is closed
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            if (file.remaining() < HEADER) {
+                throw new IOException(fileName + " is not a neighbour graph");
+            }
+            file.get(magic);
+            int version = file.get();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException(fileName + " is not a version " + VERSION + " neighbour graph");
+            }
+            int records = file.getInt();
+            int k = file.getInt();
+            int slotBytes = slotBytes(records, k);
+            ByteBuffer slots = file.slice(HEADER, slotBytes);
+            file.position(HEADER + slotBytes);
+            String[] urls = new String[records];
+            for (int r = 0; r < records; r++) {
+                byte[] utf8 = new byte[BlockCodec.readVarInt(file)];
+                file.get(utf8);
+                urls[r] = new String(utf8, StandardCharsets.UTF_8);
+            }
+            return new NeighbourGraph(urls, k, slots);
+        }
+    }
+
+    private static int slotBytes(int records, int k) {
+        long bytes = (long) records * k * ENTRY;
+        if (bytes > Integer.MAX_VALUE - HEADER) {
+            throw new IllegalArgumentException(records + " records of " + k + " neighbours do not fit in one mapped file");
+        }
+        return (int) bytes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        String graphFile = FILE;
+        int flag = params.indexOf("--graph");
+        if (flag >= 0 && flag + 1 < params.size()) {
+            graphFile = params.get(flag + 1);
+            params.subList(flag, flag + 2).clear();
+        }
+        if (params.isEmpty()) {
+            System.err.println("Usage: NeighbourGraph [--graph file] <url>...");
+            return;
+        }
+        NeighbourGraph graph = load(graphFile);
+        for (String url : params) {
+            System.out.println(url);
+            for (Map.Entry<String, Double> neighbour : graph.neighbours(url).entrySet()) {
+                System.out.printf("  %.4f %s%n", neighbour.getValue(), neighbour.getKey());
+            }
+        }
+    }
+}
@@ -1,55 +1,466 @@
 import java.util.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
 
 public class PersistentHashTable implements Serializable {
 
-    //mapping url to its block index and offset
+    //pinned to the value of the original class so existing persistent_hashtable.dat files still load
+    private static final long serialVersionUID = 2475061517265414693L;
+
+    //default heap budget for decoded blocks
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    //mapping url to its block index and offset, packed into one long by location()
+    private Map<String, Long> locations;
+
+    //the "block,offset" strings of tables saved before the packed index, moved into locations on load
     private Map<String, String> urlBlocks;
 
+    //decoded blocks, rebuilt lazily after deserialization
+    private transient BlockCache cache;
+
+    //term ids of the compact blocks, loaded on first use
+    private transient TermDictionary dictionary;
+
+    //vocabulary and IDF clustering prunes records to, loaded on first use; null when there is no IDF table
+    private transient IdfTable idfTable;
+    private transient boolean idfTableLoaded;
+
+    //records written to each block and how many of them the index still points at; both are null in
+    //tables saved before incremental ingest and are rebuilt from locations on first use
+    private Map<Integer, Integer> blockSizes;
+    private Map<Integer, Integer> liveRecords;
+
+    //next block an appending loader may write, 0 when not yet worked out for this directory
+    private int nextBlockIndex;
+
+    //write-ahead log of index updates, open while a loader appends to this table
+    private transient DataOutputStream log;
+    private transient FileOutputStream logFile;
+    //updates whose block is not on disk yet, logged once the loader has written it
+    private transient List<String> pendingUrls;
+    private transient List<Long> pendingLocations;
+
     public PersistentHashTable() {
-        urlBlocks = new HashMap<>();
+        locations = new HashMap<>();
+        blockSizes = new HashMap<>();
+        liveRecords = new HashMap<>();
     }
 
-    public void put(String url, int blockIndex, int offset) {
-        String blockAndOffset = blockIndex + "," + offset;
-        urlBlocks.put(url, blockAndOffset);
+    public synchronized void put(String url, int blockIndex, int offset) {
+        long location = location(blockIndex, offset);
+        Long previous = locations.put(url, location);
+        updateBlockStats(previous, blockIndex, offset);
+        if (log != null) {
+            pendingUrls.add(url);
+            pendingLocations.add(location);
+        }
     }
 
     public Set<String> getUrls() {
-        return urlBlocks.keySet();
+        return locations.keySet();
+    }
+
+    //block index in the high and offset in the low 32 bits
+    static long location(int blockIndex, int offset) {
+        return (long) blockIndex << 32 | (offset & 0xFFFFFFFFL);
     }
-    public void saveToFile(String filePath) {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filePath))) {
+
+    //older loaders recorded the last record of a full block as offset -1 of the next block
+    static int blockIndexOf(long location) {
+        int blockIndex = (int) (location >> 32);
+        return offsetOf(location) < 0 ? blockIndex - 1 : blockIndex;
+    }
+
+    static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private static long parseLocation(String blockAndOffset) {
+        int comma = blockAndOffset.indexOf(',');
+        return location(Integer.parseInt(blockAndOffset.substring(0, comma)), Integer.parseInt(blockAndOffset.substring(comma + 1)));
+    }
+
+    private static String formatLocation(long location) {
+        return (int) (location >> 32) + "," + offsetOf(location);
+    }
+
+    //Tables saved before the packed index are converted as they load, and saved packed from then on
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (urlBlocks != null) {
+            locations = new HashMap<>(urlBlocks.size() * 4 / 3 + 1);
+            for (Map.Entry<String, String> entry : urlBlocks.entrySet()) {
+                locations.put(entry.getKey(), parseLocation(entry.getValue()));
+            }
+            urlBlocks = null;
+        }
+    }
+
+    //Write the table to a temporary file and rename it over the old one, then empty the log it now covers
+    public synchronized void saveToFile(String filePath) {
+        File tmp = new File(filePath + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp))) {
             out.writeObject(this);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (logFile != null) {
+                logFile.getChannel().truncate(0);
+            } else {
+                Files.deleteIfExists(Paths.get(logFileName(filePath)));
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    //Load a saved table and replay any index updates logged after it was saved
     public static PersistentHashTable loadFromFile(String filePath) {
+        PersistentHashTable table;
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
-            return (PersistentHashTable) ois.readObject();
+            table = (PersistentHashTable) ois.readObject();
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
             return null;
         }
+        try {
+            table.replayLog(logFileName(filePath));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return table;
+    }
+
+    public static String logFileName(String filePath) {
+        return filePath + ".wal";
+    }
+
+    //Start logging index updates next to the table file. Each entry is the url and its "block,offset", as
+    //logs have always been written, so one left by an older version still replays; entries are only
+    //written by commitLog, after the blocks they point into are on disk.
+    public synchronized void openLog(String filePath) throws IOException {
+        if (log != null) {
+            return;
+        }
+        logFile = new FileOutputStream(logFileName(filePath), true);
+        log = new DataOutputStream(new BufferedOutputStream(logFile));
+        pendingUrls = new ArrayList<>();
+        pendingLocations = new ArrayList<>();
+    }
+
+    //Log the updates made since the last commit and force them to disk
+    public synchronized void commitLog() throws IOException {
+        if (log == null || pendingUrls.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < pendingUrls.size(); i++) {
+            log.writeUTF(pendingUrls.get(i));
+            log.writeUTF(formatLocation(pendingLocations.get(i)));
+        }
+        log.flush();
+        logFile.getFD().sync();
+        pendingUrls.clear();
+        pendingLocations.clear();
+    }
+
+    public synchronized void closeLog() throws IOException {
+        if (log == null) {
+            return;
+        }
+        commitLog();
+        log.close();
+        log = null;
+        logFile = null;
+        pendingUrls = null;
+        pendingLocations = null;
+    }
+
+    private void replayLog(String logFileName) throws IOException {
+        File file = new File(logFileName);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                String url;
+                String blockAndOffset;
+                try {
+                    url = in.readUTF();
+                    blockAndOffset = in.readUTF();
+                } catch (EOFException e) {
+                    //end of the log, or an entry torn by a crash whose block was never acknowledged
+                    break;
+                }
+                int comma = blockAndOffset.indexOf(',');
+                put(url, Integer.parseInt(blockAndOffset.substring(0, comma)), Integer.parseInt(blockAndOffset.substring(comma + 1)));
+            }
+        }
+    }
+
+    //Reserve a block number no loader has written yet, so appended blocks never overwrite old ones
+    public synchronized int allocateBlockIndex() {
+        if (nextBlockIndex == 0) {
+            ensureBlockStats();
+            int next = 0;
+            for (int blockIndex : blockSizes.keySet()) {
+                next = Math.max(next, blockIndex + 1);
+            }
+            //blocks of an interrupted ingest may exist without any index entry
+            while (new File("block_" + next + ".dat").exists()) {
+                next++;
+            }
+            nextBlockIndex = next;
+        }
+        return nextBlockIndex++;
+    }
+
+    //Blocks in which at least deadRatio of the records were superseded by a later put
+    public synchronized List<Integer> blocksToCompact(double deadRatio) {
+        ensureBlockStats();
+        List<Integer> blocks = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : blockSizes.entrySet()) {
+            int size = entry.getValue();
+            int dead = size - liveRecords.getOrDefault(entry.getKey(), 0);
+            if (size > 0 && dead >= deadRatio * size) {
+                blocks.add(entry.getKey());
+            }
+        }
+        Collections.sort(blocks);
+        return blocks;
     }
+
+    //Urls whose current record lives in one of the given blocks, grouped by block
+    public synchronized Map<Integer, List<String>> urlsInBlocks(Collection<Integer> blocks) {
+        Map<Integer, List<String>> urls = new TreeMap<>();
+        for (int blockIndex : blocks) {
+            urls.put(blockIndex, new ArrayList<>());
+        }
+        for (Map.Entry<String, Long> entry : locations.entrySet()) {
+            List<String> inBlock = urls.get(blockIndexOf(entry.getValue()));
+            if (inBlock != null) {
+                inBlock.add(entry.getKey());
+            }
+        }
+        return urls;
+    }
+
+    //Blocks holding at least one live record, in file order
+    public synchronized List<Integer> liveBlocks() {
+        ensureBlockStats();
+        List<Integer> blocks = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : liveRecords.entrySet()) {
+            if (entry.getValue() > 0) {
+                blocks.add(entry.getKey());
+            }
+        }
+        Collections.sort(blocks);
+        return blocks;
+    }
+
+    public synchronized int size() {
+        return locations.size();
+    }
+
+    //Whether the record at offset of a block holding blockSize records is the one the index points at
+    private synchronized boolean isCurrent(String url, int blockIndex, int offset, int blockSize) {
+        Long location = locations.get(url);
+        return location != null && blockIndexOf(location) == blockIndex
+                && (offsetOf(location) == offset || (offsetOf(location) < 0 && offset == blockSize - 1));
+    }
+
+    //The records of one block the index still points at, read past the cache so scans and samples do not
+    //evict the blocks lookups keep hot; empty for a block not on disk yet
+    public List<SiteRecord> liveRecordsIn(int blockIndex) {
+        File file = new File("block_" + blockIndex + ".dat");
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        List<SiteRecord> block;
+        try {
+            block = BlockCodec.read(file.getPath(), getDictionary());
+        } catch (CorruptBlockException e) {
+            //a damaged block must not look like missing records
+            throw new UncheckedIOException(file.getName() + " is corrupt", e);
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+        List<SiteRecord> live = new ArrayList<>(block.size());
+        for (int offset = 0; offset < block.size(); offset++) {
+            SiteRecord record = block.get(offset);
+            if (isCurrent(record.getUrl(), blockIndex, offset, block.size())) {
+                live.add(record);
+            }
+        }
+        return live;
+    }
+
+    //Every live record in block file order, decoded ahead of the consumer; close it when done early
+    public BlockScanner scan() {
+        return new BlockScanner(this, BlockScanner.DEFAULT_READ_AHEAD);
+    }
+
+    //Block holding the current record of a url, or -1 when the url is unknown
+    public synchronized int blockOf(String url) {
+        Long location = locations.get(url);
+        return location == null ? -1 : blockIndexOf(location);
+    }
+
+    //Forget a block whose live records have all been rewritten elsewhere
+    public synchronized void dropBlock(int blockIndex) {
+        ensureBlockStats();
+        blockSizes.remove(blockIndex);
+        liveRecords.remove(blockIndex);
+        getCache().remove(blockIndex);
+    }
+
+    private void updateBlockStats(Long previous, int blockIndex, int offset) {
+        if (blockSizes == null) {
+            //rebuilt from locations as a whole the first time they are needed
+            return;
+        }
+        if (previous != null) {
+            liveRecords.merge(blockIndexOf(previous), -1, Integer::sum);
+        }
+        if (offset < 0) {
+            //the legacy "last record of the previous block", whose position is unknown
+            blockIndex--;
+            blockSizes.merge(blockIndex, liveRecords.merge(blockIndex, 1, Integer::sum), Math::max);
+            return;
+        }
+        liveRecords.merge(blockIndex, 1, Integer::sum);
+        blockSizes.merge(blockIndex, offset + 1, Math::max);
+    }
+
+    private void ensureBlockStats() {
+        if (blockSizes != null) {
+            return;
+        }
+        blockSizes = new HashMap<>();
+        liveRecords = new HashMap<>();
+        for (long location : locations.values()) {
+            int blockIndex = blockIndexOf(location);
+            liveRecords.merge(blockIndex, 1, Integer::sum);
+            //a legacy "last record" entry says nothing about the size, count it as one more record
+            int size = offsetOf(location) < 0 ? 1 : offsetOf(location) + 1;
+            blockSizes.merge(blockIndex, size, Math::max);
+        }
+        //legacy tables were written by a full rebuild, so every record they index is live
+        for (Map.Entry<Integer, Integer> entry : liveRecords.entrySet()) {
+            blockSizes.merge(entry.getKey(), entry.getValue(), Math::max);
+        }
+    }
+
+    public synchronized TermDictionary getDictionary() {
+        if (dictionary == null) {
+            try {
+                dictionary = TermDictionary.load(TermDictionary.FILE);
+            } catch (IOException e) {
+                e.printStackTrace();
+                dictionary = new TermDictionary();
+            }
+        }
+        return dictionary;
+    }
+
+    public synchronized IdfTable getIdfTable() {
+        if (!idfTableLoaded) {
+            idfTableLoaded = true;
+            if (new File(IdfTable.FILE).exists()) {
+                try {
+                    idfTable = IdfTable.load(IdfTable.FILE);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return idfTable;
+    }
+
+    public synchronized BlockCache getCache() {
+        if (cache == null) {
+            cache = new BlockCache(DEFAULT_CACHE_BYTES);
+        }
+        return cache;
+    }
+
+    //Replace the block cache with an empty one of the given size
+    public synchronized void setCacheCapacity(long maxBytes) {
+        cache = new BlockCache(maxBytes);
+    }
+
     public SiteRecord getRecord(String url) {
-        String blockAndOffset = urlBlocks.get(url);
-        if (blockAndOffset == null) {
+        Long location = locate(url);
+        if (location == null) {
+            return null;
+        }
+        List<SiteRecord> blockBuffer = readBlock(blockIndexOf(location));
+        return recordAt(blockBuffer, offsetOf(location));
+    }
+
+    //Look up many urls, decoding each block they live in only once
+    public Map<String, SiteRecord> getRecords(Collection<String> urls) {
+        //group the requested offsets by block so each block is visited once
+        Map<Integer, List<String>> urlsByBlock = new TreeMap<>();
+        Map<String, Integer> offsets = new HashMap<>();
+        for (String url : urls) {
+            Long location = locate(url);
+            if (location != null) {
+                urlsByBlock.computeIfAbsent(blockIndexOf(location), b -> new ArrayList<>()).add(url);
+                offsets.put(url, offsetOf(location));
+            }
+        }
+
+        Map<String, SiteRecord> records = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<String>> entry : urlsByBlock.entrySet()) {
+            List<SiteRecord> blockBuffer = readBlock(entry.getKey());
+            for (String url : entry.getValue()) {
+                SiteRecord record = recordAt(blockBuffer, offsets.get(url));
+                if (record != null) {
+                    records.put(url, record);
+                }
+            }
+        }
+        return records;
+    }
+
+    //Resolve a url to its packed location, or null when the url is unknown
+    synchronized Long locate(String url) {
+        return locations.get(url);
+    }
+
+    private static SiteRecord recordAt(List<SiteRecord> blockBuffer, int offset) {
+        if (blockBuffer == null || blockBuffer.isEmpty()) {
             return null;
         }
-        //Split string into array
-        String[] parts = blockAndOffset.split(",");
-        int blockIndex = Integer.parseInt(parts[0]);
-        int offset = Integer.parseInt(parts[1]);
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream("block_" + blockIndex + ".dat"))) {
-            //Read obj and cast to SiteRecord list
-            List<SiteRecord> blockBuffer = (List<SiteRecord>) in.readObject();
-            //specified offset
-            return blockBuffer.get(offset);
+        if (offset < 0) {
+            return blockBuffer.get(blockBuffer.size() - 1);
+        }
+        return offset < blockBuffer.size() ? blockBuffer.get(offset) : null;
+    }
+
+    private List<SiteRecord> readBlock(int blockIndex) {
+        BlockCache blockCache = getCache();
+        List<SiteRecord> blockBuffer = blockCache.get(blockIndex);
+        if (blockBuffer != null) {
+            return blockBuffer;
+        }
+        try {
+            //compact and Java-serialized blocks are told apart by their first bytes
+            blockBuffer = BlockCodec.read("block_" + blockIndex + ".dat", getDictionary());
+            blockCache.put(blockIndex, blockBuffer);
+            return blockBuffer;
+        } catch (CorruptBlockException e) {
+            //a damaged block must not look like a missing record
+            throw new UncheckedIOException("block_" + blockIndex + ".dat is corrupt", e);
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
             return null;
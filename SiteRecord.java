@@ -1,20 +1,176 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 
 public class SiteRecord implements Serializable {
+
+    //pinned to the value of the original class so existing block files still load
+    private static final long serialVersionUID = 7172216310226144934L;
+
     private String url;
     private HashMap<String, Integer> wordFrequency;
 
+    //counts straight from the tokenizer; the HashMap form is only built when someone asks for it
+    private transient StringIntMap wordCounts;
+
+    //sparse form: term ids sorted ascending with their counts, built by index()
+    private transient TermDictionary dictionary;
+    private transient int[] termIds;
+    private transient int[] counts;
+    private transient long totalCount;
+
+    //MinHash signature of the word set, stored next to the record in version 3 and later blocks
+    private transient int[] minHash;
+
     public SiteRecord(String url, HashMap<String, Integer> wordFrequency) {
         this.url = url;
         this.wordFrequency = wordFrequency;
     }
 
+    public SiteRecord(String url, StringIntMap wordCounts) {
+        this.url = url;
+        this.wordCounts = wordCounts;
+    }
+
+    //Build a record directly from sorted term ids, e.g. a centroid
+    public SiteRecord(String url, TermDictionary dictionary, int[] termIds, int[] counts) {
+        this.url = url;
+        this.dictionary = dictionary;
+        this.termIds = termIds;
+        this.counts = counts;
+        for (int count : counts) {
+            totalCount += count;
+        }
+    }
+
     public String getUrl() {
         return url;
     }
 
     public HashMap<String, Integer> getWordFrequency() {
+        if (wordFrequency == null && wordCounts != null) {
+            wordFrequency = wordCounts.toHashMap();
+        }
+        //records built from term ids only materialise the map when someone asks for it
+        if (wordFrequency == null && termIds != null) {
+            HashMap<String, Integer> frequencies = new HashMap<>(termIds.length * 4 / 3 + 1);
+            for (int i = 0; i < termIds.length; i++) {
+                frequencies.put(dictionary.term(termIds[i]), counts[i]);
+            }
+            wordFrequency = frequencies;
+        }
         return wordFrequency;
     }
+
+    //Build the sparse representation against the given dictionary
+    public void index(TermDictionary dictionary) {
+        if (this.dictionary == dictionary && termIds != null) {
+            return;
+        }
+        //pack (id, count) into one long so a single primitive sort orders both
+        long[] entries;
+        int n = 0;
+        if (wordFrequency == null && wordCounts != null) {
+            entries = new long[wordCounts.size()];
+            StringIntMap.Cursor cursor = wordCounts.cursor();
+            while (cursor.next()) {
+                entries[n++] = ((long) dictionary.idOf(cursor.key()) << 32) | cursor.value();
+            }
+        } else {
+            //records built from another dictionary's ids go through their word map
+            Map<String, Integer> words = getWordFrequency();
+            entries = new long[words.size()];
+            for (Map.Entry<String, Integer> entry : words.entrySet()) {
+                entries[n++] = ((long) dictionary.idOf(entry.getKey()) << 32) | entry.getValue();
+            }
+        }
+        Arrays.sort(entries, 0, n);
+        int[] ids = new int[n];
+        int[] sortedCounts = new int[n];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            ids[i] = (int) (entries[i] >>> 32);
+            sortedCounts[i] = (int) entries[i];
+            total += sortedCounts[i];
+        }
+        this.dictionary = dictionary;
+        this.termIds = ids;
+        this.counts = sortedCounts;
+        this.totalCount = total;
+    }
+
+    public boolean isIndexed() {
+        return termIds != null;
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int[] getTermIds() {
+        return termIds;
+    }
+
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public int[] getMinHash() {
+        return minHash;
+    }
+
+    public void setMinHash(int[] minHash) {
+        this.minHash = minHash;
+    }
+
+    //the serialized form is always the word -> count HashMap
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getWordFrequency();
+        out.defaultWriteObject();
+    }
+
+    //Compact encoding used by BlockCodec: url, term count, term id gaps, then counts, all as varints
+    public void writeTo(DataOutput out, TermDictionary dictionary) throws IOException {
+        index(dictionary);
+        byte[] utf8 = url.getBytes(StandardCharsets.UTF_8);
+        BlockCodec.writeVarInt(out, utf8.length);
+        out.write(utf8);
+        BlockCodec.writeVarInt(out, termIds.length);
+        int previous = 0;
+        for (int termId : termIds) {
+            //ids are sorted, so the gaps are small and mostly fit in one byte
+            BlockCodec.writeVarInt(out, termId - previous);
+            previous = termId;
+        }
+        for (int count : counts) {
+            BlockCodec.writeVarInt(out, count);
+        }
+    }
+
+    public static SiteRecord readFrom(ByteBuffer in, TermDictionary dictionary) {
+        byte[] utf8 = new byte[BlockCodec.readVarInt(in)];
+        in.get(utf8);
+        int terms = BlockCodec.readVarInt(in);
+        int[] termIds = new int[terms];
+        int previous = 0;
+        for (int i = 0; i < terms; i++) {
+            previous += BlockCodec.readVarInt(in);
+            termIds[i] = previous;
+        }
+        int[] counts = new int[terms];
+        for (int i = 0; i < terms; i++) {
+            counts[i] = BlockCodec.readVarInt(in);
+        }
+        return new SiteRecord(new String(utf8, StandardCharsets.UTF_8), dictionary, termIds, counts);
+    }
 }
\ No newline at end of file
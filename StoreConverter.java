@@ -0,0 +1,75 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+//Brings a store written by older loaders up to the current format in one pass. Java-serialized blocks and
+//compact blocks of an older version are rewritten in place as current BlockCodec blocks, records signed on
+//the way, in the same order so every index entry stays valid. Entries that point at the last record of a
+//block as offset -1 of the next block get their real offset, and the table is saved with its packed index.
+//Run it once in the store directory: StoreConverter [NONE|LZ|DEFLATE] [table file]
+public class StoreConverter {
+
+    private StoreConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        BlockCodec.Compression compression = args.length > 0 ? BlockCodec.Compression.valueOf(args[0]) : BlockCodec.Compression.NONE;
+        String tableFile = args.length > 1 ? args[1] : "persistent_hashtable.dat";
+        long start = System.nanoTime();
+        int converted = convert(tableFile, compression);
+        System.out.printf("Rewrote %d blocks, saved %s in %.1f ms%n", converted, tableFile, (System.nanoTime() - start) / 1e6);
+    }
+
+    //Convert the blocks the table in the working directory points into and save the table; returns how
+    //many blocks were rewritten
+    static int convert(String tableFile, BlockCodec.Compression compression) throws IOException {
+        PersistentHashTable table = PersistentHashTable.loadFromFile(tableFile);
+        if (table == null) {
+            throw new IOException("Could not load " + tableFile);
+        }
+        TermDictionary dictionary = table.getDictionary();
+        List<Integer> blocks = table.liveBlocks();
+        Map<Integer, List<String>> urls = table.urlsInBlocks(blocks);
+        int converted = 0;
+        for (int blockIndex : blocks) {
+            String fileName = "block_" + blockIndex + ".dat";
+            List<String> lastRecordEntries = new ArrayList<>();
+            for (String url : urls.get(blockIndex)) {
+                if (PersistentHashTable.offsetOf(table.locate(url)) < 0) {
+                    lastRecordEntries.add(url);
+                }
+            }
+            if (lastRecordEntries.isEmpty() && BlockCodec.versionOf(fileName) == BlockCodec.VERSION) {
+                continue;
+            }
+
+            List<SiteRecord> block;
+            try {
+                block = BlockCodec.read(fileName, dictionary);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(fileName + " holds records of an unknown class", e);
+            }
+            for (SiteRecord record : block) {
+                record.index(dictionary);
+                MinHash.DEFAULT.signatureOf(record);
+            }
+            byte[] bytes = BlockCodec.encode(block, dictionary, compression);
+            //new terms reach the dictionary file before any block refers to them
+            dictionary.appendTo(TermDictionary.FILE);
+            File tmp = new File(fileName + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(bytes);
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (String url : lastRecordEntries) {
+                table.put(url, blockIndex, block.size() - 1);
+            }
+            converted++;
+        }
+        table.saveToFile(tableFile);
+        return converted;
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+//Open-addressing String -> int map used as a word-frequency store. Keys, cached hashes and values live in
+//parallel arrays with a power-of-two capacity and linear probing, so counting never boxes and a lookup
+//touches one or two cache lines. Keys can also be looked up straight from a char buffer.
+public class StringIntMap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int MIN_CAPACITY = 8;
+
+    private transient String[] keys;
+    private transient int[] hashes;
+    private transient int[] values;
+    private transient int size;
+
+    public StringIntMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    public StringIntMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(String key) {
+        return getOrDefault(key, 0);
+    }
+
+    public int getOrDefault(String key, int defaultValue) {
+        int slot = slotOf(key, key.hashCode());
+        return slot >= 0 ? values[slot] : defaultValue;
+    }
+
+    public boolean containsKey(String key) {
+        return slotOf(key, key.hashCode()) >= 0;
+    }
+
+    public boolean containsKey(char[] chars, int offset, int length) {
+        return slotOf(chars, offset, length, hash(chars, offset, length)) >= 0;
+    }
+
+    public void put(String key, int value) {
+        int hash = key.hashCode();
+        int slot = slotOf(key, hash);
+        if (slot >= 0) {
+            values[slot] = value;
+        } else {
+            insert(-slot - 1, key, hash, value);
+        }
+    }
+
+    //Add delta to the value of key (absent keys start at 0) and return the new value
+    public int addTo(String key, int delta) {
+        int hash = key.hashCode();
+        int slot = slotOf(key, hash);
+        if (slot >= 0) {
+            return values[slot] += delta;
+        }
+        insert(-slot - 1, key, hash, delta);
+        return delta;
+    }
+
+    //Same as addTo(String, int) but keyed by chars; a String is only created for a new key
+    public int addTo(char[] chars, int offset, int length, int delta) {
+        int hash = hash(chars, offset, length);
+        int slot = slotOf(chars, offset, length, hash);
+        if (slot >= 0) {
+            return values[slot] += delta;
+        }
+        insert(-slot - 1, new String(chars, offset, length), hash, delta);
+        return delta;
+    }
+
+    public void remove(String key) {
+        int slot = slotOf(key, key.hashCode());
+        if (slot < 0) {
+            return;
+        }
+        //backward-shift deletion keeps every probe chain unbroken without tombstones
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != null) {
+            int home = mix(hashes[next]) & mask;
+            //move the entry into the hole unless its home slot lies cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                hashes[hole] = hashes[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = null;
+        size--;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public HashMap<String, Integer> toHashMap() {
+        HashMap<String, Integer> map = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                map.put(keys[i], values[i]);
+            }
+        }
+        return map;
+    }
+
+    //Bytes held by the table arrays themselves, not counting the key Strings
+    public long tableBytes() {
+        return (long) keys.length * (4 + 4 + 4);
+    }
+
+    //Walks the entries in slot order: while (cursor.next()) { cursor.key(); cursor.value(); }
+    public final class Cursor {
+        private int slot = -1;
+
+        public boolean next() {
+            while (++slot < keys.length) {
+                if (keys[slot] != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public String key() {
+            return keys[slot];
+        }
+
+        public int value() {
+            return values[slot];
+        }
+
+        public void setValue(int value) {
+            values[slot] = value;
+        }
+
+        public void reset() {
+            slot = -1;
+        }
+    }
+
+    //slot holding key, or -(free slot) - 1 when the key is absent
+    private int slotOf(String key, int hash) {
+        int mask = keys.length - 1;
+        int slot = mix(hash) & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && keys[slot].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private int slotOf(char[] chars, int offset, int length, int hash) {
+        int mask = keys.length - 1;
+        int slot = mix(hash) & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && matches(keys[slot], chars, offset, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private void insert(int slot, String key, int hash, int value) {
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+        //resize at a 0.5 load factor, linear probing degrades quickly above that
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = mix(oldHashes[i]) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new int[capacity];
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    //same value as String.hashCode() so String and char[] lookups agree
+    static int hash(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return h;
+    }
+
+    //spread the bits, String hashes of short words cluster badly under a power-of-two mask
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String key, char[] chars, int offset, int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //only the live entries are written, not the sparse tables
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                out.writeUTF(keys[i]);
+                out.writeInt(values[i]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int entries = in.readInt();
+        allocate(capacityFor(entries));
+        size = 0;
+        for (int i = 0; i < entries; i++) {
+            put(in.readUTF(), in.readInt());
+        }
+    }
+}
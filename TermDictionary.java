@@ -0,0 +1,79 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+//Global String -> int id mapping so records can be stored as sorted arrays of term ids.
+//Synchronized because an appending loader can add terms while readers decode blocks.
+public class TermDictionary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //shared by every compact block; append-only so ids written into blocks never change
+    public static final String FILE = "term_dictionary.dat";
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> terms = new ArrayList<>();
+
+    //number of terms already in the dictionary file
+    private transient int persistedSize;
+
+    //Return the id of a term, assigning the next free id if it hasn't been seen yet
+    public synchronized int idOf(String term) {
+        Integer id = ids.get(term);
+        if (id == null) {
+            id = terms.size();
+            ids.put(term, id);
+            terms.add(term);
+        }
+        return id;
+    }
+
+    //Return the id of a known term, or -1
+    public synchronized int lookup(String term) {
+        Integer id = ids.get(term);
+        return id == null ? -1 : id;
+    }
+
+    public synchronized String term(int id) {
+        return terms.get(id);
+    }
+
+    public synchronized int size() {
+        return terms.size();
+    }
+
+    //Append the terms added since the last save. The file is a sequence of varint-length UTF-8 strings,
+    //the n-th of which is the term with id n.
+    public synchronized void appendTo(String fileName) throws IOException {
+        if (persistedSize == terms.size()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName, true)))) {
+            for (int id = persistedSize; id < terms.size(); id++) {
+                byte[] utf8 = terms.get(id).getBytes(StandardCharsets.UTF_8);
+                BlockCodec.writeVarInt(out, utf8.length);
+                out.write(utf8);
+            }
+        }
+        persistedSize = terms.size();
+    }
+
+    //Load a dictionary file, or start an empty dictionary if there is none yet
+    public static TermDictionary load(String fileName) throws IOException {
+        TermDictionary dictionary = new TermDictionary();
+        if (!new File(fileName).exists()) {
+            return dictionary;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName)));
+        while (in.hasRemaining()) {
+            byte[] utf8 = new byte[BlockCodec.readVarInt(in)];
+            in.get(utf8);
+            dictionary.idOf(new String(utf8, StandardCharsets.UTF_8));
+        }
+        dictionary.persistedSize = dictionary.size();
+        return dictionary;
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+//Sparse sum of (term id, count) pairs, for centroid sums that must not cost a dense row of the vocabulary.
+//An open-addressing table of term id -> summed count grows with the distinct terms added rather than with
+//the dictionary, and collapse() sorts them into a run that merges with the runs of other chunks.
+final class TermSums {
+
+    //Sorted distinct term ids and the summed counts of each
+    static final class Run {
+        static final Run EMPTY = new Run(new int[0], new long[0]);
+
+        final int[] ids;
+        final long[] sums;
+
+        Run(int[] ids, long[] sums) {
+            this.ids = ids;
+            this.sums = sums;
+        }
+    }
+
+    //term id + 1, so 0 marks a free slot
+    private int[] keys = new int[64];
+    private long[] sums = new long[64];
+    private int size;
+
+    void add(int[] termIds, int[] counts) {
+        if ((size + termIds.length) * 4 > keys.length * 3) {
+            grow(size + termIds.length);
+        }
+        int mask = keys.length - 1;
+        for (int i = 0; i < termIds.length; i++) {
+            int key = termIds[i] + 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                size++;
+            }
+            sums[slot] += counts[i];
+        }
+    }
+
+    //Everything added since the last reset as one run
+    Run collapse() {
+        if (size == 0) {
+            return Run.EMPTY;
+        }
+        //term id << 32 | slot, so one sort orders the terms and still finds their sums
+        long[] entries = new long[size];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                entries[n++] = ((long) (keys[slot] - 1) << 32) | slot;
+            }
+        }
+        Arrays.sort(entries);
+        int[] ids = new int[size];
+        long[] runSums = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = (int) (entries[i] >>> 32);
+            runSums[i] = sums[(int) entries[i]];
+        }
+        return new Run(ids, runSums);
+    }
+
+    //Forget the sums but keep the table for the next round
+    void reset() {
+        if (size > 0) {
+            Arrays.fill(keys, 0);
+            Arrays.fill(sums, 0);
+            size = 0;
+        }
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void grow(int entries) {
+        int capacity = keys.length;
+        while (entries * 4 > capacity * 3) {
+            capacity *= 2;
+        }
+        int[] oldKeys = keys;
+        long[] oldSums = sums;
+        keys = new int[capacity];
+        sums = new long[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i], mask);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                sums[slot] = oldSums[i];
+            }
+        }
+    }
+
+    //Merge two runs, adding the sums of shared term ids
+    static Run merge(Run a, Run b) {
+        if (a.ids.length == 0) {
+            return b;
+        }
+        if (b.ids.length == 0) {
+            return a;
+        }
+        int[] ids = new int[a.ids.length + b.ids.length];
+        long[] sums = new long[ids.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.ids.length && j < b.ids.length) {
+            if (a.ids[i] < b.ids[j]) {
+                ids[n] = a.ids[i];
+                sums[n++] = a.sums[i++];
+            } else if (a.ids[i] > b.ids[j]) {
+                ids[n] = b.ids[j];
+                sums[n++] = b.sums[j++];
+            } else {
+                ids[n] = a.ids[i];
+                sums[n++] = a.sums[i++] + b.sums[j++];
+            }
+        }
+        while (i < a.ids.length) {
+            ids[n] = a.ids[i];
+            sums[n++] = a.sums[i++];
+        }
+        while (j < b.ids.length) {
+            ids[n] = b.ids[j];
+            sums[n++] = b.sums[j++];
+        }
+        return new Run(Arrays.copyOf(ids, n), Arrays.copyOf(sums, n));
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.*;
+
+//Single-pass word counter for page text. A word is a whitespace-separated token made only of ASCII
+//letters, the same rule analyzeWebsite applied with split/matches, but tokens are lowercased into a
+//reusable buffer and looked up by their chars, so a String is only created the first time a word is seen.
+public class Tokenizer {
+
+    private final StringIntMap stopWords;
+    //when set, only words already in the vocabulary are counted
+    private StringIntMap vocabulary;
+    private StringIntMap counts = new StringIntMap();
+
+    private char[] buffer = new char[64];
+
+    public Tokenizer(Set<String> stopWords) {
+        this.stopWords = new StringIntMap(stopWords.size());
+        for (String word : stopWords) {
+            this.stopWords.put(word, 1);
+        }
+    }
+
+    //Restrict counting to the terms of a dictionary, e.g. when classifying against a trained model
+    public void setVocabulary(TermDictionary dictionary) {
+        if (dictionary == null) {
+            vocabulary = null;
+            return;
+        }
+        vocabulary = new StringIntMap(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) {
+            vocabulary.put(dictionary.term(id), 1);
+        }
+    }
+
+    public void tokenize(CharSequence text) {
+        int length = 0;
+        //a token containing anything but letters is dropped, like "^[a-zA-Z]*$" did
+        boolean letters = true;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (isWhitespace(c)) {
+                if (length > 0 && letters) {
+                    countToken(length);
+                }
+                length = 0;
+                letters = true;
+                continue;
+            }
+            if (!letters) {
+                continue;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            } else if (c < 'a' || c > 'z') {
+                letters = false;
+                continue;
+            }
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, length * 2);
+            }
+            buffer[length++] = c;
+        }
+    }
+
+    private void countToken(int length) {
+        if (stopWords.containsKey(buffer, 0, length)) {
+            return;
+        }
+        if (vocabulary != null && !vocabulary.containsKey(buffer, 0, length)) {
+            return;
+        }
+        counts.addTo(buffer, 0, length, 1);
+    }
+
+    public int distinctWords() {
+        return counts.size();
+    }
+
+    public HashMap<String, Integer> toHashMap() {
+        return counts.toHashMap();
+    }
+
+    //Hand over the counted words and start a fresh table for the next document
+    public StringIntMap takeCounts() {
+        StringIntMap taken = counts;
+        counts = new StringIntMap();
+        return taken;
+    }
+
+    //Forget the counted words but keep the allocated tables for the next document
+    public void reset() {
+        counts.clear();
+    }
+
+    //the characters split("\\s+") treats as separators
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+}
@@ -0,0 +1,100 @@
+//Entry point of the comparison benchmarks, run as: java Benchmarks <name> [args]. The hot-path
+//micro benchmarks are JMH benchmarks in the benchmarks package, run by the jmh build task.
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: Benchmarks tokenizer <paragraphs.txt> [rounds]");
+            System.err.println("       Benchmarks maps [distinctWords] [operations]");
+            System.err.println("       Benchmarks concurrent-cht [distinctWords] [operationsPerThread]");
+            System.err.println("       Benchmarks codec [records] [wordsPerRecord]");
+            System.err.println("       Benchmarks compression [blocks] [wordsPerRecord]");
+            System.err.println("       Benchmarks centroids [documents] [wordsPerDocument] [k]");
+            System.err.println("       Benchmarks centroid-index [documents] [k,...]");
+            System.err.println("       Benchmarks lsh [documents] [bandsxrows,...] [k]");
+            System.err.println("       Benchmarks all-pairs [documents] [minSimilarity,...] [threads]");
+            System.err.println("       Benchmarks minibatch [documents] [k] [batchSize,...]");
+            System.err.println("       Benchmarks seeding [documents] [k] [restarts] [threads]");
+            System.err.println("       Benchmarks cosine [documents] [k,...]");
+            System.err.println("       Benchmarks scaling [documents] [k] [threads,...]");
+            System.err.println("       Benchmarks pruning [documents] [k] [minDf] [maxDf] [maxVocabulary]");
+            System.err.println("       Benchmarks hashing [documents] [k] [dimension,...] [nonZeros,...]");
+            return;
+        }
+        switch (args[0]) {
+            case "tokenizer":
+                IngestBenchmarks.tokenizer(args[1], args.length > 2 ? Integer.parseInt(args[2]) : 20);
+                break;
+            case "maps":
+                IngestBenchmarks.maps(args.length > 1 ? Integer.parseInt(args[1]) : 100_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 10_000_000);
+                break;
+            case "concurrent-cht":
+                IngestBenchmarks.concurrentCht(args.length > 1 ? Integer.parseInt(args[1]) : 50_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 200_000);
+                break;
+            case "codec":
+                IngestBenchmarks.codec(args.length > 1 ? Integer.parseInt(args[1]) : 202,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 500);
+                break;
+            case "compression":
+                IngestBenchmarks.compression(args.length > 1 ? Integer.parseInt(args[1]) : 100,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 500);
+                break;
+            case "centroids":
+                ClusteringBenchmarks.centroids(args.length > 1 ? Integer.parseInt(args[1]) : 20_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 200,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 8);
+                break;
+            case "centroid-index":
+                ClusteringBenchmarks.centroidIndex(args.length > 1 ? Integer.parseInt(args[1]) : 5_000,
+                        args.length > 2 ? args[2] : "5,50,200,500");
+                break;
+            case "lsh":
+                ClusteringBenchmarks.lsh(args.length > 1 ? Integer.parseInt(args[1]) : 5_000,
+                        args.length > 2 ? args[2] : "16x2,16x4,32x4,8x8",
+                        args.length > 3 ? Integer.parseInt(args[3]) : 20);
+                break;
+            case "all-pairs":
+                ClusteringBenchmarks.allPairs(args.length > 1 ? Integer.parseInt(args[1]) : 5_000,
+                        args.length > 2 ? args[2] : "0.2,0.3,0.5",
+                        args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors());
+                break;
+            case "minibatch":
+                ClusteringBenchmarks.miniBatch(args.length > 1 ? Integer.parseInt(args[1]) : 20_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 20,
+                        args.length > 3 ? args[3] : "256,1024,4096");
+                break;
+            case "seeding":
+                ClusteringBenchmarks.seeding(args.length > 1 ? Integer.parseInt(args[1]) : 20_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 20,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 8,
+                        args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors());
+                break;
+            case "cosine":
+                ClusteringBenchmarks.cosine(args.length > 1 ? Integer.parseInt(args[1]) : 20_000,
+                        args.length > 2 ? args[2] : "5,20,100");
+                break;
+            case "scaling":
+                ClusteringBenchmarks.scaling(args.length > 1 ? Integer.parseInt(args[1]) : 20_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 20,
+                        args.length > 3 ? args[3] : "");
+                break;
+            case "pruning":
+                ClusteringBenchmarks.pruning(args.length > 1 ? Integer.parseInt(args[1]) : 20_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 20,
+                        args.length > 3 ? Integer.parseInt(args[3]) : IdfTable.DEFAULT_MIN_DF,
+                        args.length > 4 ? Double.parseDouble(args[4]) : IdfTable.DEFAULT_MAX_DF,
+                        args.length > 5 ? Integer.parseInt(args[5]) : IdfTable.DEFAULT_MAX_TERMS);
+                break;
+            case "hashing":
+                ClusteringBenchmarks.hashing(args.length > 1 ? Integer.parseInt(args[1]) : 20_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 20,
+                        args.length > 3 ? args[3] : "64,256,1024,4096",
+                        args.length > 4 ? args[4] : "1,4");
+                break;
+            default:
+                System.err.println("Unknown benchmark " + args[0]);
+        }
+    }
+}
@@ -0,0 +1,699 @@
+import java.io.*;
+import java.util.*;
+
+//Clustering experiments on synthetic topic corpora: each runs the variants a request introduced next to
+//the exact path from the same seed and prints time, quality and agreement side by side
+public class ClusteringBenchmarks {
+
+    private ClusteringBenchmarks() {
+    }
+
+    //Centroid size against assignment time and cluster quality. Documents mix the Zipf words of one of k
+    //topics with background words, so purity measures how well the clusters recover the topics. Agreement is
+    //the share of records put in the same cluster as with untruncated centroids, from the same seed.
+    static void centroids(int documents, int wordsPerDocument, int k) {
+        TermDictionary dictionary = new TermDictionary();
+        int[] topics = new int[documents];
+        List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, wordsPerDocument, k, new Random(5), dictionary, topics);
+        Map<String, Integer> topicOf = new HashMap<>();
+        for (int d = 0; d < documents; d++) {
+            topicOf.put(records.get(d).getUrl(), topics[d]);
+        }
+
+        System.out.printf("%-12s %10s %10s %10s %12s %8s %10s%n",
+                "centroids", "avg terms", "KB", "iterations", "assign ms/it", "purity", "agreement");
+        Map<String, Integer> reference = new HashMap<>();
+        String[] names = {"all terms", "top 1000", "top 200", "top 50", "mass 0.9", "mass 0.5"};
+        int[] maxTerms = {0, 1000, 200, 50, 0, 0};
+        double[] masses = {1, 1, 1, 1, 0.9, 0.5};
+        for (int config = 0; config < names.length; config++) {
+            KMeansClustering kMeans = new KMeansClustering(records, dictionary, k, 1, 42);
+            kMeans.setMaxCentroidTerms(maxTerms[config]);
+            kMeans.setCentroidMass(masses[config]);
+            long[] assignNanos = new long[1];
+            kMeans.addListener(stats -> assignNanos[0] += stats.getAssignNanos());
+            PrintStream out = System.out;
+            //run() prints every cluster member
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                kMeans.run();
+            } finally {
+                System.setOut(out);
+            }
+
+            long terms = 0;
+            long bytes = 0;
+            for (Centroid centroid : kMeans.getCentroids()) {
+                terms += centroid.size();
+                bytes += centroid.bytes();
+            }
+            int dominant = 0;
+            int agreeing = 0;
+            int cluster = 0;
+            for (List<SiteRecord> members : kMeans.getClusters().values()) {
+                int[] labels = new int[k];
+                int best = 0;
+                for (SiteRecord member : members) {
+                    best = Math.max(best, ++labels[topicOf.get(member.getUrl())]);
+                    if (config == 0) {
+                        reference.put(member.getUrl(), cluster);
+                    }
+                    if (reference.get(member.getUrl()) == cluster) {
+                        agreeing++;
+                    }
+                }
+                dominant += best;
+                cluster++;
+            }
+            System.out.printf("%-12s %10d %10.1f %10d %12.1f %8.3f %10.3f%n", names[config], terms / k, bytes / 1024.0,
+                    kMeans.getIterations(), assignNanos[0] / 1e6 / kMeans.getIterations(), (double) dominant / documents, (double) agreeing / documents);
+        }
+    }
+
+    //Scoring every record against k centroids one merge at a time versus through a CentroidIndex. Each
+    //centroid is the mean of 50 random records, and both paths must agree exactly.
+    static void centroidIndex(int documents, String centroidCounts) {
+        TermDictionary dictionary = new TermDictionary();
+        Random random = new Random(9);
+        List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, 200, 20, random, dictionary, new int[documents]);
+
+        System.out.printf("%6s %14s %14s %8s %10s%n", "k", "merge ns/rec", "index ns/rec", "speedup", "index KB");
+        for (String count : centroidCounts.split(",")) {
+            int k = Integer.parseInt(count.trim());
+            List<Centroid> centroids = new ArrayList<>(k);
+            for (int c = 0; c < k; c++) {
+                centroids.add(meanCentroid(records, 50, random, dictionary));
+            }
+            CentroidIndex index = new CentroidIndex(centroids);
+            double[] scores = new double[k];
+
+            long mergeNanos = 0;
+            long indexNanos = 0;
+            double sink = 0;
+            for (int round = 0; round < 4; round++) {
+                long start = System.nanoTime();
+                for (SiteRecord record : records) {
+                    for (Centroid centroid : centroids) {
+                        sink += centroid.similarity(record);
+                    }
+                }
+                long mid = System.nanoTime();
+                for (SiteRecord record : records) {
+                    index.score(record, scores);
+                    sink += scores[k - 1];
+                }
+                long end = System.nanoTime();
+                //the first round is warm-up
+                if (round > 0) {
+                    mergeNanos += mid - start;
+                    indexNanos += end - mid;
+                }
+            }
+            for (SiteRecord record : records) {
+                index.score(record, scores);
+                for (int c = 0; c < k; c++) {
+                    if (Double.doubleToLongBits(scores[c]) != Double.doubleToLongBits(centroids.get(c).similarity(record))) {
+                        throw new IllegalStateException("Index and merge disagree for " + record.getUrl());
+                    }
+                }
+            }
+            double perRecord = 3.0 * records.size();
+            System.out.printf("%6d %14.0f %14.0f %8.1f %10.1f   (sink %.1f)%n", k, mergeNanos / perRecord, indexNanos / perRecord,
+                    (double) mergeNanos / indexNanos, index.bytes() / 1024.0, sink);
+        }
+    }
+
+    //Near-duplicate detection over a topic corpus where every tenth record is a copy of an earlier one
+    //with 5% of its words changed, then k-means with and without the LSH candidate filter. Recall counts
+    //the injected copies found, precision the LSH candidate pairs that really are near-duplicates.
+    static void lsh(int documents, String configurations, int k) {
+        TermDictionary dictionary = new TermDictionary();
+        Random random = new Random(13);
+        List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, 200, k, random, dictionary, new int[documents]);
+        Map<Integer, Integer> copyOf = new HashMap<>();
+        for (int d = 10; d < documents; d += 10) {
+            int original = random.nextInt(d);
+            HashMap<String, Integer> words = new HashMap<>(records.get(original).getWordFrequency());
+            List<String> keys = new ArrayList<>(words.keySet());
+            for (int change = 0; change < keys.size() / 20; change++) {
+                words.remove(keys.get(random.nextInt(keys.size())));
+                words.merge(SyntheticCorpus.syntheticWord(random.nextInt(SyntheticCorpus.VOCABULARY)), 1, Integer::sum);
+            }
+            SiteRecord copy = new SiteRecord(records.get(d).getUrl(), words);
+            copy.index(dictionary);
+            records.set(d, copy);
+            copyOf.put(d, original);
+        }
+        double minJaccard = 0.8;
+
+        System.out.printf("%-8s %10s %10s %10s %10s %12s%n", "config", "P(0.8)", "P(0.3)", "recall", "precision", "find ms");
+        for (String configuration : configurations.split(",")) {
+            String[] parts = configuration.trim().split("x");
+            int bands = Integer.parseInt(parts[0]);
+            int rows = Integer.parseInt(parts[1]);
+            for (SiteRecord record : records) {
+                MinHash.DEFAULT.signatureOf(record);
+            }
+            long start = System.nanoTime();
+            int[] representative = NearDuplicates.find(records, bands, rows, minJaccard);
+            long nanos = System.nanoTime() - start;
+
+            int found = 0;
+            for (Map.Entry<Integer, Integer> entry : copyOf.entrySet()) {
+                if (representative[entry.getKey()] == representative[entry.getValue()]) {
+                    found++;
+                }
+            }
+            LshIndex index = new LshIndex(bands, rows);
+            for (int i = 0; i < records.size(); i++) {
+                index.add(i, MinHash.DEFAULT.signatureOf(records.get(i)));
+            }
+            Set<Long> candidates = new HashSet<>();
+            index.forEachCollision((i, j) -> candidates.add(((long) Math.min(i, j) << 32) | Math.max(i, j)));
+            int similar = 0;
+            for (long pair : candidates) {
+                if (MinHash.jaccard(records.get((int) (pair >>> 32)), records.get((int) pair)) >= minJaccard) {
+                    similar++;
+                }
+            }
+            System.out.printf("%-8s %10.3f %10.3f %10.3f %10.3f %12.1f   (%d candidate pairs)%n", configuration.trim(),
+                    index.collisionProbability(0.8), index.collisionProbability(0.3), (double) found / copyOf.size(),
+                    candidates.isEmpty() ? 1 : (double) similar / candidates.size(), nanos / 1e6, candidates.size());
+        }
+
+        System.out.println();
+        System.out.printf("%-8s %10s %12s %14s %10s%n", "filter", "iterations", "assign ms/it", "evaluations/rec", "agreement");
+        int[] reference = null;
+        for (String configuration : ("exact," + configurations).split(",")) {
+            KMeansClustering kMeans = new KMeansClustering(records, dictionary, k, 1, 42);
+            kMeans.setMaxCentroidTerms(200);
+            if (!configuration.equals("exact")) {
+                String[] parts = configuration.trim().split("x");
+                kMeans.setCandidateFilter(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+            }
+            long[] assignNanos = new long[1];
+            long[] evaluations = new long[1];
+            kMeans.addListener(stats -> {
+                assignNanos[0] += stats.getAssignNanos();
+                evaluations[0] += stats.getSimilarityEvaluations();
+            });
+            PrintStream out = System.out;
+            //run() prints every cluster member
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                kMeans.run();
+            } finally {
+                System.setOut(out);
+            }
+
+            //agreement with the exact run, matching each cluster to the exact cluster of most of its members
+            Map<String, Integer> clusterOf = new HashMap<>();
+            int cluster = 0;
+            for (List<SiteRecord> members : kMeans.getClusters().values()) {
+                for (SiteRecord member : members) {
+                    clusterOf.put(member.getUrl(), cluster);
+                }
+                cluster++;
+            }
+            int[] labels = new int[records.size()];
+            for (int d = 0; d < records.size(); d++) {
+                labels[d] = clusterOf.get(records.get(d).getUrl());
+            }
+            if (reference == null) {
+                reference = labels;
+            }
+            int[][] overlap = new int[k][k];
+            for (int d = 0; d < records.size(); d++) {
+                overlap[labels[d]][reference[d]]++;
+            }
+            int agreeing = 0;
+            for (int[] row : overlap) {
+                agreeing += Arrays.stream(row).max().getAsInt();
+            }
+            int iterations = kMeans.getIterations();
+            System.out.printf("%-8s %10d %12.1f %14.1f %10.3f%n", configuration.trim(), iterations,
+                    assignNanos[0] / 1e6 / iterations, (double) evaluations[0] / iterations / records.size(), (double) agreeing / records.size());
+        }
+    }
+
+    //Top-10 neighbour graph by comparing every pair versus AllPairsSimilarity, which must give the same lists
+    static void allPairs(int documents, String minSimilarities, int threads) {
+        TermDictionary dictionary = new TermDictionary();
+        List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, 200, 20, new Random(17), dictionary, new int[documents]);
+        int k = 10;
+
+        long start = System.nanoTime();
+        double[][] exact = new double[documents][documents];
+        for (int a = 0; a < documents; a++) {
+            for (int b = a + 1; b < documents; b++) {
+                exact[a][b] = KMeansClustering.calculateSimilarity(records.get(a), records.get(b));
+                exact[b][a] = exact[a][b];
+            }
+        }
+        long bruteNanos = System.nanoTime() - start;
+        System.out.printf("every pair: %.1f ms for %d pairs%n", bruteNanos / 1e6, (long) documents * (documents - 1) / 2);
+
+        System.out.printf("%8s %12s %12s %12s %10s %10s %8s%n", "min sim", "candidates", "merged", "pairs", "ms", "speedup", "equal");
+        for (String value : minSimilarities.split(",")) {
+            double minSimilarity = Double.parseDouble(value.trim());
+            start = System.nanoTime();
+            AllPairsSimilarity allPairs = new AllPairsSimilarity(records, threads);
+            NeighbourGraph graph = allPairs.topNeighbours(k, minSimilarity);
+            long nanos = System.nanoTime() - start;
+
+            boolean equal = true;
+            for (int a = 0; a < documents && equal; a++) {
+                Integer[] order = new Integer[documents];
+                for (int b = 0; b < documents; b++) {
+                    order[b] = b;
+                }
+                double[] row = exact[a];
+                int self = a;
+                Arrays.sort(order, (b1, b2) -> row[b1] != row[b2] ? Double.compare(row[b2], row[b1]) : Integer.compare(b1, b2));
+                List<Map.Entry<String, Double>> expected = new ArrayList<>();
+                for (int b : order) {
+                    if (expected.size() == k || row[b] < minSimilarity) {
+                        break;
+                    }
+                    if (b != self) {
+                        expected.add(new AbstractMap.SimpleEntry<>(records.get(b).getUrl(), (double) (float) row[b]));
+                    }
+                }
+                equal = expected.equals(new ArrayList<>(graph.neighbours(records.get(a).getUrl()).entrySet()));
+            }
+            System.out.printf("%8.2f %12d %12d %12d %10.1f %10.1f %8s%n", minSimilarity, allPairs.getCandidates(),
+                    allPairs.getVerified(), allPairs.getPairs(), nanos / 1e6, (double) bruteNanos / nanos, equal);
+        }
+    }
+
+    //Full-batch k-means versus mini-batch runs on random batches and a single streaming pass, all with
+    //centroids of at most 1000 terms. Quality is the mean similarity of every record to its nearest
+    //centroid, and the gap is relative to full batch.
+    static void miniBatch(int documents, int k, String batchSizes) {
+        TermDictionary dictionary = new TermDictionary();
+        List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, 200, k, new Random(21), dictionary, new int[documents]);
+
+        long start = System.nanoTime();
+        KMeansClustering full = new KMeansClustering(records, dictionary, k, 1, 42);
+        //the similarity divides by the smaller total, so only centroids bounded alike compare fairly
+        full.setMaxCentroidTerms(MiniBatchKMeans.DEFAULT_MAX_CENTROID_TERMS);
+        full.cluster();
+        long fullNanos = System.nanoTime() - start;
+        double fullQuality = meanSimilarity(full.getCentroids(), records);
+
+        System.out.printf("%-16s %10s %10s %10s %9s %14s%n", "mode", "ms", "batches", "quality", "gap %", "records held");
+        System.out.printf("%-16s %10.1f %10d %10.4f %9.2f %14d%n", "full batch", fullNanos / 1e6, full.getIterations(), fullQuality, 0.0, documents);
+        for (String value : batchSizes.split(",")) {
+            int batchSize = Integer.parseInt(value.trim());
+            Random random = new Random(42);
+            start = System.nanoTime();
+            MiniBatchKMeans miniBatch = new MiniBatchKMeans(k, batchSize, 42);
+            while (miniBatch.getBatches() < MiniBatchKMeans.DEFAULT_MAX_BATCHES && !miniBatch.isConverged()) {
+                List<SiteRecord> batch = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    batch.add(records.get(random.nextInt(documents)));
+                }
+                miniBatch.update(batch);
+            }
+            long nanos = System.nanoTime() - start;
+            double quality = meanSimilarity(miniBatch.getCentroids(), records);
+            System.out.printf("%-16s %10.1f %10d %10.4f %9.2f %14d%n", "mini-batch " + batchSize, nanos / 1e6, miniBatch.getBatches(),
+                    quality, 100 * (fullQuality - quality) / fullQuality, batchSize);
+
+            start = System.nanoTime();
+            MiniBatchKMeans streaming = new MiniBatchKMeans(k, batchSize, 42);
+            records.forEach(streaming);
+            streaming.flush();
+            nanos = System.nanoTime() - start;
+            quality = meanSimilarity(streaming.getCentroids(), records);
+            System.out.printf("%-16s %10.1f %10d %10.4f %9.2f %14d%n", "stream " + batchSize, nanos / 1e6, streaming.getBatches(),
+                    quality, 100 * (fullQuality - quality) / fullQuality, batchSize);
+        }
+    }
+
+    //Random, k-means++ and k-means|| starting centroids over the same restart seeds: iterations to converge,
+    //final objective, and how long seeding takes next to the whole run. The restarts of each seeding run
+    //side by side, so the wall time compares with the sum of the single runs.
+    static void seeding(int documents, int k, int restarts, int threads) {
+        TermDictionary dictionary = new TermDictionary();
+        List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, 200, k, new Random(22), dictionary, new int[documents]);
+        KMeansRestarts runs = new KMeansRestarts(records, dictionary, k);
+        runs.setMaxCentroidTerms(MiniBatchKMeans.DEFAULT_MAX_CENTROID_TERMS);
+
+        System.out.printf("%-10s %15s %11s %11s %10s %10s %10s %10s %9s%n", "seeding", "iterations", "mean obj",
+                "best obj", "seed ms", "run ms", "wall ms", "sum ms", "capped");
+        for (KMeansClustering.Seeding seeding : KMeansClustering.Seeding.values()) {
+            runs.setSeeding(seeding);
+            long start = System.nanoTime();
+            runs.run(restarts, 1, threads);
+            long wallNanos = System.nanoTime() - start;
+            IntSummaryStatistics iterations = new IntSummaryStatistics();
+            DoubleSummaryStatistics objective = new DoubleSummaryStatistics();
+            long seedNanos = 0;
+            long runNanos = 0;
+            int capped = 0;
+            for (KMeansRestarts.Restart restart : runs.getRestarts()) {
+                iterations.accept(restart.getIterations());
+                objective.accept(restart.getObjective());
+                seedNanos += restart.getSeedNanos();
+                runNanos += restart.getRunNanos();
+                capped += restart.isConverged() ? 0 : 1;
+            }
+            System.out.printf("%-10s %4d/%5.1f/%4d %11.1f %11.1f %10.1f %10.1f %10.1f %10.1f %9d%n", seeding,
+                    iterations.getMin(), iterations.getAverage(), iterations.getMax(), objective.getAverage(), objective.getMax(),
+                    seedNanos / 1e6 / restarts, runNanos / 1e6 / restarts, wallNanos / 1e6, runNanos / 1e6, capped);
+        }
+    }
+
+    //Cosine k-means with Hamerly's bounds against scoring every record against every centroid, from the same
+    //seed: per-iteration share of skipped similarities, assignment time, and whether both end in the same clusters.
+    //Each path runs twice and the second run is reported, so neither pays for the JIT.
+    static void cosine(int documents, String centroidCounts) {
+        TermDictionary dictionary = new TermDictionary();
+        System.out.printf("%-6s %10s %14s %12s %10s %10s %10s%n", "k", "iterations", "brute ms", "bounded ms", "speed-up", "skipped %", "differing");
+        for (String value : centroidCounts.split(",")) {
+            int k = Integer.parseInt(value.trim());
+            List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, 200, k, new Random(23), dictionary, new int[documents]);
+            CosineKMeans bruteForce = null;
+            CosineKMeans bounded = null;
+            long[] bruteNanos = new long[1];
+            long[] boundedNanos = new long[1];
+            List<String> skippedPerIteration = new ArrayList<>();
+            for (int run = 0; run < 2; run++) {
+                bruteNanos[0] = 0;
+                boundedNanos[0] = 0;
+                skippedPerIteration.clear();
+                bruteForce = new CosineKMeans(records, dictionary, k, 1, 42);
+                bruteForce.setBounds(false);
+                bruteForce.addListener(stats -> bruteNanos[0] += stats.getAssignNanos());
+                bruteForce.cluster();
+
+                bounded = new CosineKMeans(records, dictionary, k, 1, 42);
+                bounded.addListener(stats -> {
+                    boundedNanos[0] += stats.getAssignNanos();
+                    skippedPerIteration.add(String.format("%.0f", 100 * stats.getSkippedFraction()));
+                });
+                bounded.cluster();
+            }
+
+            int[] expected = bruteForce.getAssignment();
+            int[] actual = bounded.getAssignment();
+            int differing = 0;
+            for (int i = 0; i < documents; i++) {
+                if (expected[i] != actual[i]) {
+                    differing++;
+                }
+            }
+            long evaluations = bounded.getEvaluations();
+            long skipped = bounded.getSkippedEvaluations();
+            System.out.printf("%-6d %10d %14.1f %12.1f %9.2fx %10.1f %10d%n", k, bounded.getIterations(), bruteNanos[0] / 1e6,
+                    boundedNanos[0] / 1e6, (double) bruteNanos[0] / boundedNanos[0], 100.0 * skipped / (evaluations + skipped), differing);
+            System.out.println("       skipped % per iteration: " + String.join(" ", skippedPerIteration));
+        }
+    }
+
+    //KMeansClustering from the same seed on 1, 2, 4 and all available threads by default: time per iteration
+    //of the assignment and update steps, speed-up over one thread, and a check that every thread count
+    //puts every record in the same cluster. A warm-up run on one thread goes first, so none pays for the JIT.
+    static void scaling(int documents, int k, String threadCounts) {
+        TermDictionary dictionary = new TermDictionary();
+        List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, 200, k, new Random(24), dictionary, new int[documents]);
+        new KMeansClustering(records, dictionary, k, 1, 42).cluster();
+
+        System.out.printf("%-8s %10s %12s %12s %12s %10s%n", "threads", "iterations", "assign ms/it", "update ms/it", "total ms/it", "speed-up");
+        Map<String, Integer> reference = null;
+        double singleThreaded = 0;
+        TreeSet<Integer> counts = parseThreadCounts(threadCounts);
+        for (int threads : counts) {
+            KMeansClustering kMeans = new KMeansClustering(records, dictionary, k, threads, 42);
+            long[] nanos = new long[2];
+            kMeans.addListener(stats -> {
+                nanos[0] += stats.getAssignNanos();
+                nanos[1] += stats.getUpdateNanos();
+            });
+            kMeans.cluster();
+
+            Map<String, Integer> clusterOf = new HashMap<>();
+            List<Centroid> centroids = kMeans.getCentroids();
+            for (int c = 0; c < centroids.size(); c++) {
+                for (SiteRecord member : kMeans.getClusters().get(centroids.get(c))) {
+                    clusterOf.put(member.getUrl(), c);
+                }
+            }
+            if (reference == null) {
+                reference = clusterOf;
+            } else if (!reference.equals(clusterOf)) {
+                throw new IllegalStateException(threads + " threads assigned records differently from " + counts.first());
+            }
+            int iterations = kMeans.getIterations();
+            double total = (nanos[0] + nanos[1]) / 1e6 / iterations;
+            if (singleThreaded == 0) {
+                singleThreaded = total;
+            }
+            System.out.printf("%-8d %10d %12.1f %12.1f %12.1f %9.2fx%n", threads, iterations, nanos[0] / 1e6 / iterations,
+                    nanos[1] / 1e6 / iterations, total, singleThreaded / total);
+        }
+    }
+
+    //"1,2,4" into distinct thread counts, or 1, 2, 4 and the available processors when empty
+    private static TreeSet<Integer> parseThreadCounts(String threadCounts) {
+        TreeSet<Integer> counts = new TreeSet<>();
+        if (threadCounts.isEmpty()) {
+            Collections.addAll(counts, 1, 2, 4, Runtime.getRuntime().availableProcessors());
+            return counts;
+        }
+        for (String value : threadCounts.split(",")) {
+            int threads = Integer.parseInt(value.trim());
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be at least 1");
+            }
+            counts.add(threads);
+        }
+        return counts;
+    }
+
+    //The same topic corpus clustered from full records and from records pruned to an IdfTable: vocabulary,
+    //encoded bytes per record, time per iteration of both k-means flavours, and the share of records that
+    //land in a cluster whose most common topic is their own. Every page also gets a tail of rare words,
+    //names and typos, as crawled pages have. Cosine runs without bounds, so its time per iteration
+    //reflects the length of the vectors rather than how many similarities the bounds skip.
+    static void pruning(int documents, int k, int minDf, double maxDf, int maxTerms) throws IOException {
+        TermDictionary dictionary = new TermDictionary();
+        //warm up both clusterings so neither row pays for the JIT
+        List<SiteRecord> warmup = SyntheticCorpus.topicRecords(2_000, 200, k, new Random(1), dictionary, new int[2_000]);
+        new KMeansClustering(warmup, dictionary, k, 1, 1).cluster();
+        CosineKMeans warmupCosine = new CosineKMeans(warmup, dictionary, k, 1, 1);
+        warmupCosine.setBounds(false);
+        warmupCosine.cluster();
+
+        int[] topics = new int[documents];
+        List<SiteRecord> records = new ArrayList<>(documents);
+        Random random = new Random(24);
+        for (SiteRecord record : SyntheticCorpus.topicRecords(documents, 200, k, random, dictionary, topics)) {
+            HashMap<String, Integer> words = new HashMap<>(record.getWordFrequency());
+            for (int i = 0; i < 40; i++) {
+                words.merge("rare" + random.nextInt(2_000_000), 1, Integer::sum);
+            }
+            SiteRecord noisy = new SiteRecord(record.getUrl(), words);
+            noisy.index(dictionary);
+            records.add(noisy);
+        }
+        int[] documentFrequency = new int[dictionary.size()];
+        for (SiteRecord record : records) {
+            for (int termId : record.getTermIds()) {
+                documentFrequency[termId]++;
+            }
+        }
+        IdfTable table = IdfTable.build(documents, documentFrequency, minDf, maxDf, maxTerms);
+        List<SiteRecord> pruned = new ArrayList<>(documents);
+        for (SiteRecord record : records) {
+            pruned.add(table.prune(record));
+        }
+        int vocabulary = 0;
+        for (int df : documentFrequency) {
+            vocabulary += df > 0 ? 1 : 0;
+        }
+        System.out.println(table);
+
+        System.out.printf("%-8s %10s %10s %10s %12s %10s %10s %12s %10s%n", "records", "terms", "bytes/rec", "overlap it",
+                "ms/iteration", "purity", "cosine it", "ms/iteration", "purity");
+        for (boolean prune : new boolean[]{false, true}) {
+            List<SiteRecord> corpus = prune ? pruned : records;
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(encoded)) {
+                for (SiteRecord record : corpus) {
+                    record.writeTo(out, dictionary);
+                }
+            }
+
+            KMeansClustering overlap = new KMeansClustering(corpus, dictionary, k, 1, 42);
+            long[] overlapNanos = new long[1];
+            overlap.addListener(stats -> overlapNanos[0] += stats.getAssignNanos() + stats.getUpdateNanos());
+            overlap.cluster();
+            int[] overlapAssignment = new int[documents];
+            List<Centroid> centroids = overlap.getCentroids();
+            Map<String, Integer> clusterOf = new HashMap<>();
+            for (int c = 0; c < centroids.size(); c++) {
+                for (SiteRecord member : overlap.getClusters().get(centroids.get(c))) {
+                    clusterOf.put(member.getUrl(), c);
+                }
+            }
+            for (int i = 0; i < documents; i++) {
+                overlapAssignment[i] = clusterOf.get(corpus.get(i).getUrl());
+            }
+
+            CosineKMeans cosine = prune ? new CosineKMeans(corpus, dictionary, table, k, 1, 42) : new CosineKMeans(corpus, dictionary, k, 1, 42);
+            cosine.setBounds(false);
+            long[] cosineNanos = new long[1];
+            cosine.addListener(stats -> cosineNanos[0] += stats.getAssignNanos() + stats.getUpdateNanos());
+            cosine.cluster();
+
+            System.out.printf("%-8s %10d %10.1f %10d %12.2f %10.3f %10d %12.2f %10.3f%n", prune ? "pruned" : "full",
+                    prune ? table.size() : vocabulary, (double) encoded.size() / documents,
+                    overlap.getIterations(), overlapNanos[0] / 1e6 / overlap.getIterations(), purity(overlapAssignment, topics, k),
+                    cosine.getIterations(), cosineNanos[0] / 1e6 / cosine.getIterations(), purity(cosine.getAssignment(), topics, k));
+        }
+    }
+
+    //Feature-hashed min-sums against the sparse centroid index. Against the centroids of a sparse run: how
+    //often the dense argmax is the sparse one, and the time to score every record against every centroid on
+    //the scalar and the best kernel. Then a whole run per configuration, its centroids scored with the exact
+    //measure, against the sparse run.
+    static void hashing(int documents, int k, String dimensions, String nonZeroCounts) throws Exception {
+        TermDictionary dictionary = new TermDictionary();
+        List<SiteRecord> records = SyntheticCorpus.topicRecords(documents, 200, k, new Random(25), dictionary, new int[documents]);
+        KMeansClustering sparse = new KMeansClustering(records, dictionary, k, 1, 42);
+        sparse.cluster();
+        List<Centroid> centroids = new ArrayList<>(sparse.getCentroids());
+        double sparseQuality = meanSimilarity(centroids, records);
+
+        CentroidIndex index = new CentroidIndex(centroids);
+        double[] similarities = new double[k];
+        int[] expected = new int[documents];
+        double[] sparseNanos = new double[1];
+        measure(sparseNanos, documents, () -> {
+            for (int i = 0; i < documents; i++) {
+                index.score(records.get(i), similarities);
+                expected[i] = argMax(similarities);
+            }
+            return expected[documents - 1];
+        });
+        DenseKernel best = DenseKernel.best();
+        System.out.printf("%d records, k=%d, sparse index %.2f us/record, %d iterations, quality %.4f; best kernel: %s%n",
+                documents, k, sparseNanos[0] / 1e3, sparse.getIterations(), sparseQuality, best.name());
+        System.out.printf("%-10s %9s %11s %12s %12s %9s %11s %9s%n", "dimension", "nonZeros", "agreement",
+                "scalar us/r", "kernel us/r", "speed-up", "iterations", "gap %");
+        for (String nonZeroValue : nonZeroCounts.split(",")) {
+            int nonZeros = Integer.parseInt(nonZeroValue.trim());
+            for (String value : dimensions.split(",")) {
+                int dimension = Integer.parseInt(value.trim());
+                FeatureHasher hasher = new FeatureHasher(dimension, nonZeros, 42);
+                float[] rows = hasher.hashAll(records);
+                float[] centroidRows = hasher.hashAll(centroids, null);
+                int[] actual = new int[documents];
+                double[] kernelNanos = new double[2];
+                DenseKernel[] kernels = {DenseKernel.scalar(), best};
+                for (int kernelIndex = 0; kernelIndex < kernels.length; kernelIndex++) {
+                    DenseKernel kernel = kernels[kernelIndex];
+                    double[] nanos = new double[1];
+                    measure(nanos, documents, () -> {
+                        for (int i = 0; i < documents; i++) {
+                            long total = records.get(i).getTotalCount();
+                            for (int c = 0; c < k; c++) {
+                                float common = kernel.minSum(rows, i * dimension, centroidRows, c * dimension, dimension);
+                                similarities[c] = common / Math.min(total, centroids.get(c).getTotalWeight());
+                            }
+                            actual[i] = argMax(similarities);
+                        }
+                        return actual[documents - 1];
+                    });
+                    kernelNanos[kernelIndex] = nanos[0];
+                }
+                int agreeing = 0;
+                for (int i = 0; i < documents; i++) {
+                    agreeing += expected[i] == actual[i] ? 1 : 0;
+                }
+
+                KMeansClustering hashed = new KMeansClustering(records, dictionary, k, 1, 42);
+                hashed.setFeatureHashing(dimension, nonZeros);
+                hashed.cluster();
+                double quality = meanSimilarity(hashed.getCentroids(), records);
+                System.out.printf("%-10d %9d %10.2f%% %12.2f %12.2f %8.2fx %11d %9.2f%n", dimension, nonZeros,
+                        100.0 * agreeing / documents, kernelNanos[0] / 1e3, kernelNanos[1] / 1e3, sparseNanos[0] / kernelNanos[1],
+                        hashed.getIterations(), 100 * (sparseQuality - quality) / sparseQuality);
+            }
+        }
+    }
+
+    private static int argMax(double[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    //Share of the records whose cluster's most common topic is their own
+    private static double purity(int[] assignment, int[] topics, int k) {
+        int clusters = Arrays.stream(assignment).max().orElse(0) + 1;
+        int[][] counts = new int[clusters][k];
+        for (int i = 0; i < assignment.length; i++) {
+            counts[assignment[i]][topics[i]]++;
+        }
+        long majority = 0;
+        for (int[] cluster : counts) {
+            majority += Arrays.stream(cluster).max().orElse(0);
+        }
+        return (double) majority / assignment.length;
+    }
+
+    private static double meanSimilarity(List<Centroid> centroids, List<SiteRecord> records) {
+        CentroidIndex index = new CentroidIndex(centroids);
+        double[] similarities = new double[centroids.size()];
+        double total = 0;
+        for (SiteRecord record : records) {
+            index.score(record, similarities);
+            total += Arrays.stream(similarities).max().getAsDouble();
+        }
+        return total / records.size();
+    }
+
+    private static Centroid meanCentroid(List<SiteRecord> records, int members, Random random, TermDictionary dictionary) {
+        TreeMap<Integer, Long> sums = new TreeMap<>();
+        for (int m = 0; m < members; m++) {
+            SiteRecord record = records.get(random.nextInt(records.size()));
+            for (int i = 0; i < record.getTermIds().length; i++) {
+                sums.merge(record.getTermIds()[i], (long) record.getCounts()[i], Long::sum);
+            }
+        }
+        int[] termIds = new int[sums.size()];
+        float[] weights = new float[sums.size()];
+        int n = 0;
+        for (Map.Entry<Integer, Long> entry : sums.entrySet()) {
+            termIds[n] = entry.getKey();
+            weights[n++] = (float) ((double) entry.getValue() / members);
+        }
+        return new Centroid("mean", dictionary, termIds, weights);
+    }
+
+    private interface Task {
+        //the result only feeds a sink so the work cannot be optimised away
+        long run() throws Exception;
+    }
+
+    //Three warm-up rounds, then one score per measured round
+    private static void measure(double[] nanosPerOp, int operations, Task task) throws Exception {
+        long sink = 0;
+        for (int round = 0; round < 3 + nanosPerOp.length; round++) {
+            long start = System.nanoTime();
+            sink += task.run();
+            long elapsed = System.nanoTime() - start;
+            if (round >= 3) {
+                nanosPerOp[round - 3] = (double) elapsed / operations;
+            }
+        }
+        System.err.println("(sink " + sink + ")");
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+//Side-by-side measurements of the ingest paths: word counting, word-count maps, shared statistics and
+//block formats. Each prints a table comparing the current structure with what it replaced.
+public class IngestBenchmarks {
+
+    private IngestBenchmarks() {
+    }
+
+    //Legacy split/regex counting against Tokenizer over a file of paragraph text, one paragraph per line
+    static void tokenizer(String paragraphFile, int rounds) throws Exception {
+        List<String> paragraphs = Files.readAllLines(Paths.get(paragraphFile)).stream()
+                .filter(line -> !line.isBlank())
+                .collect(Collectors.toList());
+        long chars = paragraphs.stream().mapToLong(String::length).sum();
+        Set<String> stopWords = new HashSet<>(Arrays.asList("a", "the", "in", "at", "on", "of", "and", "to", "by",
+                "have", "it", "for", "as", "or", "there", "what", "can", "use", "because", "most", "more", "be",
+                "with", "may", "these", "is"));
+
+        //warm up both paths before timing
+        long sink = 0;
+        for (int i = 0; i < 3; i++) {
+            sink += legacyCount(paragraphs, stopWords).size();
+            sink += tokenizerCount(paragraphs, stopWords).size();
+        }
+
+        long legacyNanos = 0;
+        long tokenizerNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            sink += legacyCount(paragraphs, stopWords).size();
+            legacyNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            sink += tokenizerCount(paragraphs, stopWords).size();
+            tokenizerNanos += System.nanoTime() - start;
+        }
+        report("legacy split/matches", chars * rounds, legacyNanos);
+        report("Tokenizer", chars * rounds, tokenizerNanos);
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    //the counting loop analyzeWebsite used before Tokenizer
+    private static Map<String, Integer> legacyCount(List<String> paragraphs, Set<String> stopWords) {
+        Map<String, Integer> wordFrequency = new HashMap<>();
+        for (String paragraph : paragraphs) {
+            String text = paragraph.toLowerCase();
+            for (String word : text.split("\\s+")) {
+                if (!stopWords.contains(word) && word.matches("^[a-zA-Z]*$")) {
+                    wordFrequency.put(word, wordFrequency.getOrDefault(word, 0) + 1);
+                }
+            }
+        }
+        return wordFrequency;
+    }
+
+    private static Map<String, Integer> tokenizerCount(List<String> paragraphs, Set<String> stopWords) {
+        Tokenizer tokenizer = new Tokenizer(stopWords);
+        for (String paragraph : paragraphs) {
+            tokenizer.tokenize(paragraph);
+        }
+        return tokenizer.toHashMap();
+    }
+
+    //Word-count workload (Zipf-distributed addTo, then get) on CHT, HashMap and StringIntMap
+    static void maps(int distinctWords, int operations) {
+        String[] words = new String[distinctWords];
+        for (int i = 0; i < distinctWords; i++) {
+            words[i] = SyntheticCorpus.syntheticWord(i);
+        }
+        int[] stream = SyntheticCorpus.zipfStream(distinctWords, operations, new Random(42));
+
+        System.out.printf("%-14s %12s %12s %14s%n", "map", "addTo Mops/s", "get Mops/s", "bytes/entry");
+        for (int round = 0; round < 3; round++) {
+            //each map lives only inside its own method so the heap deltas don't overlap
+            long[] cht = chtWordCount(words, stream);
+            long[] hashMap = hashMapWordCount(words, stream);
+            long[] primitive = stringIntMapWordCount(words, stream);
+            if (round == 2) {
+                mapReport("CHT", operations, cht, distinctWords);
+                mapReport("HashMap", operations, hashMap, distinctWords);
+                mapReport("StringIntMap", operations, primitive, distinctWords);
+            }
+        }
+    }
+
+    //each returns {addTo nanos, get nanos, retained bytes, checksum}
+    private static long[] chtWordCount(String[] words, int[] stream) {
+        CHT<String, Integer> map = new CHT<>();
+        long start = System.nanoTime();
+        for (int w : stream) {
+            map.put(words[w], map.getOrDefault(words[w], 0) + 1);
+        }
+        long addNanos = System.nanoTime() - start;
+        long withMap = SyntheticCorpus.usedHeap();
+        start = System.nanoTime();
+        long sum = 0;
+        for (int w : stream) {
+            sum += map.get(words[w]);
+        }
+        long getNanos = System.nanoTime() - start;
+        //retained size is what the heap loses once the map becomes garbage
+        map = null;
+        return new long[]{addNanos, getNanos, withMap - SyntheticCorpus.usedHeap(), sum};
+    }
+
+    private static long[] hashMapWordCount(String[] words, int[] stream) {
+        HashMap<String, Integer> map = new HashMap<>();
+        long start = System.nanoTime();
+        for (int w : stream) {
+            map.merge(words[w], 1, Integer::sum);
+        }
+        long addNanos = System.nanoTime() - start;
+        long withMap = SyntheticCorpus.usedHeap();
+        start = System.nanoTime();
+        long sum = 0;
+        for (int w : stream) {
+            sum += map.get(words[w]);
+        }
+        long getNanos = System.nanoTime() - start;
+        //retained size is what the heap loses once the map becomes garbage
+        map = null;
+        return new long[]{addNanos, getNanos, withMap - SyntheticCorpus.usedHeap(), sum};
+    }
+
+    private static long[] stringIntMapWordCount(String[] words, int[] stream) {
+        StringIntMap map = new StringIntMap();
+        long start = System.nanoTime();
+        for (int w : stream) {
+            map.addTo(words[w], 1);
+        }
+        long addNanos = System.nanoTime() - start;
+        long withMap = SyntheticCorpus.usedHeap();
+        start = System.nanoTime();
+        long sum = 0;
+        for (int w : stream) {
+            sum += map.get(words[w]);
+        }
+        long getNanos = System.nanoTime() - start;
+        //retained size is what the heap loses once the map becomes garbage
+        map = null;
+        return new long[]{addNanos, getNanos, withMap - SyntheticCorpus.usedHeap(), sum};
+    }
+
+    private static void mapReport(String name, int operations, long[] result, int entries) {
+        System.out.printf("%-14s %12.1f %12.1f %14.1f   (checksum %d)%n", name,
+                operations / (result[0] / 1e3), operations / (result[1] / 1e3), (double) result[2] / entries, result[3]);
+    }
+
+    //Stress test and contention benchmark: T writers add Zipf-distributed words into one ConcurrentCHT,
+    //then the totals are checked against the exact expected counts. A single-lock CHT is the baseline.
+    static void concurrentCht(int distinctWords, int operationsPerThread) throws Exception {
+        String[] words = new String[distinctWords];
+        for (int i = 0; i < distinctWords; i++) {
+            words[i] = SyntheticCorpus.syntheticWord(i);
+        }
+        System.out.printf("%8s %22s %22s%n", "threads", "ConcurrentCHT Mops/s", "synchronized CHT Mops/s");
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            int[][] streams = new int[threads][];
+            long[] expected = new long[distinctWords];
+            for (int t = 0; t < threads; t++) {
+                streams[t] = SyntheticCorpus.zipfStream(distinctWords, operationsPerThread, new Random(t));
+                for (int w : streams[t]) {
+                    expected[w]++;
+                }
+            }
+
+            ConcurrentCHT<String, Integer> striped = new ConcurrentCHT<>();
+            long stripedNanos = runWriters(streams, w -> striped.merge(words[w], 1, Integer::sum));
+            for (int w = 0; w < distinctWords; w++) {
+                if (striped.getOrDefault(words[w], 0) != expected[w]) {
+                    throw new IllegalStateException("Lost update for " + words[w] + " with " + threads + " threads");
+                }
+            }
+
+            CHT<String, Integer> locked = new CHT<>();
+            long lockedNanos = runWriters(streams, w -> {
+                synchronized (locked) {
+                    locked.put(words[w], locked.getOrDefault(words[w], 0) + 1);
+                }
+            });
+
+            long operations = (long) threads * operationsPerThread;
+            System.out.printf("%8d %22.2f %22.2f%n", threads, operations / (stripedNanos / 1e3), operations / (lockedNanos / 1e3));
+        }
+        System.out.println("All counts exact.");
+    }
+
+    private static long runWriters(int[][] streams, java.util.function.IntConsumer add) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int[] stream : streams) {
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int w : stream) {
+                    add.accept(w);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    //Size and decode speed of one block in Java serialization versus the compact BlockCodec format
+    static void codec(int records, int wordsPerRecord) throws Exception {
+        List<SiteRecord> block = SyntheticCorpus.syntheticRecords(records, wordsPerRecord, 50_000, new Random(7));
+        TermDictionary dictionary = new TermDictionary();
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(new ArrayList<>(block));
+        }
+        byte[] legacy = serialized.toByteArray();
+        byte[] compact = BlockCodec.encode(block, dictionary);
+        if (!BlockCodec.decode(compact, dictionary).get(0).getWordFrequency().equals(block.get(0).getWordFrequency())) {
+            throw new IllegalStateException("Compact block does not round-trip");
+        }
+
+        int rounds = 50;
+        long sink = 0;
+        long legacyNanos = 0;
+        long compactNanos = 0;
+        for (int round = 0; round < rounds + 5; round++) {
+            long start = System.nanoTime();
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(legacy))) {
+                sink += ((List<?>) in.readObject()).size();
+            }
+            long mid = System.nanoTime();
+            sink += BlockCodec.decode(compact, dictionary).size();
+            long end = System.nanoTime();
+            //first rounds are warm-up
+            if (round >= 5) {
+                legacyNanos += mid - start;
+                compactNanos += end - mid;
+            }
+        }
+        System.out.printf("%-20s %14s %16s%n", "format", "bytes/record", "decode records/s");
+        System.out.printf("%-20s %14.1f %16.0f%n", "Java serialization", (double) legacy.length / records, records * rounds / (legacyNanos / 1e9));
+        System.out.printf("%-20s %14.1f %16.0f%n", "BlockCodec", (double) compact.length / records, records * rounds / (compactNanos / 1e9));
+        System.out.printf("decode MB/s of logical data (legacy size basis): %.1f vs %.1f   (checksum %d)%n",
+                legacy.length * (double) rounds / (legacyNanos / 1e9) / (1024 * 1024),
+                legacy.length * (double) rounds / (compactNanos / 1e9) / (1024 * 1024), sink);
+    }
+
+    //Ratio and load time of a store of 202-record blocks under each codec. Cold numbers need permission
+    //to write /proc/sys/vm/drop_caches (root on Linux); otherwise only the warm page cache is measured.
+    static void compression(int blocks, int wordsPerRecord) throws Exception {
+        TermDictionary dictionary = new TermDictionary();
+        List<List<SiteRecord>> corpus = new ArrayList<>();
+        Random random = new Random(11);
+        for (int b = 0; b < blocks; b++) {
+            corpus.add(SyntheticCorpus.syntheticRecords(202, wordsPerRecord, 50_000, random));
+        }
+        File directory = Files.createTempDirectory("block-compression").toFile();
+
+        long[] storedBytes = new long[BlockCodec.Compression.values().length];
+        for (BlockCodec.Compression compression : BlockCodec.Compression.values()) {
+            for (int b = 0; b < blocks; b++) {
+                String file = new File(directory, compression + "_" + b + ".dat").getPath();
+                BlockCodec.write(file, corpus.get(b), dictionary, compression);
+                storedBytes[compression.ordinal()] += new File(file).length();
+            }
+        }
+        //untimed passes warm the page cache and the JIT for every codec
+        for (int round = 0; round < 3; round++) {
+            for (BlockCodec.Compression compression : BlockCodec.Compression.values()) {
+                loadBlocks(directory, compression, blocks, dictionary);
+            }
+        }
+
+        long rawBytes = storedBytes[BlockCodec.Compression.NONE.ordinal()];
+        System.out.printf("%-8s %10s %8s %12s %12s%n", "codec", "MB stored", "ratio", "warm load ms", "cold load ms");
+        for (BlockCodec.Compression compression : BlockCodec.Compression.values()) {
+            long stored = storedBytes[compression.ordinal()];
+            long warm = loadBlocks(directory, compression, blocks, dictionary);
+            String cold = dropPageCache() ? String.valueOf(loadBlocks(directory, compression, blocks, dictionary) / 1_000_000) : "n/a";
+            System.out.printf("%-8s %10.2f %8.2f %12d %12s%n", compression, stored / (1024.0 * 1024),
+                    (double) rawBytes / stored, warm / 1_000_000, cold);
+        }
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static long loadBlocks(File directory, BlockCodec.Compression compression, int blocks, TermDictionary dictionary) throws Exception {
+        long start = System.nanoTime();
+        long records = 0;
+        for (int b = 0; b < blocks; b++) {
+            records += BlockCodec.read(new File(directory, compression + "_" + b + ".dat").getPath(), dictionary).size();
+        }
+        if (records != blocks * 202L) {
+            throw new IllegalStateException("Lost records: " + records);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static boolean dropPageCache() {
+        try (FileWriter out = new FileWriter("/proc/sys/vm/drop_caches")) {
+            out.write("3");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void report(String name, long chars, long nanos) {
+        System.out.printf("%-24s %8.1f MB/s%n", name, chars / (nanos / 1e9) / (1024 * 1024));
+    }
+}
@@ -0,0 +1,125 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+//Synthetic corpora shared by the benchmarks: Zipf-distributed words over a fixed vocabulary, with or
+//without topics, as word maps or straight from term ids
+public class SyntheticCorpus {
+
+    public static final int VOCABULARY = 50_000;
+
+    private SyntheticCorpus() {
+    }
+
+    //records whose words follow a Zipf distribution over a fixed vocabulary
+    static List<SiteRecord> syntheticRecords(int records, int wordsPerRecord, int vocabulary, Random random) {
+        String[] words = new String[vocabulary];
+        for (int i = 0; i < vocabulary; i++) {
+            words[i] = syntheticWord(i);
+        }
+        List<SiteRecord> list = new ArrayList<>(records);
+        for (int r = 0; r < records; r++) {
+            HashMap<String, Integer> wordFrequency = new HashMap<>();
+            for (int w : zipfStream(vocabulary, wordsPerRecord, random)) {
+                wordFrequency.merge(words[w], 1, Integer::sum);
+            }
+            list.add(new SiteRecord("https://en.wikipedia.org/wiki/Synthetic_" + r, wordFrequency));
+        }
+        return list;
+    }
+
+    //Zipf documents where most words come from the topic's own ranking of the vocabulary
+    static List<SiteRecord> topicRecords(int documents, int wordsPerDocument, int k, Random random, TermDictionary dictionary, int[] topics) {
+        double[] zipf = zipfCumulative(VOCABULARY);
+        List<SiteRecord> records = new ArrayList<>(documents);
+        for (int d = 0; d < documents; d++) {
+            topics[d] = random.nextInt(k);
+            HashMap<String, Integer> words = new HashMap<>();
+            int[] ranks = zipfStream(zipf, wordsPerDocument, random);
+            for (int i = 0; i < ranks.length; i++) {
+                //every topic rotates the vocabulary, so each has its own most frequent words
+                int word = random.nextDouble() < 0.3 ? ranks[i] : (ranks[i] + topics[d] * (VOCABULARY / k)) % VOCABULARY;
+                words.merge(syntheticWord(word), 1, Integer::sum);
+            }
+            SiteRecord record = new SiteRecord("https://en.wikipedia.org/wiki/Topic_" + topics[d] + "_" + d, words);
+            record.index(dictionary);
+            records.add(record);
+        }
+        return records;
+    }
+
+    //indexed records straight from term ids, so a million of them fit in a modest heap
+    static List<SiteRecord> zipfRecords(int documents, int wordsPerDocument, double[] zipf, Random random, TermDictionary dictionary) {
+        List<SiteRecord> records = new ArrayList<>(documents);
+        for (int d = 0; d < documents; d++) {
+            records.add(zipfRecord(d, wordsPerDocument, zipf, random, dictionary));
+        }
+        return records;
+    }
+
+    static SiteRecord zipfRecord(int d, int wordsPerDocument, double[] zipf, Random random, TermDictionary dictionary) {
+        int[] ranks = zipfStream(zipf, wordsPerDocument, random);
+        Arrays.sort(ranks);
+        int[] termIds = new int[ranks.length];
+        int[] counts = new int[ranks.length];
+        int n = 0;
+        for (int i = 0; i < ranks.length; i++) {
+            if (n > 0 && termIds[n - 1] == ranks[i]) {
+                counts[n - 1]++;
+            } else {
+                termIds[n] = ranks[i];
+                counts[n++] = 1;
+            }
+        }
+        //ranks double as term ids once the dictionary holds the words in rank order
+        while (dictionary.size() < zipf.length) {
+            dictionary.idOf(syntheticWord(dictionary.size()));
+        }
+        return new SiteRecord("https://en.wikipedia.org/wiki/Synthetic_" + d, dictionary,
+                Arrays.copyOf(termIds, n), Arrays.copyOf(counts, n));
+    }
+
+    //lowercase letters only, like the words the tokenizer produces
+    static String syntheticWord(int i) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return word.toString();
+    }
+
+    //ranks drawn with probability proportional to 1/rank, like word frequencies in natural text
+    static int[] zipfStream(int distinct, int length, Random random) {
+        return zipfStream(zipfCumulative(distinct), length, random);
+    }
+
+    //the cumulative weights are worth sharing when many short streams are drawn
+    static int[] zipfStream(double[] cumulative, int length, Random random) {
+        int distinct = cumulative.length;
+        double total = cumulative[distinct - 1];
+        int[] stream = new int[length];
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            stream[i] = Math.min(distinct - 1, index >= 0 ? index : -index - 1);
+        }
+        return stream;
+    }
+
+    static double[] zipfCumulative(int distinct) {
+        double[] cumulative = new double[distinct];
+        double total = 0;
+        for (int i = 0; i < distinct; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    //heap in use after asking for a few collections; good enough for per-entry estimates
+    static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
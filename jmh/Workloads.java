@@ -0,0 +1,190 @@
+import benchmarks.Workload;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Stream;
+
+//The workloads of the JMH benchmarks in the benchmarks package, built over a Zipf corpus of the given size.
+//Those that need a store write it to the working directory, like Loader does, and delete it again on close;
+//the jmh build task runs them in an empty directory under build/.
+public class Workloads {
+
+    //pairs, words and probes are drawn up front and cycled through, so drawing them is not timed; the
+    //counters wrap after 2^31 calls, hence floorMod where the length is not a power of two
+    private static final int DRAWS = 1 << 20;
+    //documents of text kept for the tokenizer, enough to defeat the caches without holding the whole corpus
+    private static final int TEXTS = 10_000;
+
+    private Workloads() {
+    }
+
+    public static Workload create(String name, int documents, int wordsPerDocument) {
+        return create(name, documents, wordsPerDocument, 1);
+    }
+
+    //threads only changes the workloads that run on worker threads, kmeans-iteration
+    public static Workload create(String name, int documents, int wordsPerDocument, int threads) {
+        Random random = new Random(documents);
+        TermDictionary dictionary = new TermDictionary();
+        double[] zipf = SyntheticCorpus.zipfCumulative(SyntheticCorpus.VOCABULARY);
+        switch (name) {
+            case "similarity": {
+                //random pairs, so the cost is not flattered by one record staying in cache
+                List<SiteRecord> records = SyntheticCorpus.zipfRecords(documents, wordsPerDocument, zipf, random, dictionary);
+                int[] left = new int[DRAWS];
+                int[] right = new int[DRAWS];
+                for (int i = 0; i < DRAWS; i++) {
+                    left[i] = random.nextInt(documents);
+                    right[i] = random.nextInt(documents);
+                }
+                int[] next = new int[1];
+                return () -> {
+                    int pair = next[0]++ & (DRAWS - 1);
+                    return Double.doubleToRawLongBits(KMeansClustering.calculateSimilarity(records.get(left[pair]), records.get(right[pair])));
+                };
+            }
+            case "cht": {
+                //a get and a put per word, the pattern of a document-frequency count
+                String[] words = new String[SyntheticCorpus.VOCABULARY];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = SyntheticCorpus.syntheticWord(i);
+                }
+                int[] stream = SyntheticCorpus.zipfStream(zipf, (int) Math.min((long) documents * wordsPerDocument, DRAWS), random);
+                CHT<String, Integer> cht = new CHT<>();
+                int[] next = new int[1];
+                return () -> {
+                    String word = words[stream[Math.floorMod(next[0]++, stream.length)]];
+                    Integer count = cht.get(word);
+                    cht.put(word, count == null ? 1 : count + 1);
+                    return cht.size();
+                };
+            }
+            case "tokenizer": {
+                //one document of text built from the corpus words per call, counted the way Loader counts a page
+                String[] texts = new String[Math.min(documents, TEXTS)];
+                for (int d = 0; d < texts.length; d++) {
+                    StringBuilder text = new StringBuilder();
+                    for (int w : SyntheticCorpus.zipfStream(zipf, wordsPerDocument, random)) {
+                        text.append(w % 17 == 0 ? "The " : "").append(SyntheticCorpus.syntheticWord(w)).append(w % 11 == 0 ? ".\n" : " ");
+                    }
+                    texts[d] = text.toString();
+                }
+                Tokenizer tokenizer = Loader.newTokenizer();
+                int[] next = new int[1];
+                return () -> {
+                    tokenizer.reset();
+                    tokenizer.tokenize(texts[Math.floorMod(next[0]++, texts.length)]);
+                    return tokenizer.distinctWords();
+                };
+            }
+            case "get-record": {
+                StoredCorpus corpus = new StoredCorpus(documents, wordsPerDocument, zipf, random, dictionary);
+                List<String> urls = new ArrayList<>(corpus.table.getUrls());
+                String[] probes = new String[Math.min(documents, DRAWS)];
+                for (int i = 0; i < probes.length; i++) {
+                    probes[i] = urls.get(random.nextInt(urls.size()));
+                }
+                int[] next = new int[1];
+                return corpus.with(() -> corpus.table.getRecord(probes[Math.floorMod(next[0]++, probes.length)]).getTermIds().length);
+            }
+            case "scan": {
+                StoredCorpus corpus = new StoredCorpus(documents, wordsPerDocument, zipf, random, dictionary);
+                return corpus.with(() -> {
+                    long terms = 0;
+                    try (BlockScanner scanner = corpus.table.scan()) {
+                        while (scanner.hasNext()) {
+                            terms += scanner.next().getTermIds().length;
+                        }
+                    }
+                    return terms;
+                });
+            }
+            case "parallel-scan": {
+                StoredCorpus corpus = new StoredCorpus(documents, wordsPerDocument, zipf, random, dictionary);
+                return corpus.with(() -> {
+                    try (Stream<SiteRecord> records = corpus.table.scan().stream(true)) {
+                        return records.mapToLong(record -> record.getTermIds().length).sum();
+                    }
+                });
+            }
+            case "kmeans-iteration": {
+                StoredCorpus corpus = new StoredCorpus(documents, wordsPerDocument, zipf, random, dictionary);
+                ClusterModel initial = new KMeansClustering(5, corpus.table, 1, 42).toModel();
+                KMeansClustering[] fresh = new KMeansClustering[1];
+                return new Workload() {
+                    @Override
+                    public void prepare() {
+                        if (fresh[0] != null) {
+                            fresh[0].stopWorkers();
+                        }
+                        fresh[0] = new KMeansClustering(initial, corpus.table, threads);
+                        fresh[0].startWorkers();
+                    }
+
+                    @Override
+                    public long run() {
+                        return fresh[0].iterate() ? 1 : 0;
+                    }
+
+                    @Override
+                    public void close() {
+                        if (fresh[0] != null) {
+                            fresh[0].stopWorkers();
+                        }
+                        corpus.delete();
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown workload " + name);
+        }
+    }
+
+    //A corpus streamed through a Loader into 202-record blocks in the working directory
+    private static final class StoredCorpus {
+        final PersistentHashTable table;
+        private final Set<String> existing;
+
+        StoredCorpus(int documents, int wordsPerDocument, double[] zipf, Random random, TermDictionary dictionary) {
+            if (new File("persistent_hashtable.dat").exists()) {
+                throw new IllegalStateException("The working directory already holds a store; run the benchmarks from an empty directory");
+            }
+            existing = new HashSet<>(Arrays.asList(directory().list()));
+            Loader loader = new Loader(202);
+            PersistentHashTable written = new PersistentHashTable();
+            for (int d = 0; d < documents; d++) {
+                loader.addSiteRecord(SyntheticCorpus.zipfRecord(d, wordsPerDocument, zipf, random, dictionary), written);
+            }
+            loader.flush();
+            written.saveToFile("persistent_hashtable.dat");
+            table = PersistentHashTable.loadFromFile("persistent_hashtable.dat");
+        }
+
+        Workload with(Workload operation) {
+            return new Workload() {
+                @Override
+                public long run() throws Exception {
+                    return operation.run();
+                }
+
+                @Override
+                public void close() {
+                    delete();
+                }
+            };
+        }
+
+        //every file that was not there before the corpus was written
+        void delete() {
+            for (File file : directory().listFiles()) {
+                if (!existing.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+
+        private static File directory() {
+            return new File(System.getProperty("user.dir"));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//Average time of one operation on each hot path over Zipf corpora of 1k, 100k and 1M documents:
+//a similarity between two random records, a CHT get and put, tokenizing one document, a record lookup,
+//and a sequential and a parallel scan of the whole store
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+
+    @Param({"similarity", "cht", "tokenizer", "get-record", "scan", "parallel-scan"})
+    public String workload;
+
+    @Param({"1000", "100000", "1000000"})
+    public int documents;
+
+    @Param({"100"})
+    public int wordsPerDocument;
+
+    private Workload state;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        state = Workload.create(workload, documents, wordsPerDocument);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        state.close();
+    }
+
+    @Benchmark
+    public long run() throws Exception {
+        return state.run();
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//One KMeansClustering iteration over a stored corpus, on each number of worker threads. Later iterations
+//converge and get cheaper, so every call starts again from the same centroids, restored outside the timed region.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KMeansIterationBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int documents;
+
+    @Param({"100"})
+    public int wordsPerDocument;
+
+    //worker threads of the assignment step; Benchmarks scaling also checks they agree on the clusters
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private Workload state;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        state = Workload.create("kmeans-iteration", documents, wordsPerDocument, threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void restart() throws Exception {
+        state.prepare();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        state.close();
+    }
+
+    @Benchmark
+    public long iterate() throws Exception {
+        return state.run();
+    }
+}
@@ -0,0 +1,35 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+
+//One hot path of the clustering tree, prepared over a synthetic corpus. JMH only runs benchmarks from a
+//named package and the tree lives in the default package, which named packages cannot import, so the
+//workloads are built by the default-package class Workloads and reached through this interface.
+public interface Workload extends AutoCloseable {
+
+    //untimed, before every measured call
+    default void prepare() throws Exception {
+    }
+
+    //one operation; the result goes to JMH's blackhole so the work cannot be optimised away
+    long run() throws Exception;
+
+    //removes the files the workload wrote
+    @Override
+    default void close() throws Exception {
+    }
+
+    static Workload create(String name, int documents, int wordsPerDocument) throws Exception {
+        return create(name, documents, wordsPerDocument, 1);
+    }
+
+    static Workload create(String name, int documents, int wordsPerDocument, int threads) throws Exception {
+        try {
+            return (Workload) Class.forName("Workloads")
+                    .getMethod("create", String.class, int.class, int.class, int.class)
+                    .invoke(null, name, documents, wordsPerDocument, threads);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
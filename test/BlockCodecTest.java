@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCodecTest {
+
+    @Test
+    void roundTripsEveryCompression() throws IOException {
+        List<SiteRecord> block = TestCorpus.topicRecords(50, 3, 300, 1);
+        for (BlockCodec.Compression compression : BlockCodec.Compression.values()) {
+            TermDictionary dictionary = new TermDictionary();
+            List<SiteRecord> decoded = BlockCodec.decode(BlockCodec.encode(block, dictionary, compression), dictionary);
+            assertEquals(block.size(), decoded.size(), compression.toString());
+            for (int i = 0; i < block.size(); i++) {
+                assertEquals(block.get(i).getUrl(), decoded.get(i).getUrl());
+                assertEquals(block.get(i).getWordFrequency(), decoded.get(i).getWordFrequency(), compression + " record " + i);
+            }
+        }
+    }
+
+    @Test
+    void compressionShrinksZipfBlocks() throws IOException {
+        List<SiteRecord> block = TestCorpus.topicRecords(100, 3, 300, 2);
+        TermDictionary dictionary = new TermDictionary();
+        int raw = BlockCodec.encode(block, dictionary, BlockCodec.Compression.NONE).length;
+        assertTrue(BlockCodec.encode(block, dictionary, BlockCodec.Compression.LZ).length < raw);
+        assertTrue(BlockCodec.encode(block, dictionary, BlockCodec.Compression.DEFLATE).length < raw);
+    }
+
+    @Test
+    void damagedStoredBytesFailTheChecksum() throws IOException {
+        TermDictionary dictionary = new TermDictionary();
+        for (BlockCodec.Compression compression : BlockCodec.Compression.values()) {
+            byte[] bytes = BlockCodec.encode(TestCorpus.topicRecords(10, 2, 100, 3), dictionary, compression);
+            bytes[bytes.length - 7] ^= 0x10;
+            CorruptBlockException e = assertThrows(CorruptBlockException.class, () -> BlockCodec.decode(bytes, dictionary));
+            assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+        }
+    }
+
+    @Test
+    void signaturesRoundTripAtTwoBytesPerValue() throws IOException {
+        List<SiteRecord> block = TestCorpus.topicRecords(20, 2, 100, 6);
+        TermDictionary dictionary = new TermDictionary();
+        int unsigned = BlockCodec.encode(block, dictionary).length;
+        for (SiteRecord record : block) {
+            MinHash.DEFAULT.signatureOf(record);
+        }
+        byte[] bytes = BlockCodec.encode(block, dictionary);
+        //a two-byte length in place of the one-byte 0, then two bytes per value
+        assertEquals(unsigned + block.size() * (1 + 2 * MinHash.DEFAULT_LENGTH), bytes.length);
+        List<SiteRecord> decoded = BlockCodec.decode(bytes, dictionary);
+        for (int i = 0; i < block.size(); i++) {
+            assertArrayEquals(block.get(i).getMinHash(), decoded.get(i).getMinHash(), "record " + i);
+            assertArrayEquals(MinHash.DEFAULT.signature(decoded.get(i)), decoded.get(i).getMinHash(), "record " + i);
+        }
+    }
+
+    @Test
+    void truncatedBlocksAreCorrupt() throws IOException {
+        TermDictionary dictionary = new TermDictionary();
+        byte[] bytes = BlockCodec.encode(TestCorpus.topicRecords(10, 2, 100, 4), dictionary, BlockCodec.Compression.LZ);
+        for (int length : new int[]{6, 12, bytes.length - 1}) {
+            byte[] truncated = java.util.Arrays.copyOf(bytes, length);
+            assertThrows(CorruptBlockException.class, () -> BlockCodec.decode(truncated, dictionary), "length " + length);
+        }
+    }
+
+    @Test
+    void javaSerializedBytesAreNotCompact() {
+        assertFalse(BlockCodec.isCompact(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5, 0}));
+        assertThrows(IOException.class, () -> BlockCodec.decode(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5, 0}, new TermDictionary()));
+    }
+
+    @Test
+    void varIntsRoundTrip() throws IOException {
+        int[] values = {0, 1, 127, 128, 300, 16_383, 16_384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            BlockCodec.writeVarInt(out, value);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        for (int value : values) {
+            assertEquals(value, BlockCodec.readVarInt(in));
+        }
+        assertFalse(in.hasRemaining());
+        //one byte up to 127, two up to 16383
+        assertEquals(1 + 1 + 1 + 2 + 2 + 2 + 3 + 5 + 5 + 5, bytes.size());
+    }
+
+    @Test
+    void lzRoundTripsRandomRepetitiveAndEmptyInput() throws IOException {
+        Random random = new Random(5);
+        byte[] noise = new byte[10_000];
+        random.nextBytes(noise);
+        byte[] repetitive = new byte[50_000];
+        for (int i = 0; i < repetitive.length; i++) {
+            repetitive[i] = (byte) "abcabcabd".charAt(i % 9);
+        }
+        for (byte[] input : new byte[][]{new byte[0], {42}, noise, repetitive}) {
+            byte[] compressed = LzCodec.compress(input);
+            assertArrayEquals(input, LzCodec.decompress(compressed, input.length));
+        }
+        assertTrue(LzCodec.compress(repetitive).length < repetitive.length / 10);
+    }
+
+    @Test
+    void lzRejectsALengthThatDoesNotMatch() {
+        byte[] compressed = LzCodec.compress("a block of text, a block of text, a block of text".getBytes());
+        assertThrows(IOException.class, () -> LzCodec.decompress(compressed, 10));
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CentroidIndexTest {
+
+    //A centroid over random terms of the first vocabulary words with fractional weights, like an average
+    private static Centroid centroid(Random random, TermDictionary dictionary, int terms, int vocabulary) {
+        TreeSet<Integer> ids = new TreeSet<>();
+        while (ids.size() < terms) {
+            ids.add(dictionary.idOf(TestCorpus.word(random.nextInt(vocabulary))));
+        }
+        int[] termIds = ids.stream().mapToInt(Integer::intValue).toArray();
+        float[] weights = new float[termIds.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 0.05f + random.nextFloat() * 4;
+        }
+        return new Centroid("c" + terms, dictionary, termIds, weights);
+    }
+
+    private static void assertSameAsMerge(List<Centroid> centroids, List<SiteRecord> records) {
+        CentroidIndex index = new CentroidIndex(centroids);
+        double[] scores = new double[centroids.size()];
+        for (SiteRecord record : records) {
+            index.score(record, scores);
+            for (int c = 0; c < centroids.size(); c++) {
+                double expected = centroids.get(c).similarity(record);
+                //bit-for-bit, MiniBatchKMeans mixes the two and relies on identical ties
+                assertTrue(expected == scores[c], record.getUrl() + " centroid " + c + ": " + scores[c] + " != " + expected);
+            }
+        }
+    }
+
+    @Test
+    void scoresEqualTheMergeSimilarityExactly() {
+        Random random = new Random(11);
+        TermDictionary dictionary = new TermDictionary();
+        List<SiteRecord> records = TestCorpus.topicRecords(200, 4, 150, 12);
+        //the centroids come first, so records also use term ids past the last indexed term
+        List<Centroid> centroids = new ArrayList<>();
+        for (int c = 0; c < 12; c++) {
+            centroids.add(centroid(random, dictionary, 1 + random.nextInt(400), 1400));
+        }
+        for (SiteRecord record : records) {
+            record.index(dictionary);
+        }
+        assertSameAsMerge(centroids, records);
+
+        List<Centroid> truncated = new ArrayList<>();
+        for (Centroid centroid : centroids) {
+            truncated.add(centroid.truncate(30, 0.8));
+        }
+        assertSameAsMerge(truncated, records);
+    }
+
+    @Test
+    void recordsSharingNoTermsScoreZero() {
+        Random random = new Random(13);
+        TermDictionary dictionary = new TermDictionary();
+        List<Centroid> centroids = new ArrayList<>();
+        for (int c = 0; c < 5; c++) {
+            centroids.add(centroid(random, dictionary, 50, 200));
+        }
+        //words 5000 and up are in none of the centroids, before or after their term ids
+        List<SiteRecord> records = new ArrayList<>();
+        for (int d = 0; d < 20; d++) {
+            HashMap<String, Integer> words = new HashMap<>();
+            for (int i = 0; i < 30; i++) {
+                words.merge(TestCorpus.word(5000 + random.nextInt(500)), 1, Integer::sum);
+            }
+            SiteRecord record = new SiteRecord("disjoint" + d, words);
+            record.index(dictionary);
+            records.add(record);
+        }
+        assertSameAsMerge(centroids, records);
+        double[] scores = new double[centroids.size()];
+        new CentroidIndex(centroids).score(records.get(0), scores);
+        assertArrayEquals(new double[centroids.size()], scores);
+    }
+}
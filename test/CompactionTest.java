@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactionTest {
+
+    private static final String TABLE = "compaction_test_table.dat";
+    private static final int BLOCK_SIZE = 10;
+    private static final int PAGES = 50;
+
+    @AfterEach
+    void deleteFiles() throws IOException {
+        Files.deleteIfExists(Paths.get(TABLE));
+        Files.deleteIfExists(Paths.get(PersistentHashTable.logFileName(TABLE)));
+        Files.deleteIfExists(Paths.get(TermDictionary.FILE));
+        for (File file : new File(".").listFiles((dir, name) -> name.startsWith("block_"))) {
+            file.delete();
+        }
+    }
+
+    private static String url(int page) {
+        return "https://en.wikipedia.org/wiki/Page_" + page;
+    }
+
+    private static SiteRecord page(int page, int version) {
+        HashMap<String, Integer> words = new HashMap<>();
+        words.put(TestCorpus.word(page), 2);
+        words.put("version", version);
+        return new SiteRecord(url(page), words);
+    }
+
+    //Five full blocks, then six pages of each re-crawled into three more, which leaves blocks 0-4 past half dead
+    private static Loader storeWithDeadBlocks(PersistentHashTable table, double autoCompaction) throws IOException {
+        return storeWithDeadBlocks(table, autoCompaction, record -> {
+        });
+    }
+
+    private static Loader storeWithDeadBlocks(PersistentHashTable table, double autoCompaction, Consumer<SiteRecord> listener) throws IOException {
+        table.saveToFile(TABLE);
+        table.openLog(TABLE);
+        Loader loader = new Loader(BLOCK_SIZE, BlockCodec.Compression.NONE, table);
+        loader.setAutoCompaction(autoCompaction);
+        loader.addRecordListener(listener);
+        for (int page = 0; page < PAGES; page++) {
+            loader.addSiteRecord(page(page, 1), table);
+        }
+        for (int block = 0; block < PAGES / BLOCK_SIZE; block++) {
+            for (int i = 0; i < 6; i++) {
+                loader.addSiteRecord(page(block * BLOCK_SIZE + i, 2), table);
+            }
+        }
+        return loader;
+    }
+
+    private static void assertEveryPageCurrent(PersistentHashTable table) {
+        assertEquals(PAGES, table.size());
+        for (int page = 0; page < PAGES; page++) {
+            SiteRecord record = table.getRecord(url(page));
+            assertNotNull(record, url(page));
+            assertEquals(page % BLOCK_SIZE < 6 ? 2 : 1, record.getWordFrequency().get("version"), url(page));
+        }
+    }
+
+    private static boolean blockExists(int block) {
+        return new File("block_" + block + ".dat").exists();
+    }
+
+    @Test
+    void survivorsOfSeveralBlocksArePackedIntoFullBlocks() throws IOException {
+        PersistentHashTable table = new PersistentHashTable();
+        Loader loader = storeWithDeadBlocks(table, 0);
+
+        assertEquals(5, loader.compact(0.5));
+        loader.close();
+
+        //4 survivors from each of 5 blocks fill blocks 8 and 9, not five blocks of 4
+        assertEquals(5, loader.getCompactedBlocks());
+        assertEquals(List.of(5, 6, 7, 8, 9), table.liveBlocks());
+        for (int block = 0; block < 5; block++) {
+            assertFalse(blockExists(block), "block " + block);
+        }
+        assertEquals(BLOCK_SIZE, table.liveRecordsIn(8).size());
+        assertEquals(BLOCK_SIZE, table.liveRecordsIn(9).size());
+        assertEveryPageCurrent(table);
+
+        //the moves reached the log, so a reload without saving the table finds them
+        table.closeLog();
+        assertEveryPageCurrent(PersistentHashTable.loadFromFile(TABLE));
+    }
+
+    @Test
+    void listenersSeeEveryPageOnceThroughCompaction() throws IOException {
+        PersistentHashTable table = new PersistentHashTable();
+        Map<String, Integer> seen = new HashMap<>();
+        Loader loader = storeWithDeadBlocks(table, 0, record -> seen.merge(record.getUrl(), 1, Integer::sum));
+
+        assertEquals(5, loader.compact(0.5));
+        loader.close();
+
+        //one call per addSiteRecord: the 20 survivors moved by compaction are not reported again
+        for (int page = 0; page < PAGES; page++) {
+            assertEquals(page % BLOCK_SIZE < 6 ? 2 : 1, seen.get(url(page)), url(page));
+        }
+        //and they kept the signature they were written with
+        for (int page = 6; page < PAGES; page += BLOCK_SIZE) {
+            assertArrayEquals(MinHash.DEFAULT.signature(page(page, 1)), table.getRecord(url(page)).getMinHash(), url(page));
+        }
+        table.closeLog();
+    }
+
+    @Test
+    void autoCompactionRunsNextToTheIngestAndFinishesOnClose() throws IOException {
+        PersistentHashTable table = new PersistentHashTable();
+        //blocks pass the ratio while pages are still being added, so compaction starts before close
+        Loader loader = storeWithDeadBlocks(table, 0.5);
+        loader.close();
+
+        assertEquals(5, loader.getCompactedBlocks());
+        for (int block = 0; block < 5; block++) {
+            assertFalse(blockExists(block), "block " + block);
+        }
+        assertTrue(table.blocksToCompact(0.5).isEmpty());
+        assertEveryPageCurrent(table);
+        table.closeLog();
+        assertEveryPageCurrent(PersistentHashTable.loadFromFile(TABLE));
+    }
+}
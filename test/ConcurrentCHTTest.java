@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentCHTTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 1_000;
+    private static final int MERGES = 50_000;
+
+    //Run the task on THREADS threads released together, and wait for all of them
+    private static void concurrently(IntTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface IntTask {
+        void run(int thread) throws Exception;
+    }
+
+    private static String key(int i) {
+        return "word" + i;
+    }
+
+    @Test
+    void concurrentMergesLoseNoUpdates() throws Exception {
+        ConcurrentCHT<String, Integer> counts = new ConcurrentCHT<>(4);
+        //every thread walks the same keys from a different start, so the stripes are contended
+        concurrently(thread -> {
+            for (int i = 0; i < MERGES; i++) {
+                counts.merge(key((i + thread * 131) % KEYS), 1, Integer::sum);
+            }
+        });
+
+        assertEquals(KEYS, counts.size());
+        int total = 0;
+        for (int i = 0; i < KEYS; i++) {
+            total += counts.get(key(i));
+        }
+        assertEquals(THREADS * MERGES, total);
+        //MERGES is a multiple of KEYS, so every key was counted the same number of times
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(THREADS * MERGES / KEYS, counts.get(key(i)));
+        }
+    }
+
+    @Test
+    void mergingToNullRemovesTheKey() throws Exception {
+        ConcurrentCHT<String, Integer> counts = new ConcurrentCHT<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.put(key(i), THREADS);
+        }
+        //each thread takes one off every key; the last decrement removes it
+        concurrently(thread -> {
+            for (int i = 0; i < KEYS; i++) {
+                counts.merge(key(i), -1, (count, delta) -> count + delta > 0 ? count + delta : null);
+            }
+        });
+
+        assertEquals(0, counts.size());
+        assertNull(counts.get(key(0)));
+        assertFalse(counts.contains(key(KEYS - 1)));
+    }
+
+    @Test
+    void computeIfPresentLeavesAbsentKeysAlone() throws Exception {
+        ConcurrentCHT<String, Integer> counts = new ConcurrentCHT<>();
+        counts.put(key(0), THREADS);
+        concurrently(thread -> {
+            counts.computeIfPresent(key(0), (key, count) -> count > 1 ? count - 1 : null);
+            counts.computeIfPresent(key(1), (key, count) -> count > 1 ? count - 1 : null);
+        });
+
+        assertEquals(0, counts.size());
+        assertFalse(counts.contains(key(1)));
+    }
+
+    @Test
+    void serializedTableReadsBackAsAPlainCHT() throws IOException {
+        ConcurrentCHT<String, Integer> counts = new ConcurrentCHT<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.put(key(i), i);
+        }
+        String file = "concurrent_cht_test.dat";
+        try {
+            counts.serialize(file);
+            CHT<String, Integer> plain = CHT.deserialize(file);
+            assertEquals(KEYS, plain.size());
+            assertEquals(KEYS - 1, plain.get(key(KEYS - 1)));
+            ConcurrentCHT<String, Integer> loaded = ConcurrentCHT.deserialize(file);
+            assertEquals(KEYS, loaded.size());
+            assertEquals(7, loaded.get(key(7)));
+        } finally {
+            Files.deleteIfExists(Paths.get(file));
+        }
+    }
+}
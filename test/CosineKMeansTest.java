@@ -0,0 +1,40 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CosineKMeansTest {
+
+    //The assignment after every iteration of a run, and the evaluations it made
+    private static List<int[]> assignments(List<SiteRecord> records, TermDictionary dictionary, boolean bounds, int threads, long[] evaluations) {
+        CosineKMeans kMeans = new CosineKMeans(records, dictionary, 7, threads, 42);
+        kMeans.setBounds(bounds);
+        List<int[]> perIteration = new ArrayList<>();
+        kMeans.addListener(stats -> perIteration.add(kMeans.getAssignment().clone()));
+        kMeans.cluster();
+        evaluations[0] = kMeans.getEvaluations();
+        return perIteration;
+    }
+
+    @Test
+    void boundsAssignLikeABruteForceScanAtEveryIteration() {
+        //overlapping topics and more clusters than topics, so records keep moving for several iterations
+        List<SiteRecord> records = TestCorpus.topicRecords(600, 4, 80, 21);
+        TermDictionary dictionary = new TermDictionary();
+        long[] bruteEvaluations = new long[1];
+        List<int[]> brute = assignments(records, dictionary, false, 1, bruteEvaluations);
+        assertTrue(brute.size() >= 3, "only " + brute.size() + " iterations");
+
+        for (int threads : new int[]{1, 3}) {
+            long[] boundedEvaluations = new long[1];
+            List<int[]> bounded = assignments(records, dictionary, true, threads, boundedEvaluations);
+            assertEquals(brute.size(), bounded.size(), threads + " threads");
+            for (int iteration = 0; iteration < brute.size(); iteration++) {
+                assertArrayEquals(brute.get(iteration), bounded.get(iteration), threads + " threads, iteration " + (iteration + 1));
+            }
+            //the bounds must actually have skipped work for the comparison to mean anything
+            assertTrue(boundedEvaluations[0] < bruteEvaluations[0], boundedEvaluations[0] + " of " + bruteEvaluations[0]);
+        }
+    }
+}
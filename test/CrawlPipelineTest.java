@@ -0,0 +1,164 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//The fetches go through the default jsoup fetcher to a stub server on the loopback interface
+class CrawlPipelineTest {
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private String base;
+    //arrival time of every request, and how often each path was asked for
+    private final Queue<Long> arrivals = new ConcurrentLinkedQueue<>();
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        handlers = Executors.newFixedThreadPool(8);
+        server.setExecutor(handlers);
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    //"/wiki/<title>" serves a page naming its title, "/missing" a 404, and "/flaky" a 503 on the first hit
+    private void serve(HttpExchange exchange) throws IOException {
+        arrivals.add(System.nanoTime());
+        String path = exchange.getRequestURI().getPath();
+        int hit = hits.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+        int status = path.equals("/missing") ? 404 : path.equals("/flaky") && hit == 1 ? 503 : 200;
+        String title = path.substring(path.lastIndexOf('/') + 1).toLowerCase();
+        byte[] body = ("<html><body><p>" + title + " clustering crawler " + title + "</p></body></html>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static List<String> urls(String prefix, int count) {
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            urls.add(prefix + i);
+        }
+        return urls;
+    }
+
+    @Test
+    void crawlsEveryPageFromTheServer() throws InterruptedException {
+        List<String> urls = urls(base + "/wiki/page", 20);
+        urls.add(base + "/missing");
+        urls.add(base + "/flaky");
+        Loader loader = new Loader(1_000);
+        Map<String, Integer> counts = new ConcurrentHashMap<>();
+        loader.addRecordListener(record -> counts.put(record.getUrl(), record.getWordFrequency().getOrDefault("crawler", 0)));
+        PersistentHashTable hashTable = new PersistentHashTable();
+
+        CrawlPipeline.Report report = new CrawlPipeline(4, 0).run(urls, loader, hashTable);
+
+        assertEquals(21, report.getSucceeded());
+        assertEquals(21, hashTable.size());
+        assertEquals(Set.of(base + "/missing"), report.getFailures().keySet());
+        assertTrue(report.getFailures().get(base + "/missing").contains("404"));
+        //client errors are not retried, server errors are
+        assertEquals(1, hits.get("/missing").get());
+        assertEquals(2, hits.get("/flaky").get());
+        assertEquals(1, counts.get(base + "/wiki/page7"));
+        assertEquals(1, counts.get(base + "/flaky"));
+    }
+
+    @Test
+    void politenessSpacesTheRequestsToOneHost() throws InterruptedException {
+        int pages = 10;
+        long politenessMillis = 50;
+        CrawlPipeline.Report report = new CrawlPipeline(8, politenessMillis)
+                .run(urls(base + "/wiki/page", pages), new Loader(1_000), new PersistentHashTable());
+
+        assertEquals(pages, report.getSucceeded());
+        List<Long> times = new ArrayList<>(arrivals);
+        Collections.sort(times);
+        //eight workers would otherwise send the first eight requests at once
+        long spreadMillis = (times.get(pages - 1) - times.get(0)) / 1_000_000;
+        assertTrue(spreadMillis >= (pages - 2) * politenessMillis, "requests spread over only " + spreadMillis + " ms");
+    }
+
+    @Test
+    void writerFailureFailsTheRunInsteadOfHanging() {
+        //fails on the fifth page; a queue of two would leave the workers blocked if nobody drained it
+        Loader loader = new Loader(1_000) {
+            private int added;
+
+            @Override
+            public synchronized void addSiteRecord(SiteRecord record, PersistentHashTable hashTable) {
+                if (++added == 5) {
+                    throw new IllegalStateException("disk full");
+                }
+                super.addSiteRecord(record, hashTable);
+            }
+        };
+        PersistentHashTable hashTable = new PersistentHashTable();
+        Loader.documentFrequency = new ConcurrentCHT<>();
+        CrawlPipeline pipeline = new CrawlPipeline(4, 2, 0, 1_000, 0);
+        pipeline.setFetcher((url, timeout) -> Jsoup.parse("<p>crawled page about failing writers</p>", url));
+
+        IllegalStateException failure = assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                assertThrows(IllegalStateException.class,
+                        () -> pipeline.run(urls("https://example.org/wiki/Page_", 200), loader, hashTable)));
+        assertEquals("disk full", failure.getCause().getMessage());
+        //the pages written before the failure are still indexed, and only they were counted
+        assertEquals(4, hashTable.size());
+        assertEquals(4, Loader.documentFrequency.get("writers"));
+    }
+
+    @Test
+    void failedBlockWriteAbortsTheCrawl() throws IOException {
+        //a directory where the first block file should go makes its write fail
+        Path blocked = Paths.get("block_0.dat");
+        Files.createDirectory(blocked);
+        try {
+            Loader loader = new Loader(3);
+            CrawlPipeline pipeline = new CrawlPipeline(4, 2, 0, 1_000, 0);
+            pipeline.setFetcher((url, timeout) -> Jsoup.parse("<p>crawled page about full disks</p>", url));
+
+            IllegalStateException failure = assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                    assertThrows(IllegalStateException.class,
+                            () -> pipeline.run(urls("https://example.org/wiki/Page_", 200), loader, new PersistentHashTable())));
+            assertInstanceOf(UncheckedIOException.class, failure.getCause());
+            assertTrue(failure.getMessage().contains("after 2 pages"), failure.getMessage());
+            //the buffered block is still not writable, and flush says so instead of dropping it
+            assertThrows(UncheckedIOException.class, loader::flush);
+        } finally {
+            Files.delete(blocked);
+            Files.deleteIfExists(Paths.get(TermDictionary.FILE));
+        }
+    }
+}
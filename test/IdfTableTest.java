@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdfTableTest {
+
+    private static final int EMPTY = 5;
+
+    //Topic pages, then EMPTY pages made only of words no other page uses, all indexed against one dictionary
+    private static List<SiteRecord> corpus(TermDictionary dictionary) {
+        List<SiteRecord> records = new ArrayList<>(TestCorpus.topicRecords(90, 3, 80, 31));
+        for (int d = 0; d < EMPTY; d++) {
+            HashMap<String, Integer> words = new HashMap<>();
+            for (int i = 0; i < 10; i++) {
+                words.put(TestCorpus.word(10_000 + d * 10 + i), 1 + i);
+            }
+            records.add(new SiteRecord("https://en.wikipedia.org/wiki/Rare_" + d, words));
+        }
+        for (SiteRecord record : records) {
+            record.index(dictionary);
+        }
+        return records;
+    }
+
+    private static List<SiteRecord> pruned(List<SiteRecord> records, TermDictionary dictionary) {
+        int[] documentFrequency = new int[dictionary.size()];
+        for (SiteRecord record : records) {
+            for (int termId : record.getTermIds()) {
+                documentFrequency[termId]++;
+            }
+        }
+        IdfTable vocabulary = IdfTable.build(records.size(), documentFrequency, IdfTable.DEFAULT_MIN_DF, IdfTable.DEFAULT_MAX_DF, 0);
+        List<SiteRecord> pruned = new ArrayList<>(records.size());
+        for (SiteRecord record : records) {
+            pruned.add(vocabulary.prune(record));
+        }
+        return pruned;
+    }
+
+    @Test
+    void recordsPrunedToNothingAreSimilarToNothing() {
+        TermDictionary dictionary = new TermDictionary();
+        List<SiteRecord> records = pruned(corpus(dictionary), dictionary);
+        SiteRecord empty = records.get(records.size() - 1);
+        SiteRecord full = records.get(0);
+        //every word of the page is in that page only, so minDf 2 drops them all
+        assertEquals(0, empty.getTermIds().length);
+        assertEquals(0, empty.getTotalCount());
+
+        assertEquals(0.0, KMeansClustering.calculateSimilarity(empty, full));
+        assertEquals(0.0, KMeansClustering.calculateSimilarity(empty, empty));
+        Centroid centroid = Centroid.of(full);
+        assertEquals(0.0, centroid.similarity(empty));
+        assertEquals(0.0, Centroid.of(empty).similarity(full));
+        assertEquals(0.0, centroid.similarity(Centroid.of(empty)));
+        double[] scores = new double[2];
+        new CentroidIndex(List.of(centroid, Centroid.of(empty))).score(empty, scores);
+        assertArrayEquals(new double[]{0, 0}, scores);
+        new CentroidIndex(List.of(centroid, Centroid.of(empty))).score(full, scores);
+        assertEquals(0.0, scores[1]);
+        assertEquals(0.0, ClusterModel.fromCentroids(List.of(centroid)).similarities(empty)[0]);
+    }
+
+    @Test
+    void clusteringWithEmptyRecordsKeepsAFiniteObjective() {
+        TermDictionary dictionary = new TermDictionary();
+        List<SiteRecord> records = pruned(corpus(dictionary), dictionary);
+        KMeansClustering kMeans = new KMeansClustering(records, dictionary, 3, 1, 7);
+        kMeans.cluster();
+        assertFalse(Double.isNaN(kMeans.getObjective()));
+        assertTrue(kMeans.getObjective() > 0);
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KMeansSeedingTest {
+
+    private static List<SiteRecord> indexedRecords() {
+        List<SiteRecord> records = TestCorpus.topicRecords(300, 4, 80, 11);
+        TermDictionary dictionary = new TermDictionary();
+        for (SiteRecord record : records) {
+            record.index(dictionary);
+        }
+        return records;
+    }
+
+    private static void assertSameCentroids(List<Centroid> expected, List<Centroid> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int c = 0; c < expected.size(); c++) {
+            assertEquals(expected.get(c).getUrl(), actual.get(c).getUrl(), "centroid " + c);
+            assertArrayEquals(expected.get(c).getTermIds(), actual.get(c).getTermIds());
+            assertArrayEquals(expected.get(c).getWeights(), actual.get(c).getWeights());
+        }
+    }
+
+    @Test
+    void theSameSeedGivesTheSameCentroidsOnAnyNumberOfThreads() {
+        List<SiteRecord> records = indexedRecords();
+        KMeansSeeding single = new KMeansSeeding(records, null, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            KMeansSeeding parallel = new KMeansSeeding(records, executor, 4);
+            for (long seed : new long[]{1, 42, 7_777}) {
+                assertSameCentroids(single.random(8, seed), parallel.random(8, seed));
+                assertSameCentroids(single.plusPlus(8, seed), parallel.plusPlus(8, seed));
+                assertSameCentroids(single.parallel(8, seed), parallel.parallel(8, seed));
+                assertSameCentroids(single.plusPlus(8, seed), single.plusPlus(8, seed));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void differentSeedsPickDifferentRecords() {
+        KMeansSeeding seeding = new KMeansSeeding(indexedRecords(), null, 1);
+        assertNotEquals(seeding.plusPlus(8, 1).get(0).getUrl(), seeding.plusPlus(8, 2).get(0).getUrl());
+    }
+
+    @Test
+    void plusPlusPicksDistinctRecords() {
+        List<Centroid> centroids = new KMeansSeeding(indexedRecords(), null, 1).plusPlus(20, 5);
+        assertEquals(20, centroids.stream().map(Centroid::getUrl).distinct().count());
+    }
+
+    @Test
+    void restartsPickTheSameBestRunOnAnyNumberOfThreads() {
+        List<SiteRecord> records = TestCorpus.topicRecords(300, 4, 80, 12);
+        KMeansRestarts restarts = new KMeansRestarts(records, new TermDictionary(), 4);
+        double single = restarts.run(4, 100, 1).getObjective();
+        List<KMeansRestarts.Restart> singleRuns = List.copyOf(restarts.getRestarts());
+        double threaded = restarts.run(4, 100, 3).getObjective();
+        assertEquals(single, threaded);
+        for (int r = 0; r < singleRuns.size(); r++) {
+            assertEquals(singleRuns.get(r).getSeed(), restarts.getRestarts().get(r).getSeed());
+            assertEquals(singleRuns.get(r).getObjective(), restarts.getRestarts().get(r).getObjective());
+            assertEquals(singleRuns.get(r).getIterations(), restarts.getRestarts().get(r).getIterations());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearDuplicatesTest {
+
+    private static SiteRecord page(String url, int firstWord, int words) {
+        HashMap<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < words; i++) {
+            counts.put(TestCorpus.word(firstWord + i), 1);
+        }
+        return new SiteRecord(url, counts);
+    }
+
+    @Test
+    void nearDuplicatesShareARepresentativeAndEmptyPagesStayAlone() {
+        List<SiteRecord> records = new ArrayList<>();
+        records.add(page("original", 0, 100));
+        //99 of 101 words shared, Jaccard 0.96
+        records.add(page("mirror", 1, 100));
+        records.add(page("unrelated", 500, 100));
+        records.add(page("empty_a", 0, 0));
+        records.add(page("empty_b", 0, 0));
+        records.add(page("empty_c", 0, 0));
+        TermDictionary dictionary = new TermDictionary();
+        for (SiteRecord record : records) {
+            record.index(dictionary);
+        }
+
+        int[] representative = NearDuplicates.find(records, 16, 4, 0.9);
+        assertArrayEquals(new int[]{0, 0, 2, 3, 4, 5}, representative);
+        assertEquals(0.0, MinHash.jaccard(records.get(3), records.get(4)));
+        assertEquals(0.0, MinHash.jaccard(records.get(3), records.get(0)));
+        assertEquals(99.0 / 101, MinHash.jaccard(records.get(0), records.get(1)), 1e-12);
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StoreConverterTest {
+
+    private static final String TABLE = "converter_test_table.dat";
+    private static final int BLOCK_SIZE = 10;
+
+    @AfterEach
+    void deleteFiles() throws IOException {
+        Files.deleteIfExists(Paths.get(TABLE));
+        Files.deleteIfExists(Paths.get(PersistentHashTable.logFileName(TABLE)));
+        Files.deleteIfExists(Paths.get(TermDictionary.FILE));
+        for (File file : new File(".").listFiles((dir, name) -> name.startsWith("block_"))) {
+            file.delete();
+        }
+    }
+
+    //A table as saved before the packed index: "block,offset" strings and no block statistics
+    private static void saveLegacyTable(Map<String, String> urlBlocks) throws ReflectiveOperationException {
+        PersistentHashTable table = new PersistentHashTable();
+        for (String name : new String[]{"locations", "blockSizes", "liveRecords", "urlBlocks"}) {
+            Field field = PersistentHashTable.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(table, name.equals("urlBlocks") ? urlBlocks : null);
+        }
+        table.saveToFile(TABLE);
+    }
+
+    //Two Java-serialized blocks, then a current compact one with signatures. The old loader indexed the
+    //last record of each full block as offset -1 of the next block.
+    private static List<SiteRecord> legacyStore() throws IOException, ReflectiveOperationException {
+        List<SiteRecord> records = TestCorpus.topicRecords(25, 3, 40, 9);
+        Map<String, String> urlBlocks = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            int block = i / BLOCK_SIZE;
+            int offset = i % BLOCK_SIZE;
+            boolean last = offset == BLOCK_SIZE - 1;
+            urlBlocks.put(records.get(i).getUrl(), last ? (block + 1) + ",-1" : block + "," + offset);
+        }
+        for (int block = 0; block < 2; block++) {
+            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream("block_" + block + ".dat"))) {
+                out.writeObject(new ArrayList<>(records.subList(block * BLOCK_SIZE, (block + 1) * BLOCK_SIZE)));
+            }
+        }
+        TermDictionary dictionary = new TermDictionary();
+        for (SiteRecord record : records.subList(2 * BLOCK_SIZE, records.size())) {
+            record.index(dictionary);
+            MinHash.DEFAULT.signatureOf(record);
+        }
+        BlockCodec.write("block_2.dat", records.subList(2 * BLOCK_SIZE, records.size()), dictionary, BlockCodec.Compression.NONE);
+        dictionary.appendTo(TermDictionary.FILE);
+        saveLegacyTable(urlBlocks);
+        return records;
+    }
+
+    private static void assertEveryRecord(List<SiteRecord> expected) {
+        PersistentHashTable table = PersistentHashTable.loadFromFile(TABLE);
+        assertEquals(expected.size(), table.size());
+        for (SiteRecord record : expected) {
+            SiteRecord stored = table.getRecord(record.getUrl());
+            assertNotNull(stored, record.getUrl());
+            assertEquals(record.getWordFrequency(), stored.getWordFrequency(), record.getUrl());
+        }
+    }
+
+    @Test
+    void legacyStoreRoundTripsThroughTheConverter() throws Exception {
+        List<SiteRecord> records = legacyStore();
+        //the string index is packed as the table loads, legacy offsets included
+        assertEveryRecord(records);
+
+        assertEquals(2, StoreConverter.convert(TABLE, BlockCodec.Compression.LZ));
+        for (int block = 0; block < 3; block++) {
+            assertEquals(BlockCodec.VERSION, BlockCodec.versionOf("block_" + block + ".dat"), "block " + block);
+        }
+        assertEveryRecord(records);
+        PersistentHashTable table = PersistentHashTable.loadFromFile(TABLE);
+        for (int i = 0; i < records.size(); i++) {
+            long location = table.locate(records.get(i).getUrl());
+            assertEquals(i / BLOCK_SIZE, PersistentHashTable.blockIndexOf(location), records.get(i).getUrl());
+            assertEquals(i % BLOCK_SIZE, PersistentHashTable.offsetOf(location), records.get(i).getUrl());
+        }
+        for (String url : table.getUrls()) {
+            assertNotNull(table.getRecord(url).getMinHash(), url);
+        }
+
+        //a converted store has nothing left to convert
+        assertEquals(0, StoreConverter.convert(TABLE, BlockCodec.Compression.LZ));
+        assertEveryRecord(records);
+    }
+}
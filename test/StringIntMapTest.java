@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StringIntMapTest {
+
+    //"Aa" and "BB" share a String hash code, so all 2^4 words over them land on one probe chain
+    private static String[] collidingKeys() {
+        String[] keys = new String[16];
+        for (int i = 0; i < keys.length; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 4; bit++) {
+                key.append((i >> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            keys[i] = key.toString();
+        }
+        return keys;
+    }
+
+    @Test
+    void removeKeepsTheRestOfACollisionChainReachable() {
+        String[] keys = collidingKeys();
+        StringIntMap map = new StringIntMap();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        //remove from the head, the middle and the tail of the chain
+        for (int removed : new int[]{0, 7, 15, 8}) {
+            map.remove(keys[removed]);
+            assertFalse(map.containsKey(keys[removed]));
+        }
+        assertEquals(12, map.size());
+        for (int i = 0; i < keys.length; i++) {
+            if (i != 0 && i != 7 && i != 15 && i != 8) {
+                assertEquals(i, map.getOrDefault(keys[i], -1), keys[i]);
+                char[] chars = keys[i].toCharArray();
+                assertTrue(map.containsKey(chars, 0, chars.length));
+            }
+        }
+    }
+
+    @Test
+    void removingAnAbsentKeyChangesNothing() {
+        StringIntMap map = new StringIntMap();
+        map.put("alpha", 1);
+        map.remove("beta");
+        assertEquals(1, map.size());
+        assertEquals(1, map.get("alpha"));
+    }
+
+    @Test
+    void removedKeysCanBeAddedAgain() {
+        StringIntMap map = new StringIntMap();
+        map.addTo("word", 3);
+        map.remove("word");
+        assertEquals(0, map.getOrDefault("word", 0));
+        assertEquals(2, map.addTo("word", 2));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void agreesWithHashMapUnderRandomAddsAndRemoves() {
+        Random random = new Random(3);
+        StringIntMap map = new StringIntMap();
+        Map<String, Integer> expected = new HashMap<>();
+        for (int operation = 0; operation < 200_000; operation++) {
+            //a small key space keeps the table dense, so removals shift long runs
+            String key = TestCorpus.word(random.nextInt(2_000));
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                int delta = random.nextInt(5) + 1;
+                map.addTo(key, delta);
+                expected.merge(key, delta, Integer::sum);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map.toHashMap());
+        StringIntMap.Cursor cursor = map.cursor();
+        int seen = 0;
+        while (cursor.next()) {
+            assertEquals(expected.get(cursor.key()), cursor.value());
+            seen++;
+        }
+        assertEquals(expected.size(), seen);
+    }
+}
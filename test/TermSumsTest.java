@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermSumsTest {
+
+    //a sorted record of distinct term ids below vocabulary, each with a count of at least 1
+    private static int[][] record(Random random, int terms, int vocabulary) {
+        TreeSet<Integer> ids = new TreeSet<>();
+        while (ids.size() < terms) {
+            ids.add(random.nextInt(vocabulary));
+        }
+        int[][] record = new int[2][terms];
+        int i = 0;
+        for (int id : ids) {
+            record[0][i] = id;
+            record[1][i++] = 1 + random.nextInt(50);
+        }
+        return record;
+    }
+
+    private static void assertRun(TreeMap<Integer, Long> expected, TermSums.Run run) {
+        assertEquals(expected.size(), run.ids.length);
+        int i = 0;
+        for (Map.Entry<Integer, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), run.ids[i], "term at " + i);
+            assertEquals(entry.getValue(), run.sums[i++], "sum of term " + entry.getKey());
+        }
+    }
+
+    @Test
+    void sumsMatchAMap() {
+        Random random = new Random(3);
+        TermSums sums = new TermSums();
+        TreeMap<Integer, Long> expected = new TreeMap<>();
+        //enough distinct terms to grow the table many times, and one record that grows it at once
+        for (int r = 0; r < 2_000; r++) {
+            int[][] record = record(random, r == 1_000 ? 20_000 : 1 + random.nextInt(200), 50_000);
+            sums.add(record[0], record[1]);
+            for (int i = 0; i < record[0].length; i++) {
+                expected.merge(record[0][i], (long) record[1][i], Long::sum);
+            }
+        }
+        assertRun(expected, sums.collapse());
+    }
+
+    @Test
+    void resetStartsOverAndEmptySumsCollapseToAnEmptyRun() {
+        TermSums sums = new TermSums();
+        assertEquals(0, sums.collapse().ids.length);
+        sums.add(new int[]{1, 5}, new int[]{2, 3});
+        sums.reset();
+        sums.add(new int[]{5, 9}, new int[]{4, 1});
+        TreeMap<Integer, Long> expected = new TreeMap<>(Map.of(5, 4L, 9, 1L));
+        assertRun(expected, sums.collapse());
+    }
+
+    @Test
+    void mergeAddsSharedTerms() {
+        TermSums.Run a = new TermSums.Run(new int[]{1, 4, 7}, new long[]{1, 2, 3});
+        TermSums.Run b = new TermSums.Run(new int[]{0, 4, 8}, new long[]{5, 5, 5});
+        TermSums.Run merged = TermSums.merge(a, b);
+        assertArrayEquals(new int[]{0, 1, 4, 7, 8}, merged.ids);
+        assertArrayEquals(new long[]{5, 1, 7, 3, 5}, merged.sums);
+        assertSame(a, TermSums.merge(a, TermSums.Run.EMPTY));
+    }
+}
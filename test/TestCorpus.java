@@ -0,0 +1,34 @@
+import java.util.*;
+
+//Small deterministic corpora for the tests: every page draws most of its words from its topic's slice
+//of the vocabulary, so clusterings have a right answer to find
+final class TestCorpus {
+
+    private TestCorpus() {
+    }
+
+    static List<SiteRecord> topicRecords(int documents, int topics, int wordsPerDocument, long seed) {
+        Random random = new Random(seed);
+        List<SiteRecord> records = new ArrayList<>(documents);
+        for (int d = 0; d < documents; d++) {
+            int topic = d % topics;
+            HashMap<String, Integer> words = new HashMap<>();
+            for (int i = 0; i < wordsPerDocument; i++) {
+                int word = random.nextInt(4) == 0 ? random.nextInt(1000) : 1000 + topic * 100 + random.nextInt(100);
+                words.merge(word(word), 1, Integer::sum);
+            }
+            records.add(new SiteRecord("https://en.wikipedia.org/wiki/Topic_" + topic + "_" + d, words));
+        }
+        return records;
+    }
+
+    //lowercase letters only, like the words the tokenizer produces
+    static String word(int i) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return word.toString();
+    }
+}
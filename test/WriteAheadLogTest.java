@@ -0,0 +1,91 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    private static final String TABLE = "wal_test_table.dat";
+
+    @AfterEach
+    void deleteFiles() throws IOException {
+        Files.deleteIfExists(Paths.get(TABLE));
+        Files.deleteIfExists(Paths.get(PersistentHashTable.logFileName(TABLE)));
+    }
+
+    private static PersistentHashTable savedTable() {
+        PersistentHashTable table = new PersistentHashTable();
+        table.put("https://en.wikipedia.org/wiki/A", 0, 0);
+        table.put("https://en.wikipedia.org/wiki/B", 0, 1);
+        table.saveToFile(TABLE);
+        return table;
+    }
+
+    @Test
+    void committedUpdatesAreReplayedAfterACrash() throws IOException {
+        PersistentHashTable table = savedTable();
+        table.openLog(TABLE);
+        table.put("https://en.wikipedia.org/wiki/B", 1, 0);
+        table.put("https://en.wikipedia.org/wiki/C", 1, 1);
+        table.commitLog();
+        //the process dies here, before the table is saved again
+
+        PersistentHashTable loaded = PersistentHashTable.loadFromFile(TABLE);
+        assertEquals(3, loaded.size());
+        assertEquals(0, loaded.blockOf("https://en.wikipedia.org/wiki/A"));
+        assertEquals(1, loaded.blockOf("https://en.wikipedia.org/wiki/B"));
+        assertEquals(1, loaded.blockOf("https://en.wikipedia.org/wiki/C"));
+        table.closeLog();
+    }
+
+    @Test
+    void uncommittedUpdatesAreLost() throws IOException {
+        PersistentHashTable table = savedTable();
+        table.openLog(TABLE);
+        table.put("https://en.wikipedia.org/wiki/C", 1, 0);
+        table.commitLog();
+        //its block never reached the disk, so it was never committed
+        table.put("https://en.wikipedia.org/wiki/D", 2, 0);
+
+        PersistentHashTable loaded = PersistentHashTable.loadFromFile(TABLE);
+        assertEquals(1, loaded.blockOf("https://en.wikipedia.org/wiki/C"));
+        assertEquals(-1, loaded.blockOf("https://en.wikipedia.org/wiki/D"));
+    }
+
+    @Test
+    void aTornLastEntryIsIgnored() throws IOException {
+        PersistentHashTable table = savedTable();
+        table.openLog(TABLE);
+        table.put("https://en.wikipedia.org/wiki/C", 1, 0);
+        table.closeLog();
+        //half an entry: a UTF length prefix promising more bytes than follow
+        try (FileOutputStream out = new FileOutputStream(PersistentHashTable.logFileName(TABLE), true)) {
+            out.write(new byte[]{0, 40, 'h', 't'});
+        }
+
+        PersistentHashTable loaded = PersistentHashTable.loadFromFile(TABLE);
+        assertEquals(3, loaded.size());
+        assertEquals(1, loaded.blockOf("https://en.wikipedia.org/wiki/C"));
+    }
+
+    @Test
+    void savingTheTableEmptiesTheLog() throws IOException {
+        PersistentHashTable table = savedTable();
+        table.openLog(TABLE);
+        table.put("https://en.wikipedia.org/wiki/C", 1, 0);
+        table.commitLog();
+        assertTrue(Files.size(Paths.get(PersistentHashTable.logFileName(TABLE))) > 0);
+        table.saveToFile(TABLE);
+        assertEquals(0, Files.size(Paths.get(PersistentHashTable.logFileName(TABLE))));
+        table.closeLog();
+
+        PersistentHashTable loaded = PersistentHashTable.loadFromFile(TABLE);
+        assertEquals(3, loaded.size());
+        assertEquals(1, loaded.blockOf("https://en.wikipedia.org/wiki/C"));
+    }
+}
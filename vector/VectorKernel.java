@@ -0,0 +1,33 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+//DenseKernel on the widest SIMD registers of the CPU. Needs --add-modules jdk.incubator.vector to compile
+//and run, so it sits in its own source root and is compiled after the main tree; DenseKernel.best() falls
+//back to the scalar loop when it is missing or the module is not loaded.
+class VectorKernel implements DenseKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public float minSum(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sums = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector x = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector y = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            sums = sums.add(x.min(y));
+        }
+        float sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += Math.min(a[aOffset + i], b[bOffset + i]);
+        }
+        return sum;
+    }
+
+    @Override
+    public String name() {
+        return "vector " + SPECIES.length() + " x float";
+    }
+}